@@ -0,0 +1,107 @@
+package com.example.native_camera2;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reusable byte arrays for frame data, shared by every camera of the plugin under one memory
+ * budget.
+ *
+ * <p>Arrays are pooled by exact length, since frames of one stream always have the same size.
+ * Released arrays are kept only while the bytes in use plus the bytes pooled stay within the
+ * budget; acquiring first evicts idle arrays of other lengths to make room. The budget never makes
+ * {@link #acquire} fail, it bounds what is kept around between captures. {@link #trim} drops idle
+ * arrays when the system is short on memory.
+ *
+ * <p>Plain Java, so {@link FrameMerger} stays free of Android dependencies.
+ */
+final class BufferPool {
+
+    private final long budgetBytes;
+
+    // Guarded by this.
+    private final Map<Integer, ArrayDeque<byte[]>> idle = new HashMap<>();
+    private long idleBytes = 0;
+    private long inUseBytes = 0;
+    private long peakBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    BufferPool(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("budgetBytes must not be negative");
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    /** Returns an array of exactly {@code length} bytes, reused if one is idle. Its content is undefined. */
+    synchronized byte[] acquire(int length) {
+        byte[] buffer = null;
+        ArrayDeque<byte[]> bucket = idle.get(length);
+        if (bucket != null) {
+            buffer = bucket.poll();
+        }
+        if (buffer != null) {
+            idleBytes -= length;
+            hits++;
+        } else {
+            evict(budgetBytes - inUseBytes - length);
+            buffer = new byte[length];
+            misses++;
+        }
+        inUseBytes += length;
+        peakBytes = Math.max(peakBytes, inUseBytes + idleBytes);
+        return buffer;
+    }
+
+    /** Hands an array from {@link #acquire} back; it must not be used afterwards. */
+    synchronized void release(byte[] buffer) {
+        inUseBytes -= buffer.length;
+        if (inUseBytes + idleBytes + buffer.length > budgetBytes) {
+            return;
+        }
+        ArrayDeque<byte[]> bucket = idle.get(buffer.length);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            idle.put(buffer.length, bucket);
+        }
+        bucket.push(buffer);
+        idleBytes += buffer.length;
+    }
+
+    /** Drops idle arrays until at most {@code maxIdleBytes} remain pooled. */
+    synchronized void trim(long maxIdleBytes) {
+        evict(maxIdleBytes);
+    }
+
+    long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /** Current and peak usage, in bytes, and how often an array could be reused. */
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("budgetBytes", budgetBytes);
+        stats.put("inUseBytes", inUseBytes);
+        stats.put("pooledBytes", idleBytes);
+        stats.put("peakBytes", peakBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        return stats;
+    }
+
+    private void evict(long maxIdleBytes) {
+        Iterator<ArrayDeque<byte[]>> buckets = idle.values().iterator();
+        while (idleBytes > Math.max(0, maxIdleBytes) && buckets.hasNext()) {
+            ArrayDeque<byte[]> bucket = buckets.next();
+            while (idleBytes > Math.max(0, maxIdleBytes) && !bucket.isEmpty()) {
+                idleBytes -= bucket.pop().length;
+            }
+            if (bucket.isEmpty()) {
+                buckets.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.native_camera2;
+
+import android.text.TextUtils;
+import android.util.Range;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * One exposure-bracketed burst: the exposure of every frame and the results of the frames, which
+ * are answered together once the last one was written.
+ *
+ * <p>With {@link #createManual} every frame carries its own exposure time and sensitivity, derived
+ * from the metered exposure of the preview, so the whole burst lands on the requested offsets.
+ * Cameras without the MANUAL_SENSOR capability fall back to {@link #create}, which locks auto
+ * exposure and sets an exposure compensation per frame. Compensation changes only reach the sensor
+ * after the pipeline latency of the camera, so within one burst the first frames may still be
+ * exposed like the preview; the reply then reports the requested offset, not the one reached.
+ *
+ * <p>Frame results arrive through {@link DartMessenger}, so always on the main thread.
+ */
+final class BurstCapture {
+
+    /** Upper bound for the number of frames, which the JPEG reader must be able to hold at once. */
+    static final int MAX_FRAMES = 7;
+
+    private final MethodChannel.Result result;
+    private final int[] compensations;
+    // Null unless the exposure is set manually.
+    @Nullable private final long[] exposureTimes;
+    @Nullable private final int[] sensitivities;
+    /** The EV offset of every frame from the metered exposure. */
+    private final double[] exposureValues;
+    private final Object[] replies;
+    private final String[] errors;
+    private int pending;
+
+    private BurstCapture(MethodChannel.Result result, int[] compensations, @Nullable long[] exposureTimes, @Nullable int[] sensitivities, double[] exposureValues) {
+        this.result = result;
+        this.compensations = compensations;
+        this.exposureTimes = exposureTimes;
+        this.sensitivities = sensitivities;
+        this.exposureValues = exposureValues;
+        this.replies = new Object[compensations.length];
+        this.errors = new String[compensations.length];
+        this.pending = compensations.length;
+    }
+
+    /**
+     * Converts exposure values to compensation indices of the camera.
+     *
+     * @param exposureValues the EV offset of every frame.
+     * @param range the supported compensation range, in steps.
+     * @param step the size of one compensation step in EV.
+     * @throws IllegalArgumentException if the camera does not support exposure compensation or
+     *     the number of frames is out of bounds.
+     */
+    static BurstCapture create(@NonNull MethodChannel.Result result, @NonNull List<Double> exposureValues,
+                               @Nullable Range<Integer> range, double step) {
+        checkFrameCount(exposureValues);
+        boolean supported = range != null && step > 0 && (range.getLower() != 0 || range.getUpper() != 0);
+        int[] compensations = new int[exposureValues.size()];
+        double[] reached = new double[compensations.length];
+        for (int i = 0; i < compensations.length; i++) {
+            double exposureValue = exposureValues.get(i);
+            if (exposureValue == 0) {
+                continue;
+            }
+            if (!supported) {
+                throw new IllegalArgumentException("The camera does not support exposure compensation.");
+            }
+            compensations[i] = range.clamp((int) Math.round(exposureValue / step));
+            reached[i] = compensations[i] * step;
+        }
+        return new BurstCapture(result, compensations, null, null, reached);
+    }
+
+    /**
+     * Converts exposure values to a manual exposure per frame, relative to the metered exposure.
+     * The exposure time changes first; what it cannot cover within its range goes to the
+     * sensitivity.
+     *
+     * @param exposureValues the EV offset of every frame.
+     * @param exposureTime the metered exposure time in nanoseconds.
+     * @param sensitivity the metered ISO sensitivity.
+     * @throws IllegalArgumentException if the number of frames is out of bounds.
+     */
+    static BurstCapture createManual(@NonNull MethodChannel.Result result, @NonNull List<Double> exposureValues,
+                                     long exposureTime, int sensitivity,
+                                     @NonNull Range<Long> exposureTimeRange, @NonNull Range<Integer> sensitivityRange) {
+        checkFrameCount(exposureValues);
+        int count = exposureValues.size();
+        long[] exposureTimes = new long[count];
+        int[] sensitivities = new int[count];
+        double[] reached = new double[count];
+        double metered = (double) exposureTime * sensitivity;
+        for (int i = 0; i < count; i++) {
+            double factor = Math.pow(2, exposureValues.get(i));
+            exposureTimes[i] = exposureTimeRange.clamp(Math.round(exposureTime * factor));
+            sensitivities[i] = sensitivityRange.clamp((int) Math.round(metered * factor / exposureTimes[i]));
+            reached[i] = Math.log((double) exposureTimes[i] * sensitivities[i] / metered) / Math.log(2);
+        }
+        return new BurstCapture(result, new int[count], exposureTimes, sensitivities, reached);
+    }
+
+    private static void checkFrameCount(List<Double> exposureValues) {
+        if (exposureValues.isEmpty() || exposureValues.size() > MAX_FRAMES) {
+            throw new IllegalArgumentException("A burst needs between 1 and " + MAX_FRAMES + " frames.");
+        }
+    }
+
+    int getFrameCount() {
+        return compensations.length;
+    }
+
+    /** Whether every frame has its own exposure time and sensitivity instead of a compensation. */
+    boolean isManual() {
+        return exposureTimes != null;
+    }
+
+    /** Returns the exposure time of a frame of a manual burst, in nanoseconds. */
+    long getExposureTime(int index) {
+        return exposureTimes[index];
+    }
+
+    /** Returns the ISO sensitivity of a frame of a manual burst. */
+    int getSensitivity(int index) {
+        return sensitivities[index];
+    }
+
+    /** Returns the exposure compensation of a frame, in steps of the camera. */
+    int getCompensation(int index) {
+        return compensations[index];
+    }
+
+    /** Returns the result that receives the outcome of one frame. */
+    MethodChannel.Result getFrameResult(int index) {
+        return new MethodChannel.Result() {
+            @Override
+            public void success(@Nullable Object reply) {
+                replies[index] = reply;
+                onFrameDone();
+            }
+
+            @Override
+            public void error(@NonNull String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+                errors[index] = errorCode + ": " + errorMessage;
+                onFrameDone();
+            }
+
+            @Override
+            public void notImplemented() {
+                errors[index] = "notImplemented";
+                onFrameDone();
+            }
+        };
+    }
+
+    private void onFrameDone() {
+        if (--pending > 0) {
+            return;
+        }
+        List<Map<String, Object>> frames = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < compensations.length; i++) {
+            if (errors[i] != null) {
+                failures.add("frame " + i + " (" + errors[i] + ")");
+                continue;
+            }
+            Map<String, Object> frame = new HashMap<>();
+            if (replies[i] instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) replies[i]).entrySet()) {
+                    frame.put(String.valueOf(entry.getKey()), entry.getValue());
+                }
+            }
+            frame.put("index", i);
+            frame.put("exposureCompensation", exposureValues[i]);
+            frame.put("manualExposure", exposureTimes != null);
+            if (exposureTimes != null) {
+                frame.put("exposureTimeNs", exposureTimes[i]);
+                frame.put("iso", sensitivities[i]);
+            }
+            frames.add(frame);
+        }
+
+        if (!failures.isEmpty()) {
+            // The frames that were written are passed along, so they are not lost.
+            result.error("burstFailed", failures.size() + " of " + compensations.length + " frames failed: " + TextUtils.join(", ", failures), frames);
+            return;
+        }
+        result.success(frames);
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.native_camera2;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link CameraBackend} on camera2. Requests are {@link CaptureRequest.Builder}s, built when they
+ * are submitted, and every callback of a device runs on the handler it was opened with.
+ *
+ * <p>Outputs wrap a {@link Surface}: of an {@link ImageReader} for image outputs, of a {@link
+ * SurfaceTexture} for texture outputs. From API 26 an output may be deferred: the session is
+ * configured with its size only and {@link #finalizeOutput} attaches the surface once it exists.
+ */
+final class Camera2Backend implements CameraBackend<CaptureRequest.Builder, TotalCaptureResult> {
+
+    private final CameraManager cameraManager;
+
+    Camera2Backend(@NonNull CameraManager cameraManager) {
+        this.cameraManager = cameraManager;
+    }
+
+    @NonNull
+    @Override
+    public ImageOutput createImageOutput(@NonNull String name, int width, int height, int format, int maxImages, @NonNull ImageListener listener, @NonNull Handler handler) {
+        ImageReader reader = ImageReader.newInstance(width, height, format, maxImages);
+        ImageReaderOutput output = new ImageReaderOutput(name, reader);
+        reader.setOnImageAvailableListener(r -> listener.onImageAvailable(output), handler);
+        return output;
+    }
+
+    @NonNull
+    @Override
+    public Output createTextureOutput(@NonNull String name, @NonNull SurfaceTexture texture) {
+        return new SurfaceOutput(name, new Surface(texture), null);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    @NonNull
+    @Override
+    public Output createDeferredOutput(@NonNull String name, @NonNull Size size) {
+        return new SurfaceOutput(name, null, new OutputConfiguration(size, SurfaceTexture.class));
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    @Override
+    public void finalizeOutput(@NonNull Session<CaptureRequest.Builder, TotalCaptureResult> session, @NonNull Output deferred, @NonNull Output target) throws CameraAccessException {
+        SurfaceOutput surfaceOutput = (SurfaceOutput) deferred;
+        Surface surface = ((SurfaceOutput) target).surface;
+        surfaceOutput.configuration.addSurface(surface);
+        ((Camera2Session) session).session.finalizeOutputConfigurations(Collections.singletonList(surfaceOutput.configuration));
+        surfaceOutput.surface = surface;
+    }
+
+    @NonNull
+    @Override
+    public List<String> getCameraIds() throws CameraAccessException {
+        return Arrays.asList(cameraManager.getCameraIdList());
+    }
+
+    @Override
+    public void openCamera(@NonNull String cameraId, @NonNull DeviceCallback<CaptureRequest.Builder, TotalCaptureResult> callback, @NonNull Handler handler) throws CameraAccessException {
+        cameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+            // One wrapper per open, so callers can compare devices by identity.
+            private Camera2Device device;
+
+            private Camera2Device wrap(CameraDevice camera) {
+                if (device == null || device.camera != camera) {
+                    device = new Camera2Device(camera, handler);
+                }
+                return device;
+            }
+
+            @Override
+            public void onOpened(@NonNull CameraDevice camera) {
+                callback.onOpened(wrap(camera));
+            }
+
+            @Override
+            public void onDisconnected(@NonNull CameraDevice camera) {
+                callback.onDisconnected(wrap(camera));
+            }
+
+            @Override
+            public void onError(@NonNull CameraDevice camera, int error) {
+                callback.onError(wrap(camera), error);
+            }
+
+            @Override
+            public void onClosed(@NonNull CameraDevice camera) {
+                callback.onClosed(wrap(camera));
+            }
+        }, handler);
+    }
+
+    private static class SurfaceOutput implements Output {
+        final String name;
+        @Nullable final OutputConfiguration configuration;
+        // Set once a deferred output is finalized.
+        @Nullable volatile Surface surface;
+
+        SurfaceOutput(String name, @Nullable Surface surface, @Nullable OutputConfiguration configuration) {
+            this.name = name;
+            this.surface = surface;
+            this.configuration = configuration;
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final class ImageReaderOutput extends SurfaceOutput implements ImageOutput {
+        final ImageReader reader;
+
+        ImageReaderOutput(String name, ImageReader reader) {
+            super(name, reader.getSurface(), null);
+            this.reader = reader;
+        }
+
+        @Nullable
+        @Override
+        public Image acquireNextImage() {
+            return reader.acquireNextImage();
+        }
+
+        @Nullable
+        @Override
+        public Image acquireLatestImage() {
+            return reader.acquireLatestImage();
+        }
+
+        @Override
+        public void close() {
+            reader.close();
+        }
+    }
+
+    private static final class Camera2Device implements Device<CaptureRequest.Builder, TotalCaptureResult> {
+        final CameraDevice camera;
+        final Handler handler;
+
+        Camera2Device(CameraDevice camera, Handler handler) {
+            this.camera = camera;
+            this.handler = handler;
+        }
+
+        @NonNull
+        @Override
+        public String getId() {
+            return camera.getId();
+        }
+
+        @Override
+        public void createSession(@NonNull List<Output> outputs, @NonNull SessionCallback<CaptureRequest.Builder, TotalCaptureResult> callback) throws CameraAccessException {
+            CameraCaptureSession.StateCallback stateCallback = new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    callback.onConfigured(new Camera2Session(Camera2Device.this, session));
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    callback.onConfigureFailed();
+                }
+
+                @Override
+                public void onClosed(@NonNull CameraCaptureSession session) {
+                    callback.onClosed();
+                }
+            };
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                List<OutputConfiguration> configurations = new ArrayList<>(outputs.size());
+                for (Output output : outputs) {
+                    SurfaceOutput surfaceOutput = (SurfaceOutput) output;
+                    configurations.add(surfaceOutput.configuration != null
+                            ? surfaceOutput.configuration
+                            : new OutputConfiguration(surfaceOutput.surface));
+                }
+                camera.createCaptureSessionByOutputConfigurations(configurations, stateCallback, handler);
+            } else {
+                List<Surface> surfaces = new ArrayList<>(outputs.size());
+                for (Output output : outputs) {
+                    surfaces.add(((SurfaceOutput) output).surface);
+                }
+                camera.createCaptureSession(surfaces, stateCallback, handler);
+            }
+        }
+
+        @NonNull
+        @Override
+        public CaptureRequest.Builder createRequest(int template, @NonNull Output... targets) throws CameraAccessException {
+            CaptureRequest.Builder request = camera.createCaptureRequest(template);
+            for (Output target : targets) {
+                Surface surface = ((SurfaceOutput) target).surface;
+                if (surface == null) {
+                    throw new IllegalStateException("Output " + target.getName() + " has no surface yet");
+                }
+                request.addTarget(surface);
+            }
+            return request;
+        }
+
+        @Override
+        public void close() {
+            camera.close();
+        }
+    }
+
+    private static final class Camera2Session implements Session<CaptureRequest.Builder, TotalCaptureResult> {
+        final Camera2Device device;
+        final CameraCaptureSession session;
+        final Handler handler;
+
+        Camera2Session(Camera2Device device, CameraCaptureSession session) {
+            this.device = device;
+            this.session = session;
+            this.handler = device.handler;
+        }
+
+        @NonNull
+        @Override
+        public Device<CaptureRequest.Builder, TotalCaptureResult> getDevice() {
+            return device;
+        }
+
+        @Override
+        public void setRepeating(@NonNull CaptureRequest.Builder request, @Nullable Object tag, @Nullable CaptureListener<TotalCaptureResult> listener) throws CameraAccessException {
+            request.setTag(tag);
+            session.setRepeatingRequest(request.build(), wrap(listener), handler);
+        }
+
+        @Override
+        public void stopRepeating() throws CameraAccessException {
+            session.stopRepeating();
+        }
+
+        @Override
+        public void capture(@NonNull CaptureRequest.Builder request, @Nullable Object tag, @Nullable CaptureListener<TotalCaptureResult> listener) throws CameraAccessException {
+            request.setTag(tag);
+            session.capture(request.build(), wrap(listener), handler);
+        }
+
+        @Override
+        public void captureBurst(@NonNull List<CaptureRequest.Builder> requests, @NonNull List<?> tags, @Nullable CaptureListener<TotalCaptureResult> listener) throws CameraAccessException {
+            List<CaptureRequest> built = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                CaptureRequest.Builder request = requests.get(i);
+                request.setTag(tags.get(i));
+                built.add(request.build());
+            }
+            session.captureBurst(built, wrap(listener), handler);
+        }
+
+        @Override
+        public void close() {
+            session.close();
+        }
+    }
+
+    @Nullable
+    private static CameraCaptureSession.CaptureCallback wrap(@Nullable CaptureListener<TotalCaptureResult> listener) {
+        if (listener == null) {
+            return null;
+        }
+        return new CameraCaptureSession.CaptureCallback() {
+            @Override
+            public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+                listener.onCaptureStarted(request.getTag(), timestamp, frameNumber);
+            }
+
+            @Override
+            public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+                listener.onCaptureCompleted(request.getTag(), result);
+            }
+
+            @Override
+            public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+                listener.onCaptureFailed(request.getTag(), failure.getReason());
+            }
+        };
+    }
+}
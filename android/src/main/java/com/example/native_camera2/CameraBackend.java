@@ -0,0 +1,189 @@
+package com.example.native_camera2;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.media.Image;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.util.List;
+
+/**
+ * Camera device API reduced to what {@link NativeCamera} needs to open a camera, create its outputs,
+ * configure a session and run requests on it, so the create / initialize / takePicture / dispose
+ * cycle can run against camera2 on a device and against a fake in unit tests.
+ *
+ * <p>The shape follows camera2: a device is opened asynchronously, a session is configured with a
+ * fixed set of named outputs, a repeating request feeds the preview and still captures report their
+ * sensor timestamp when they start and their metadata when they complete. Requests are created by
+ * the device for a template and a set of target outputs; their settings are backend specific, which
+ * is what {@code R} stands for, as {@code T} does for the final capture metadata. The callbacks of a
+ * device, its sessions and their captures run on the handler the device was opened with, those of
+ * an image output on the handler it was created with.
+ *
+ * <p>Only {@link CameraAccessException} is taken from camera2, so callers handle one exception type
+ * whichever backend they run on.
+ *
+ * @param <R> the mutable request, e.g. {@link android.hardware.camera2.CaptureRequest.Builder}.
+ * @param <T> the metadata of a completed capture, e.g. {@link
+ *     android.hardware.camera2.TotalCaptureResult}.
+ * @see Camera2Backend
+ */
+interface CameraBackend<R, T> {
+
+    /** Template of a preview request, the value of camera2. */
+    int TEMPLATE_PREVIEW = 1;
+    /** Template of a still capture request, the value of camera2. */
+    int TEMPLATE_STILL_CAPTURE = 2;
+
+    /** Error code reported when the device is used by another client. */
+    int ERROR_CAMERA_IN_USE = 1;
+    /** Error code reported when too many devices are open. */
+    int ERROR_MAX_CAMERAS_IN_USE = 2;
+    /** Error code reported when a device policy disabled the camera. */
+    int ERROR_CAMERA_DISABLED = 3;
+    /** Error code reported when the device encountered a fatal error. */
+    int ERROR_CAMERA_DEVICE = 4;
+    /** Error code reported when the camera service encountered a fatal error. */
+    int ERROR_CAMERA_SERVICE = 5;
+
+    /** Returns the identifiers of every camera the backend can open. */
+    @NonNull
+    List<String> getCameraIds() throws CameraAccessException;
+
+    /** Opens the camera asynchronously; the outcome is reported to {@code callback} on {@code handler}. */
+    void openCamera(@NonNull String cameraId, @NonNull DeviceCallback<R, T> callback, @NonNull Handler handler) throws CameraAccessException;
+
+    /**
+     * Returns an output that receives images of {@code format}, like an {@link
+     * android.media.ImageReader} with room for {@code maxImages}.
+     *
+     * @throws IllegalArgumentException if the size, format or image count is not supported.
+     */
+    @NonNull
+    ImageOutput createImageOutput(@NonNull String name, int width, int height, int format, int maxImages, @NonNull ImageListener listener, @NonNull Handler handler);
+
+    /** Returns an output that draws to {@code texture}, at the texture's default buffer size. */
+    @NonNull
+    Output createTextureOutput(@NonNull String name, @NonNull SurfaceTexture texture);
+
+    /** Returns a texture output of {@code size} whose texture is attached with {@link #finalizeOutput}. */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    @NonNull
+    Output createDeferredOutput(@NonNull String name, @NonNull Size size);
+
+    /**
+     * Attaches the texture of {@code target}, created with {@link #createTextureOutput}, to the
+     * deferred output of a configured session. Requests may target {@code deferred} afterwards.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    void finalizeOutput(@NonNull Session<R, T> session, @NonNull Output deferred, @NonNull Output target) throws CameraAccessException;
+
+    /** Receives the state changes of one opened device. */
+    interface DeviceCallback<R, T> {
+        void onOpened(@NonNull Device<R, T> device);
+
+        void onDisconnected(@NonNull Device<R, T> device);
+
+        void onError(@NonNull Device<R, T> device, int error);
+
+        void onClosed(@NonNull Device<R, T> device);
+    }
+
+    /** An opened camera device. */
+    interface Device<R, T> {
+        @NonNull
+        String getId();
+
+        /** Configures a session with the given outputs; the outcome is reported to {@code callback}. */
+        void createSession(@NonNull List<Output> outputs, @NonNull SessionCallback<R, T> callback) throws CameraAccessException;
+
+        /** Returns a new request of the given template that targets {@code targets}. */
+        @NonNull
+        R createRequest(int template, @NonNull Output... targets) throws CameraAccessException;
+
+        void close();
+    }
+
+    /** Receives the state changes of one session. */
+    interface SessionCallback<R, T> {
+        void onConfigured(@NonNull Session<R, T> session);
+
+        void onConfigureFailed();
+
+        void onClosed();
+    }
+
+    /** A configured capture session. */
+    interface Session<R, T> {
+        @NonNull
+        Device<R, T> getDevice();
+
+        /**
+         * Starts or replaces the repeating request.
+         *
+         * @param tag handed to every callback of the request.
+         */
+        void setRepeating(@NonNull R request, @Nullable Object tag, @Nullable CaptureListener<T> listener) throws CameraAccessException;
+
+        void stopRepeating() throws CameraAccessException;
+
+        /**
+         * Submits a single request.
+         *
+         * @param tag handed to every callback of the request.
+         */
+        void capture(@NonNull R request, @Nullable Object tag, @Nullable CaptureListener<T> listener) throws CameraAccessException;
+
+        /** Submits requests that run back to back; {@code tags} holds the tag of each request. */
+        void captureBurst(@NonNull List<R> requests, @NonNull List<?> tags, @Nullable CaptureListener<T> listener) throws CameraAccessException;
+
+        void close();
+    }
+
+    /** One output of a session, named so requests and logs can refer to it. */
+    interface Output {
+        @NonNull
+        String getName();
+    }
+
+    /** An output whose images are handed to the caller, who must close every image it acquires. */
+    interface ImageOutput extends Output {
+        /** Returns the next image in the queue, or null if there is none. */
+        @Nullable
+        Image acquireNextImage();
+
+        /**
+         * Returns the newest image in the queue and closes the older ones, or null if there is none.
+         *
+         * @throws IllegalStateException if every image is acquired already.
+         */
+        @Nullable
+        Image acquireLatestImage();
+
+        /** Drops the images still in the queue; the output must not be used afterwards. */
+        void close();
+    }
+
+    /** Told when an image output has a new image. */
+    interface ImageListener {
+        void onImageAvailable(@NonNull ImageOutput output);
+    }
+
+    /** Receives the progress of captures, identified by the tag they were submitted with. */
+    interface CaptureListener<T> {
+        default void onCaptureStarted(@Nullable Object tag, long timestamp, long frameNumber) {
+        }
+
+        default void onCaptureCompleted(@Nullable Object tag, @NonNull T result) {
+        }
+
+        default void onCaptureFailed(@Nullable Object tag, int reason) {
+        }
+    }
+}
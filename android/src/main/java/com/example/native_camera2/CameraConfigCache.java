@@ -0,0 +1,363 @@
+package com.example.native_camera2;
+
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Persists the configuration negotiated for each camera, so a cold start can open the camera with
+ * the sizes chosen last time instead of querying characteristics and planning streams first.
+ *
+ * <p>The file is a small binary record set tagged with a format version and {@link Build#FINGERPRINT};
+ * a different version or a system update discards it, and so does a record that does not parse.
+ * It is read on the background thread as soon as the cache is created; a lookup never waits for it
+ * and misses until it is loaded. Entries that are used without negotiating are checked against the
+ * live characteristics on a background thread and replaced if they changed, which takes effect on
+ * the next initialize.
+ */
+final class CameraConfigCache {
+
+    private static final String TAG = CameraConfigCache.class.getSimpleName();
+
+    private static final String FILE_NAME = "camera_config.bin";
+    private static final int MAGIC = 0x4e43434e; // "NCCN"
+    private static final int VERSION = 3;
+    /** Bounds of the counts read from the file; larger values mean it is corrupt. */
+    private static final int MAX_ENTRIES = 64;
+    private static final int MAX_INTS = 256;
+
+    /** The configuration negotiated for one camera with one set of options. */
+    static final class Entry {
+        // Key: what the negotiation depends on besides the camera itself.
+        final String cameraName;
+        final int displayWidth;
+        final int displayHeight;
+        final boolean rawEnabled;
+        final boolean heicEnabled;
+        final boolean yuvBurstEnabled;
+        final boolean snapshotEnabled;
+
+        final int hardwareLevel;
+        final Size previewSize;
+        final Size jpegSize;
+        @Nullable final Size heicSize;
+        @Nullable final Size rawSize;
+        @Nullable final Size yuvSize;
+        @Nullable final Size snapshotSize;
+        final int fpsLower;
+        final int fpsUpper;
+        final int[] capabilities;
+        final int[] afModes;
+
+        Entry(String cameraName, int displayWidth, int displayHeight, boolean rawEnabled, boolean heicEnabled, boolean yuvBurstEnabled, boolean snapshotEnabled,
+              int hardwareLevel, Size previewSize, Size jpegSize, @Nullable Size heicSize, @Nullable Size rawSize, @Nullable Size yuvSize, @Nullable Size snapshotSize,
+              int fpsLower, int fpsUpper, int[] capabilities, int[] afModes) {
+            this.cameraName = cameraName;
+            this.displayWidth = displayWidth;
+            this.displayHeight = displayHeight;
+            this.rawEnabled = rawEnabled;
+            this.heicEnabled = heicEnabled;
+            this.yuvBurstEnabled = yuvBurstEnabled;
+            this.snapshotEnabled = snapshotEnabled;
+            this.hardwareLevel = hardwareLevel;
+            this.previewSize = previewSize;
+            this.jpegSize = jpegSize;
+            this.heicSize = heicSize;
+            this.rawSize = rawSize;
+            this.yuvSize = yuvSize;
+            this.snapshotSize = snapshotSize;
+            this.fpsLower = fpsLower;
+            this.fpsUpper = fpsUpper;
+            this.capabilities = capabilities;
+            this.afModes = afModes;
+        }
+
+        boolean matches(String cameraName, int displayWidth, int displayHeight, boolean rawEnabled, boolean heicEnabled, boolean yuvBurstEnabled, boolean snapshotEnabled) {
+            return this.cameraName.equals(cameraName)
+                    && this.displayWidth == displayWidth
+                    && this.displayHeight == displayHeight
+                    && this.rawEnabled == rawEnabled
+                    && this.heicEnabled == heicEnabled
+                    && this.yuvBurstEnabled == yuvBurstEnabled
+                    && this.snapshotEnabled == snapshotEnabled;
+        }
+
+        boolean sameAs(Entry other) {
+            return matches(other.cameraName, other.displayWidth, other.displayHeight, other.rawEnabled, other.heicEnabled, other.yuvBurstEnabled, other.snapshotEnabled)
+                    && hardwareLevel == other.hardwareLevel
+                    && previewSize.equals(other.previewSize)
+                    && jpegSize.equals(other.jpegSize)
+                    && (heicSize == null ? other.heicSize == null : heicSize.equals(other.heicSize))
+                    && (rawSize == null ? other.rawSize == null : rawSize.equals(other.rawSize))
+                    && (yuvSize == null ? other.yuvSize == null : yuvSize.equals(other.yuvSize))
+                    && (snapshotSize == null ? other.snapshotSize == null : snapshotSize.equals(other.snapshotSize))
+                    && fpsLower == other.fpsLower
+                    && fpsUpper == other.fpsUpper
+                    && Arrays.equals(capabilities, other.capabilities)
+                    && Arrays.equals(afModes, other.afModes);
+        }
+    }
+
+    private final File file;
+    private final String fingerprint;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CameraConfigCache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this. One entry per camera; a new option set replaces the previous one.
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Cameras stored or dropped before the file was loaded; their stored entries are stale.
+    private final Set<String> changedBeforeLoad = new HashSet<>();
+    private boolean loaded = false;
+
+    CameraConfigCache(@NonNull File directory) {
+        this.file = new File(directory, FILE_NAME);
+        this.fingerprint = Build.FINGERPRINT;
+        // Queued first, so every write runs after it.
+        submit(this::load);
+    }
+
+    /**
+     * Returns the stored configuration for the camera and options, or null if there is none or the
+     * file is still being read.
+     */
+    @Nullable
+    synchronized Entry get(String cameraName, int displayWidth, int displayHeight, boolean rawEnabled, boolean heicEnabled, boolean yuvBurstEnabled, boolean snapshotEnabled) {
+        if (!loaded) {
+            Log.d(TAG, "get | cache is still loading");
+            return null;
+        }
+        Entry entry = entries.get(cameraName);
+        if (entry == null || !entry.matches(cameraName, displayWidth, displayHeight, rawEnabled, heicEnabled, yuvBurstEnabled, snapshotEnabled)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /** Stores a freshly negotiated configuration. */
+    synchronized void put(Entry entry) {
+        entries.put(entry.cameraName, entry);
+        if (!loaded) {
+            changedBeforeLoad.add(entry.cameraName);
+        }
+        scheduleWrite();
+    }
+
+    /** Drops the configuration of a camera, e.g. after a session could not be configured with it. */
+    synchronized void invalidate(String cameraName) {
+        if (!loaded) {
+            changedBeforeLoad.add(cameraName);
+        }
+        if (entries.remove(cameraName) != null || !loaded) {
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Negotiates the configuration again on the background thread and replaces {@code cached} if
+     * the result differs.
+     */
+    void validate(Entry cached, Callable<Entry> negotiate) {
+        submit(() -> {
+            Entry current;
+            try {
+                current = negotiate.call();
+            } catch (Exception e) {
+                Log.w(TAG, "validate | could not negotiate configuration of camera " + cached.cameraName, e);
+                return;
+            }
+            if (!current.sameAs(cached)) {
+                Log.d(TAG, "validate | configuration of camera " + cached.cameraName + " changed, updating cache");
+                put(current);
+            }
+        });
+    }
+
+    void close() {
+        executor.shutdown();
+    }
+
+    /** Runs on the background thread. */
+    private void load() {
+        Map<String, Entry> stored = new HashMap<>();
+        try {
+            stored = read();
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "load | discarding unreadable cache", e);
+        }
+        synchronized (this) {
+            for (Entry entry : stored.values()) {
+                if (!changedBeforeLoad.contains(entry.cameraName)) {
+                    entries.put(entry.cameraName, entry);
+                }
+            }
+            changedBeforeLoad.clear();
+            loaded = true;
+        }
+    }
+
+    private Map<String, Entry> read() throws IOException {
+        Map<String, Entry> result = new HashMap<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                Log.d(TAG, "read | cache has an unknown format, ignoring it");
+                return result;
+            }
+            if (!fingerprint.equals(input.readUTF())) {
+                Log.d(TAG, "read | cache was written by another system build, ignoring it");
+                return result;
+            }
+            int count = readCount(input, MAX_ENTRIES);
+            for (int i = 0; i < count; i++) {
+                Entry entry = readEntry(input);
+                result.put(entry.cameraName, entry);
+            }
+        }
+        return result;
+    }
+
+    /** Writes the entries as they are when the write runs, which is always after the load. */
+    private void scheduleWrite() {
+        submit(this::write);
+    }
+
+    private void write() {
+        List<Entry> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(entries.values());
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(fingerprint);
+            output.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                writeEntry(output, entry);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "write | could not write cache", e);
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(file)) {
+            Log.w(TAG, "write | could not replace " + file);
+            temporary.delete();
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "submit | cache closed, dropping task");
+        }
+    }
+
+    private static Entry readEntry(DataInputStream input) throws IOException {
+        return new Entry(
+                input.readUTF(),
+                input.readInt(),
+                input.readInt(),
+                input.readBoolean(),
+                input.readBoolean(),
+                input.readBoolean(),
+                input.readBoolean(),
+                input.readInt(),
+                readSize(input),
+                readSize(input),
+                readSize(input),
+                readSize(input),
+                readSize(input),
+                readSize(input),
+                input.readInt(),
+                input.readInt(),
+                readInts(input),
+                readInts(input));
+    }
+
+    private static void writeEntry(DataOutputStream output, Entry entry) throws IOException {
+        output.writeUTF(entry.cameraName);
+        output.writeInt(entry.displayWidth);
+        output.writeInt(entry.displayHeight);
+        output.writeBoolean(entry.rawEnabled);
+        output.writeBoolean(entry.heicEnabled);
+        output.writeBoolean(entry.yuvBurstEnabled);
+        output.writeBoolean(entry.snapshotEnabled);
+        output.writeInt(entry.hardwareLevel);
+        writeSize(output, entry.previewSize);
+        writeSize(output, entry.jpegSize);
+        writeSize(output, entry.heicSize);
+        writeSize(output, entry.rawSize);
+        writeSize(output, entry.yuvSize);
+        writeSize(output, entry.snapshotSize);
+        output.writeInt(entry.fpsLower);
+        output.writeInt(entry.fpsUpper);
+        writeInts(output, entry.capabilities);
+        writeInts(output, entry.afModes);
+    }
+
+    /** Absent sizes are stored as 0x0. */
+    @Nullable
+    private static Size readSize(DataInputStream input) throws IOException {
+        int width = input.readInt();
+        int height = input.readInt();
+        return width == 0 || height == 0 ? null : new Size(width, height);
+    }
+
+    private static void writeSize(DataOutputStream output, @Nullable Size size) throws IOException {
+        output.writeInt(size == null ? 0 : size.getWidth());
+        output.writeInt(size == null ? 0 : size.getHeight());
+    }
+
+    private static int[] readInts(DataInputStream input) throws IOException {
+        int[] values = new int[readCount(input, MAX_INTS)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = input.readInt();
+        }
+        return values;
+    }
+
+    private static int readCount(DataInputStream input, int max) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+        output.writeInt(values.length);
+        for (int value : values) {
+            output.writeInt(value);
+        }
+    }
+}
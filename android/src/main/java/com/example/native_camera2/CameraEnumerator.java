@@ -0,0 +1,212 @@
+package com.example.native_camera2;
+
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Enumerates every camera of the device, including the physical cameras behind logical
+ * multi-cameras, together with a summary of their capabilities.
+ *
+ * <p>The characteristics of all cameras are queried in parallel the first time the list is needed
+ * and the result is cached. Characteristics never change, only the set of cameras does, so the
+ * cache is dropped when the availability callback reports a camera that is not in it, or an
+ * external camera going away. Every drop bumps a generation, so a query that was already running
+ * when the cameras changed is delivered but not cached.
+ *
+ * <p>A physical camera that is also listed on its own, or that belongs to several logical cameras,
+ * is described once.
+ */
+final class CameraEnumerator {
+
+    private static final String TAG = CameraEnumerator.class.getSimpleName();
+    private static final int MAX_QUERY_THREADS = 4;
+
+    /** Receives the cameras, or the error that prevented listing them. */
+    interface Callback {
+        void onCameras(List<Map<String, Object>> cameras);
+
+        void onError(Exception exception);
+    }
+
+    private final CameraManager cameraManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Requests are serialized on one thread so concurrent callers share a single query, which in
+    // turn fans out over the query pool.
+    private final ExecutorService requestExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService queryExecutor = Executors.newFixedThreadPool(MAX_QUERY_THREADS);
+
+    // Guarded by this.
+    private List<Map<String, Object>> cachedCameras;
+    private Set<String> cachedNames = Collections.emptySet();
+    private Set<String> externalNames = Collections.emptySet();
+    private int generation = 0;
+
+    private final CameraManager.AvailabilityCallback availabilityCallback = new CameraManager.AvailabilityCallback() {
+        @Override
+        public void onCameraAvailable(@NonNull String cameraId) {
+            synchronized (CameraEnumerator.this) {
+                if (cachedCameras != null && !cachedNames.contains(cameraId)) {
+                    Log.d(TAG, "camera " + cameraId + " appeared, dropping cache");
+                    cachedCameras = null;
+                }
+                // A query in flight may not have seen the camera.
+                generation++;
+            }
+        }
+
+        @Override
+        public void onCameraUnavailable(@NonNull String cameraId) {
+            // Built-in cameras become unavailable whenever a client opens them, external ones also
+            // when they are unplugged.
+            synchronized (CameraEnumerator.this) {
+                if (externalNames.contains(cameraId)) {
+                    if (cachedCameras != null) {
+                        Log.d(TAG, "external camera " + cameraId + " went away, dropping cache");
+                        cachedCameras = null;
+                    }
+                    generation++;
+                }
+            }
+        }
+    };
+
+    CameraEnumerator(@NonNull CameraManager cameraManager) {
+        this.cameraManager = cameraManager;
+        cameraManager.registerAvailabilityCallback(availabilityCallback, mainHandler);
+    }
+
+    /**
+     * Delivers the cameras to {@code callback} on the main thread.
+     *
+     * @param includePhysical whether the physical cameras of logical multi-cameras are included.
+     */
+    void getCameras(boolean includePhysical, @NonNull Callback callback) {
+        List<Map<String, Object>> cameras;
+        synchronized (this) {
+            cameras = cachedCameras;
+        }
+        if (cameras != null) {
+            callback.onCameras(filter(cameras, includePhysical));
+            return;
+        }
+
+        requestExecutor.execute(() -> {
+            try {
+                List<Map<String, Object>> queried;
+                synchronized (this) {
+                    queried = cachedCameras;
+                }
+                if (queried == null) {
+                    queried = queryAll();
+                }
+                List<Map<String, Object>> reply = filter(queried, includePhysical);
+                mainHandler.post(() -> callback.onCameras(reply));
+            } catch (CameraAccessException | InterruptedException e) {
+                mainHandler.post(() -> callback.onError(e));
+            } catch (ExecutionException e) {
+                Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                mainHandler.post(() -> callback.onError(cause));
+            }
+        });
+    }
+
+    void close() {
+        cameraManager.unregisterAvailabilityCallback(availabilityCallback);
+        requestExecutor.shutdown();
+        queryExecutor.shutdown();
+    }
+
+    private List<Map<String, Object>> queryAll() throws CameraAccessException, InterruptedException, ExecutionException {
+        int queryGeneration;
+        synchronized (this) {
+            queryGeneration = generation;
+        }
+        String[] cameraNames = cameraManager.getCameraIdList();
+        List<Future<List<Map<String, Object>>>> futures = new ArrayList<>(cameraNames.length);
+        for (String cameraName : cameraNames) {
+            futures.add(queryExecutor.submit(() -> describeWithPhysicalCameras(cameraName)));
+        }
+        List<List<Map<String, Object>>> described = new ArrayList<>(futures.size());
+        for (Future<List<Map<String, Object>>> future : futures) {
+            described.add(future.get());
+        }
+
+        // Public cameras first, so a physical camera that can also be opened on its own is listed
+        // as such.
+        Set<String> names = new HashSet<>(Arrays.asList(cameraNames));
+        List<Map<String, Object>> cameras = new ArrayList<>();
+        for (List<Map<String, Object>> logical : described) {
+            cameras.add(logical.get(0));
+        }
+        for (List<Map<String, Object>> logical : described) {
+            for (Map<String, Object> physical : logical.subList(1, logical.size())) {
+                if (names.add((String) physical.get("name"))) {
+                    cameras.add(physical);
+                }
+            }
+        }
+
+        Set<String> external = new HashSet<>();
+        for (Map<String, Object> camera : cameras) {
+            if ("external".equals(camera.get("lensFacing"))) {
+                external.add((String) camera.get("name"));
+            }
+        }
+        synchronized (this) {
+            if (generation != queryGeneration) {
+                Log.d(TAG, "cameras changed during the query, not caching it");
+                return cameras;
+            }
+            cachedCameras = Collections.unmodifiableList(cameras);
+            cachedNames = names;
+            externalNames = external;
+        }
+        return cameras;
+    }
+
+    private List<Map<String, Object>> describeWithPhysicalCameras(String cameraName) throws CameraAccessException {
+        List<Map<String, Object>> cameras = new ArrayList<>();
+        CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraName);
+        cameras.add(CameraUtils.describeCamera(cameraName, characteristics, null));
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            for (String physicalName : characteristics.getPhysicalCameraIds()) {
+                CameraCharacteristics physicalCharacteristics = cameraManager.getCameraCharacteristics(physicalName);
+                cameras.add(CameraUtils.describeCamera(physicalName, physicalCharacteristics, cameraName));
+            }
+        }
+        return cameras;
+    }
+
+    private static List<Map<String, Object>> filter(List<Map<String, Object>> cameras, boolean includePhysical) {
+        if (includePhysical) {
+            return new ArrayList<>(cameras);
+        }
+        List<Map<String, Object>> logical = new ArrayList<>();
+        for (Map<String, Object> camera : cameras) {
+            if (!Boolean.TRUE.equals(camera.get("physical"))) {
+                logical.add(camera);
+            }
+        }
+        return logical;
+    }
+}
@@ -87,6 +87,18 @@ public interface CameraProperties {
      */
     Integer getControlMaxRegionsAutoFocus();
 
+    /**
+     * Returns the range of zoom ratios for @see android.control.zoomRatio, or null if the camera
+     * device does not support zoom ratios.
+     *
+     * <p>By default maps to the @see
+     * android.hardware.camera2.CameraCharacteristics#CONTROL_ZOOM_RATIO_RANGE key.
+     *
+     * @return Range<Float> Minimum and maximum zoom ratio.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    Range<Float> getControlZoomRatioRange();
+
     /**
      * Returns a list of distortion correction modes for @see android.distortionCorrection.mode that
      * are supported by this camera device.
@@ -187,6 +199,17 @@ public interface CameraProperties {
     @RequiresApi(api = Build.VERSION_CODES.M)
     Rect getSensorInfoPreCorrectionActiveArraySize();
 
+    /**
+     * Returns the list of face detection modes for @see android.statistics.faceDetectMode that are
+     * supported by this camera device.
+     *
+     * <p>By default maps to the @see
+     * android.hardware.camera2.CameraCharacteristics#STATISTICS_INFO_AVAILABLE_FACE_DETECT_MODES key.
+     *
+     * @return int[] List of face detection modes supported by this camera device.
+     */
+    int[] getStatisticsInfoAvailableFaceDetectModes();
+
     /**
      * Returns the clockwise angle through which the output image needs to be rotated to be upright on
      * the device screen in its native orientation.
@@ -231,6 +254,14 @@ public interface CameraProperties {
      * @return int[] List of noise reduction modes that are supported by this camera device.
      */
     int[] getAvailableNoiseReductionModes();
+
+    /**
+     * Returns the characteristics these properties were read from, for APIs such as @see
+     * android.hardware.camera2.DngCreator that take them whole.
+     *
+     * @return CameraCharacteristics The characteristics of the camera device.
+     */
+    CameraCharacteristics getCameraCharacteristics();
 }
 
 /**
@@ -285,6 +316,12 @@ class CameraPropertiesImpl implements CameraProperties {
         return cameraCharacteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
     }
 
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    @Override
+    public Range<Float> getControlZoomRatioRange() {
+        return cameraCharacteristics.get(CameraCharacteristics.CONTROL_ZOOM_RATIO_RANGE);
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.P)
     @Override
     public int[] getDistortionCorrectionAvailableModes() {
@@ -328,6 +365,11 @@ class CameraPropertiesImpl implements CameraProperties {
                 CameraCharacteristics.SENSOR_INFO_PRE_CORRECTION_ACTIVE_ARRAY_SIZE);
     }
 
+    @Override
+    public int[] getStatisticsInfoAvailableFaceDetectModes() {
+        return cameraCharacteristics.get(CameraCharacteristics.STATISTICS_INFO_AVAILABLE_FACE_DETECT_MODES);
+    }
+
     @Override
     public int getSensorOrientation() {
         return cameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
@@ -344,4 +386,9 @@ class CameraPropertiesImpl implements CameraProperties {
                 CameraCharacteristics.NOISE_REDUCTION_AVAILABLE_NOISE_REDUCTION_MODES);
     }
 
+    @Override
+    public CameraCharacteristics getCameraCharacteristics() {
+        return cameraCharacteristics;
+    }
+
 }
@@ -0,0 +1,97 @@
+package com.example.native_camera2;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * System trace sections for the camera pipeline, so plugin work shows up next to UI frames in
+ * Perfetto and systrace.
+ *
+ * <p>Off by default. While off every call is a read of one volatile field; names are only built
+ * once tracing is on. Synchronous sections nest on the calling thread and must be ended on it:
+ *
+ * <pre>
+ * boolean traced = CameraTrace.begin("NativeCamera.writeFile");
+ * try {
+ *     ...
+ * } finally {
+ *     CameraTrace.end(traced);
+ * }
+ * </pre>
+ *
+ * <p>Async sections span threads, e.g. from submitting a capture until its file is written. They
+ * need API 29; on older versions only synchronous sections are recorded.
+ */
+final class CameraTrace {
+
+    /** Section names are cut off by the kernel beyond this length. */
+    private static final int MAX_NAME_LENGTH = 127;
+
+    private static volatile boolean enabled = false;
+    private static final AtomicInteger nextCookie = new AtomicInteger();
+
+    private CameraTrace() {
+    }
+
+    static void setEnabled(boolean enabled) {
+        CameraTrace.enabled = enabled;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Begins a section on this thread and returns whether it has to be ended. */
+    static boolean begin(String name) {
+        if (!enabled) {
+            return false;
+        }
+        Trace.beginSection(truncate(name));
+        return true;
+    }
+
+    /** Like {@link #begin(String)} with the name {@code prefix + suffix}, built only when tracing. */
+    static boolean begin(String prefix, String suffix) {
+        if (!enabled) {
+            return false;
+        }
+        Trace.beginSection(truncate(prefix + suffix));
+        return true;
+    }
+
+    static void end(boolean begun) {
+        if (begun) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Begins an async section.
+     *
+     * @return the cookie to end it with, or 0 if nothing was recorded.
+     */
+    static int beginAsync(String name) {
+        if (!enabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return 0;
+        }
+        int cookie = nextCookie.incrementAndGet();
+        if (cookie == 0) {
+            cookie = nextCookie.incrementAndGet();
+        }
+        Trace.beginAsyncSection(truncate(name), cookie);
+        return cookie;
+    }
+
+    /** Ends an async section begun with {@link #beginAsync}; a cookie of 0 is ignored. */
+    static void endAsync(String name, int cookie) {
+        if (cookie != 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(truncate(name), cookie);
+        }
+    }
+
+    private static String truncate(String name) {
+        return name.length() <= MAX_NAME_LENGTH ? name : name.substring(0, MAX_NAME_LENGTH);
+    }
+}
@@ -1,11 +1,17 @@
 package com.example.native_camera2;
 
-import android.app.Activity;
 import android.content.Context;
-import android.hardware.camera2.CameraAccessException;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Range;
+import android.util.Size;
+
+import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -19,48 +25,102 @@ public final class CameraUtils {
     }
 
     /**
-     * Gets all the available cameras for the device.
+     * Describes a single camera, including a summary of its capabilities.
      *
-     * @param activity The current Android activity.
-     * @return A map of all the available cameras, with their name as their key.
-     * @throws CameraAccessException when the camera could not be accessed.
+     * @param cameraName The identifier of the camera.
+     * @param characteristics The characteristics of the camera.
+     * @param logicalCameraName The logical camera this camera is a physical part of, or null.
+     * @return A map with the description sent to Dart.
      */
-    public static List<Map<String, Object>> getAvailableCameras(Activity activity)
-            throws CameraAccessException {
-        CameraManager cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
-        String[] cameraNames = cameraManager.getCameraIdList();
-        List<Map<String, Object>> cameras = new ArrayList<>();
-        for (String cameraName : cameraNames) {
-            int cameraId;
-            try {
-                cameraId = Integer.parseInt(cameraName, 10);
-            } catch (NumberFormatException e) {
-                cameraId = -1;
+    static Map<String, Object> describeCamera(String cameraName, CameraCharacteristics characteristics, @Nullable String logicalCameraName) {
+        HashMap<String, Object> details = new HashMap<>();
+        details.put("name", cameraName);
+        int sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        details.put("sensorOrientation", sensorOrientation);
+
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        details.put("lensFacing", getLensFacingName(lensFacing == null ? CameraMetadata.LENS_FACING_EXTERNAL : lensFacing));
+
+        details.put("physical", logicalCameraName != null);
+        if (logicalCameraName != null) {
+            details.put("logicalCameraName", logicalCameraName);
+        }
+
+        Integer hardwareLevel = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        details.put("hardwareLevel", getHardwareLevelName(hardwareLevel == null ? -1 : hardwareLevel));
+
+        int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        details.put("raw", hasCapability(capabilities, CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_RAW));
+        details.put("manualSensor", hasCapability(capabilities, CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_MANUAL_SENSOR));
+        details.put("logicalMultiCamera", Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                && hasCapability(capabilities, CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_LOGICAL_MULTI_CAMERA));
+
+        Float maxDigitalZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        float maxZoom = maxDigitalZoom == null ? 1f : maxDigitalZoom;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            Range<Float> zoomRatioRange = characteristics.get(CameraCharacteristics.CONTROL_ZOOM_RATIO_RANGE);
+            if (zoomRatioRange != null) {
+                maxZoom = zoomRatioRange.getUpper();
             }
-            if (cameraId < 0) {
-                continue;
+        }
+        details.put("maxZoom", (double) maxZoom);
+
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            details.put("previewSizes", toSizeList(map.getOutputSizes(SurfaceTexture.class)));
+            details.put("jpegSizes", toSizeList(map.getOutputSizes(ImageFormat.JPEG)));
+        }
+        return details;
+    }
+
+    static boolean hasCapability(@Nullable int[] capabilities, int capability) {
+        if (capabilities == null) {
+            return false;
+        }
+        for (int available : capabilities) {
+            if (available == capability) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    private static String getLensFacingName(int lensFacing) {
+        switch (lensFacing) {
+            case CameraMetadata.LENS_FACING_FRONT:
+                return "front";
+            case CameraMetadata.LENS_FACING_BACK:
+                return "back";
+            default:
+                return "external";
+        }
+    }
+
+    private static String getHardwareLevelName(int hardwareLevel) {
+        switch (hardwareLevel) {
+            case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY:
+                return "legacy";
+            case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED:
+                return "limited";
+            case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL:
+                return "full";
+            case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_3:
+                return "level3";
+            case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_EXTERNAL:
+                return "external";
+            default:
+                return "unknown";
+        }
+    }
 
-            HashMap<String, Object> details = new HashMap<>();
-            CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraName);
-            details.put("name", cameraName);
-            int sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-            details.put("sensorOrientation", sensorOrientation);
-
-            int lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
-            switch (lensFacing) {
-                case CameraMetadata.LENS_FACING_FRONT:
-                    details.put("lensFacing", "front");
-                    break;
-                case CameraMetadata.LENS_FACING_BACK:
-                    details.put("lensFacing", "back");
-                    break;
-                case CameraMetadata.LENS_FACING_EXTERNAL:
-                    details.put("lensFacing", "external");
-                    break;
+    /** Flattens sizes into {@code [width, height]} pairs, which the standard codec sends cheaply. */
+    private static List<int[]> toSizeList(@Nullable Size[] sizes) {
+        List<int[]> list = new ArrayList<>();
+        if (sizes != null) {
+            for (Size size : sizes) {
+                list.add(new int[] {size.getWidth(), size.getHeight()});
             }
-            cameras.add(details);
         }
-        return cameras;
+        return list;
     }
 }
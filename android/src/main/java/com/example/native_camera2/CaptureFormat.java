@@ -0,0 +1,39 @@
+package com.example.native_camera2;
+
+import androidx.annotation.Nullable;
+
+/** Specifies the file formats a still capture can be written as. */
+enum CaptureFormat {
+    /** JPEG encoded by the camera hardware. */
+    JPEG("jpeg", "jpg"),
+    /** HEIC encoded by the camera hardware, available from Android 10 where the camera supports it. */
+    HEIC("heic", "heic"),
+    /** Unprocessed {@link android.graphics.ImageFormat#RAW_SENSOR} data written as a DNG. */
+    DNG("dng", "dng");
+
+    final String name;
+    final String extension;
+
+    CaptureFormat(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+
+    /**
+     * Converts the format name sent from Dart into the matching {@link CaptureFormat}.
+     *
+     * @param name name of the format, {@code null} selects {@link #JPEG}.
+     * @throws IllegalArgumentException when the name is not a known format.
+     */
+    static CaptureFormat fromName(@Nullable String name) {
+        if (name == null) {
+            return JPEG;
+        }
+        for (CaptureFormat format : values()) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown capture format: " + name);
+    }
+}
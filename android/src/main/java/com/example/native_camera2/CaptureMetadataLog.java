@@ -0,0 +1,277 @@
+package com.example.native_camera2;
+
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists selected capture metadata of every still in a compact binary log. Records refer to their
+ * image by its path relative to the capture directory.
+ *
+ * <p>Capture threads only queue the {@link TotalCaptureResult} with its file. Values are read from
+ * the results and appended in batches on a single background thread, either shortly after the first
+ * queued capture or as soon as a batch is full, so logging adds nothing to capture latency.
+ *
+ * <p>The log starts with {@link #MAGIC} and a version byte. Each record is its length as an unsigned
+ * short followed by the fields of {@link #writeRecord}; readers skip fields a later version appends.
+ * Once the log exceeds {@link #MAX_LOG_BYTES} it is rotated to a single older generation.
+ */
+final class CaptureMetadataLog {
+
+    private static final String TAG = CaptureMetadataLog.class.getSimpleName();
+
+    private static final String LOG_FILE_NAME = "metadata.bin";
+    private static final String OLD_LOG_FILE_NAME = "metadata.old.bin";
+    private static final int MAGIC = 0x434d4c47;
+    private static final int VERSION = 1;
+    private static final long MAX_LOG_BYTES = 4L * 1024 * 1024;
+    private static final long FLUSH_DELAY_MILLIS = 1000;
+    private static final int MAX_BATCH = 32;
+
+    private static final class Pending {
+        final TotalCaptureResult result;
+        final String relativePath;
+        final long createdMillis;
+        final int exifOrientation;
+        final int lensFacing;
+
+        Pending(TotalCaptureResult result, String relativePath, long createdMillis, int exifOrientation, int lensFacing) {
+            this.result = result;
+            this.relativePath = relativePath;
+            this.createdMillis = createdMillis;
+            this.exifOrientation = exifOrientation;
+            this.lensFacing = lensFacing;
+        }
+    }
+
+    private final File directory;
+    private final File captureDirectory;
+    private final File logFile;
+    private final File oldLogFile;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CaptureMetadataLog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean enabled = false;
+
+    // Guarded by this.
+    private List<Pending> queue = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    // Only touched on the executor.
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(128);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+    /**
+     * @param directory where the log is kept, outside {@code captureDirectory} so it is never taken
+     *     for a capture.
+     * @param captureDirectory the directory of {@link CaptureStore}; logged paths are relative to it.
+     */
+    CaptureMetadataLog(@NonNull File directory, @NonNull File captureDirectory) {
+        this.directory = directory;
+        this.captureDirectory = captureDirectory;
+        this.logFile = new File(directory, LOG_FILE_NAME);
+        this.oldLogFile = new File(directory, OLD_LOG_FILE_NAME);
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            submit(this::flush);
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Queues the metadata of a written capture; values are read from {@code result} later. */
+    void append(@NonNull TotalCaptureResult result, @NonNull File file, int exifOrientation, int lensFacing) {
+        String root = captureDirectory.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        String relativePath = path.startsWith(root) ? path.substring(root.length()) : path;
+        Pending pending = new Pending(result, relativePath, System.currentTimeMillis(), exifOrientation, lensFacing);
+        synchronized (this) {
+            queue.add(pending);
+            if (queue.size() >= MAX_BATCH) {
+                flushScheduled = true;
+                submit(this::flush);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                try {
+                    executor.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    Log.w(TAG, "Metadata log already closed");
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs {@code callback} on the log thread with every record logged at or after {@code
+     * sinceMillis}, oldest first. Queued records are written first.
+     */
+    void read(long sinceMillis, @NonNull CaptureStore.Callback<List<Map<String, Object>>> callback) {
+        submit(() -> {
+            flush();
+            List<Map<String, Object>> records = new ArrayList<>();
+            readFile(oldLogFile, sinceMillis, records);
+            readFile(logFile, sinceMillis, records);
+            callback.onResult(records);
+        });
+    }
+
+    /** Writes what is queued and stops the log thread. */
+    void close() {
+        submit(this::flush);
+        executor.shutdown();
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Metadata log already closed");
+        }
+    }
+
+    private void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (queue.isEmpty()) {
+                return;
+            }
+            batch = queue;
+            queue = new ArrayList<>();
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create " + directory);
+            return;
+        }
+        if (logFile.length() > MAX_LOG_BYTES && (!oldLogFile.exists() || oldLogFile.delete())) {
+            if (!logFile.renameTo(oldLogFile)) {
+                Log.w(TAG, "Could not rotate " + logFile);
+            }
+        }
+        boolean header = logFile.length() == 0;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)))) {
+            if (header) {
+                output.writeInt(MAGIC);
+                output.writeByte(VERSION);
+            }
+            for (Pending pending : batch) {
+                recordBytes.reset();
+                writeRecord(pending);
+                output.writeShort(recordBytes.size());
+                recordBytes.writeTo(output);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not append to " + logFile + ": " + e.getMessage());
+        }
+    }
+
+    private void writeRecord(Pending pending) throws IOException {
+        CaptureResult result = pending.result;
+        record.writeLong(valueOf(result.get(CaptureResult.SENSOR_TIMESTAMP), -1L));
+        record.writeLong(pending.createdMillis);
+        record.writeLong(valueOf(result.get(CaptureResult.SENSOR_EXPOSURE_TIME), -1L));
+        record.writeInt(valueOf(result.get(CaptureResult.SENSOR_SENSITIVITY), -1));
+        record.writeFloat(valueOf(result.get(CaptureResult.LENS_FOCUS_DISTANCE), Float.NaN));
+        record.writeFloat(valueOf(result.get(CaptureResult.LENS_APERTURE), Float.NaN));
+        record.writeFloat(valueOf(result.get(CaptureResult.LENS_FOCAL_LENGTH), Float.NaN));
+        record.writeByte(valueOf(result.get(CaptureResult.CONTROL_AF_STATE), -1));
+        record.writeByte(valueOf(result.get(CaptureResult.CONTROL_AE_STATE), -1));
+        record.writeByte(pending.lensFacing);
+        record.writeByte(pending.exifOrientation);
+        record.writeUTF(pending.relativePath);
+    }
+
+    private static <T> T valueOf(T value, T fallback) {
+        return value != null ? value : fallback;
+    }
+
+    private void readFile(File file, long sinceMillis, List<Map<String, Object>> records) {
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                Log.w(TAG, "Not a metadata log: " + file);
+                return;
+            }
+            input.readUnsignedByte();
+            byte[] buffer = new byte[256];
+            while (true) {
+                int length = input.readUnsignedShort();
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                input.readFully(buffer, 0, length);
+                Map<String, Object> entry = readRecord(new DataInputStream(new ByteArrayInputStream(buffer, 0, length)));
+                if ((long) entry.get("createdMillis") >= sinceMillis) {
+                    records.add(entry);
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the log, or a record cut off by a crash while it was written.
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Map<String, Object> readRecord(DataInputStream input) throws IOException {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        long sensorTimestamp = input.readLong();
+        entry.put("createdMillis", input.readLong());
+        long exposureTime = input.readLong();
+        int sensitivity = input.readInt();
+        float focusDistance = input.readFloat();
+        float aperture = input.readFloat();
+        float focalLength = input.readFloat();
+        byte afState = input.readByte();
+        byte aeState = input.readByte();
+        entry.put("lensFacing", (int) input.readByte());
+        entry.put("exifOrientation", (int) input.readByte());
+        entry.put("path", new File(captureDirectory, input.readUTF()).getAbsolutePath());
+        putIfKnown(entry, "sensorTimestampNs", sensorTimestamp, sensorTimestamp >= 0);
+        putIfKnown(entry, "exposureTimeNs", exposureTime, exposureTime >= 0);
+        putIfKnown(entry, "iso", sensitivity, sensitivity >= 0);
+        putIfKnown(entry, "focusDistance", (double) focusDistance, !Float.isNaN(focusDistance));
+        putIfKnown(entry, "aperture", (double) aperture, !Float.isNaN(aperture));
+        putIfKnown(entry, "focalLength", (double) focalLength, !Float.isNaN(focalLength));
+        putIfKnown(entry, "afState", (int) afState, afState >= 0);
+        putIfKnown(entry, "aeState", (int) aeState, aeState >= 0);
+        return entry;
+    }
+
+    private static void putIfKnown(Map<String, Object> entry, String key, Object value, boolean known) {
+        if (known) {
+            entry.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.native_camera2;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Owns the directory captures are written to.
+ *
+ * <p>Files are sharded into one {@code yyyy/MM/dd} subdirectory per day and named from the capture
+ * time and a sequence number, without formatting a date for every shot. Every written file is
+ * recorded in an append-only index, which serves {@link #getRecentCaptures(int, Callback)} without listing
+ * directories and drives eviction of the oldest captures once the configured quota is exceeded.
+ *
+ * <p>Loading the index, appending to it and deleting evicted files all happen on a single background
+ * thread.
+ */
+final class CaptureStore {
+
+    private static final String TAG = CaptureStore.class.getSimpleName();
+
+    private static final String INDEX_FILE_NAME = "index.log";
+    private static final char REMOVED_PREFIX = '-';
+
+    /** A file recorded in the index. */
+    static final class Entry {
+        final String relativePath;
+        final long createdMillis;
+        final long sizeBytes;
+
+        Entry(String relativePath, long createdMillis, long sizeBytes) {
+            this.relativePath = relativePath;
+            this.createdMillis = createdMillis;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    private final File rootDirectory;
+    private final File indexFile;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CaptureStore");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Naming state, guarded by this.
+    private long dayStartMillis = Long.MAX_VALUE;
+    private long dayEndMillis = Long.MIN_VALUE;
+    private File dayDirectory;
+    private String dayPrefix;
+    private int sequence = 0;
+
+    // Index state, only touched on the executor.
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long totalBytes = 0;
+    private int removedRecords = 0;
+    private boolean indexLoaded = false;
+
+    private volatile long maxBytes = Long.MAX_VALUE;
+    private volatile int maxCount = Integer.MAX_VALUE;
+    private volatile long maxAgeMillis = Long.MAX_VALUE;
+
+    CaptureStore(@NonNull File baseDirectory) {
+        this.rootDirectory = new File(baseDirectory, "captures");
+        this.indexFile = new File(rootDirectory, INDEX_FILE_NAME);
+    }
+
+    /**
+     * Sets the quota enforced after every capture. Values of zero or less disable that limit.
+     *
+     * @param maxBytes maximum total size of all captures.
+     * @param maxCount maximum number of captures.
+     * @param maxAgeMillis maximum age of a capture.
+     */
+    void setQuota(long maxBytes, int maxCount, long maxAgeMillis) {
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.maxCount = maxCount > 0 ? maxCount : Integer.MAX_VALUE;
+        this.maxAgeMillis = maxAgeMillis > 0 ? maxAgeMillis : Long.MAX_VALUE;
+        submit(this::enforceQuota);
+    }
+
+    File getRootDirectory() {
+        return rootDirectory;
+    }
+
+    /** Returns a new, not yet existing file for a capture taken now. */
+    synchronized File newFile(String extension) {
+        long now = System.currentTimeMillis();
+        if (now < dayStartMillis || now >= dayEndMillis) {
+            switchDay(now);
+        }
+        StringBuilder name = new StringBuilder(40)
+                .append("IMG_")
+                .append(dayPrefix)
+                .append('_')
+                .append(now - dayStartMillis)
+                .append('_')
+                .append(sequence++)
+                .append('.')
+                .append(extension);
+        return new File(dayDirectory, name.toString());
+    }
+
+    private void switchDay(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        dayStartMillis = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        dayEndMillis = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, -1);
+
+        String year = String.valueOf(calendar.get(Calendar.YEAR));
+        String month = twoDigits(calendar.get(Calendar.MONTH) + 1);
+        String day = twoDigits(calendar.get(Calendar.DAY_OF_MONTH));
+        dayDirectory = new File(new File(new File(rootDirectory, year), month), day);
+        if (!dayDirectory.isDirectory() && !dayDirectory.mkdirs()) {
+            Log.w(TAG, "Could not create " + dayDirectory);
+        }
+        dayPrefix = year + month + day;
+        sequence = 0;
+    }
+
+    private static String twoDigits(int value) {
+        return value < 10 ? "0" + value : String.valueOf(value);
+    }
+
+    /** Records a completely written capture and evicts old ones if the quota is exceeded. */
+    void onCaptureWritten(@NonNull File file) {
+        long createdMillis = System.currentTimeMillis();
+        long sizeBytes = file.length();
+        String relativePath = relativize(file);
+        if (relativePath == null) {
+            return;
+        }
+        submit(() -> {
+            loadIndex();
+            Entry entry = new Entry(relativePath, createdMillis, sizeBytes);
+            entries.addLast(entry);
+            totalBytes += sizeBytes;
+            appendToIndex(entry);
+            enforceQuota();
+        });
+    }
+
+    /** Runs {@code callback} on the store thread with the newest captures first. */
+    void getRecentCaptures(int limit, @NonNull Callback<List<Map<String, Object>>> callback) {
+        submit(() -> {
+            loadIndex();
+            List<Map<String, Object>> captures = new ArrayList<>(Math.min(limit, entries.size()));
+            Iterator<Entry> iterator = entries.descendingIterator();
+            while (iterator.hasNext() && captures.size() < limit) {
+                Entry entry = iterator.next();
+                Map<String, Object> capture = new LinkedHashMap<>();
+                capture.put("path", new File(rootDirectory, entry.relativePath).getAbsolutePath());
+                capture.put("createdMillis", entry.createdMillis);
+                capture.put("fileSize", entry.sizeBytes);
+                captures.add(capture);
+            }
+            callback.onResult(captures);
+        });
+    }
+
+    /** Receives the outcome of an asynchronous query. */
+    interface Callback<T> {
+        void onResult(T result);
+    }
+
+    void close() {
+        executor.shutdown();
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Capture store already closed");
+        }
+    }
+
+    private String relativize(File file) {
+        String root = rootDirectory.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        return path.startsWith(root) ? path.substring(root.length()) : null;
+    }
+
+    private void enforceQuota() {
+        loadIndex();
+        long oldestAllowed = maxAgeMillis == Long.MAX_VALUE ? Long.MIN_VALUE : System.currentTimeMillis() - maxAgeMillis;
+        int evicted = 0;
+        while (!entries.isEmpty()
+                && (entries.size() > maxCount || totalBytes > maxBytes || entries.peekFirst().createdMillis < oldestAllowed)) {
+            Entry entry = entries.pollFirst();
+            totalBytes -= entry.sizeBytes;
+            File file = new File(rootDirectory, entry.relativePath);
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Could not evict " + file);
+            }
+            appendRemoval(entry);
+            evicted++;
+        }
+        if (evicted > 0) {
+            Log.d(TAG, "evicted " + evicted + " capture(s), " + entries.size() + " left using " + totalBytes + " bytes");
+        }
+        if (removedRecords > entries.size()) {
+            compactIndex();
+        }
+    }
+
+    private void loadIndex() {
+        if (indexLoaded) {
+            return;
+        }
+        indexLoaded = true;
+        if (!indexFile.isFile()) {
+            rebuildIndex();
+            return;
+        }
+
+        LinkedHashMap<String, Entry> live = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.charAt(0) == REMOVED_PREFIX) {
+                    live.remove(line.substring(1));
+                    removedRecords++;
+                    continue;
+                }
+                String[] fields = line.split("\t", 3);
+                if (fields.length == 3) {
+                    live.put(fields[2], new Entry(fields[2], Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.w(TAG, "Index unreadable, rebuilding: " + e.getMessage());
+            rebuildIndex();
+            return;
+        }
+        for (Entry entry : live.values()) {
+            entries.addLast(entry);
+            totalBytes += entry.sizeBytes;
+        }
+    }
+
+    /** Scans the capture directories once, used when the index is missing or damaged. */
+    private void rebuildIndex() {
+        entries.clear();
+        totalBytes = 0;
+        List<File> files = new ArrayList<>();
+        collectFiles(rootDirectory, files);
+        List<Entry> scanned = new ArrayList<>(files.size());
+        for (File file : files) {
+            String relativePath = relativize(file);
+            if (relativePath != null && !relativePath.equals(INDEX_FILE_NAME)) {
+                scanned.add(new Entry(relativePath, file.lastModified(), file.length()));
+            }
+        }
+        Collections.sort(scanned, (a, b) -> Long.compare(a.createdMillis, b.createdMillis));
+        for (Entry entry : scanned) {
+            entries.addLast(entry);
+            totalBytes += entry.sizeBytes;
+        }
+        compactIndex();
+    }
+
+    private static void collectFiles(File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, files);
+            } else {
+                files.add(child);
+            }
+        }
+    }
+
+    private void appendToIndex(Entry entry) {
+        try (Writer writer = new FileWriter(indexFile, true)) {
+            writer.write(entry.createdMillis + "\t" + entry.sizeBytes + "\t" + entry.relativePath + "\n");
+        } catch (IOException e) {
+            Log.w(TAG, "Could not append to index: " + e.getMessage());
+        }
+    }
+
+    private void appendRemoval(Entry entry) {
+        try (Writer writer = new FileWriter(indexFile, true)) {
+            writer.write(REMOVED_PREFIX + entry.relativePath + "\n");
+            removedRecords++;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not append to index: " + e.getMessage());
+        }
+    }
+
+    private void compactIndex() {
+        if (!rootDirectory.isDirectory() && !rootDirectory.mkdirs()) {
+            return;
+        }
+        File temporary = new File(rootDirectory, INDEX_FILE_NAME + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temporary))) {
+            for (Entry entry : entries) {
+                writer.write(entry.createdMillis + "\t" + entry.sizeBytes + "\t" + entry.relativePath + "\n");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not compact index: " + e.getMessage());
+            return;
+        }
+        if (temporary.renameTo(indexFile)) {
+            removedRecords = 0;
+        }
+    }
+}
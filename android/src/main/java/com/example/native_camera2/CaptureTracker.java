@@ -0,0 +1,321 @@
+package com.example.native_camera2;
+
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Keeps track of the still captures requested through {@code takePicture}.
+ *
+ * <p>Every call gets its own {@link PendingCapture} with a request id. At most {@link
+ * #getMaxOutstanding()} captures are submitted to the camera at the same time, the rest wait in
+ * order. Images delivered by the {@link android.media.ImageReader} are matched to their capture by
+ * sensor timestamp, which is reported both by {@code onCaptureStarted} and {@link
+ * Image#getTimestamp()}. Either side may arrive first.
+ *
+ * <p>All methods are synchronized: captures are started on the camera thread while images arrive
+ * on the image reader thread.
+ */
+final class CaptureTracker {
+
+    /** What a capture was requested for. */
+    enum Kind {
+        /** A {@code takePicture} call. */
+        SINGLE,
+        /** A shot of a time-lapse, interleaved with the preview. */
+        INTERVAL,
+        /** A frame of a burst submitted with {@code captureBurst}. */
+        BURST
+    }
+
+    /** A single {@code takePicture} call waiting for its image. */
+    static final class PendingCapture {
+        final int requestId;
+        @NonNull final MethodChannel.Result result;
+        @NonNull final CaptureFormat format;
+        final int quality;
+        @NonNull final Kind kind;
+        /** Index within a time-lapse or burst, or -1 for a {@code takePicture} call. */
+        final int shotIndex;
+        long submitNanos;
+        long imageNanos;
+        long sensorTimestamp = -1;
+        long frameNumber = -1;
+        /** EXIF orientation tag of the device at submit time. */
+        int exifOrientation;
+        /** Cookie of the async trace section from submit until written, 0 when not tracing. */
+        int traceCookie;
+        /** The result and file of a capture whose metadata is logged, guarded by the capture. */
+        @Nullable TotalCaptureResult metadataResult;
+        @Nullable File metadataFile;
+
+        @Nullable Image image;
+        @Nullable TotalCaptureResult captureResult;
+        /** Set once a writer owns the capture; the writer then answers it. Guarded by the tracker. */
+        boolean writing;
+        /** Set once the capture was answered without its image. Guarded by the tracker. */
+        boolean abandoned;
+
+        PendingCapture(int requestId, @NonNull MethodChannel.Result result, @NonNull CaptureFormat format, int quality, @NonNull Kind kind, int shotIndex) {
+            this.requestId = requestId;
+            this.result = result;
+            this.format = format;
+            this.quality = quality;
+            this.kind = kind;
+            this.shotIndex = shotIndex;
+        }
+
+        /** Whether the capture belongs to a time-lapse, which keeps the preview running. */
+        boolean isIntervalShot() {
+            return kind == Kind.INTERVAL;
+        }
+
+        /** Whether the file is written on the write pool instead of the image reader thread. */
+        boolean writesInBackground() {
+            return kind != Kind.SINGLE;
+        }
+
+        /** Whether the image can only be written once the {@link TotalCaptureResult} is known. */
+        boolean needsCaptureResult() {
+            return format == CaptureFormat.DNG;
+        }
+    }
+
+    private final ArrayDeque<PendingCapture> waiting = new ArrayDeque<>();
+    private final List<PendingCapture> submitted = new ArrayList<>();
+    private final Map<Long, PendingCapture> startedByTimestamp = new HashMap<>();
+    private final Map<Long, Image> unmatchedImages = new HashMap<>();
+    private final Set<Long> discardedTimestamps = new HashSet<>();
+
+    private int maxOutstanding;
+    private int nextRequestId = 0;
+
+    CaptureTracker(int maxOutstanding) {
+        setMaxOutstanding(maxOutstanding);
+    }
+
+    synchronized int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+
+    synchronized void setMaxOutstanding(int maxOutstanding) {
+        if (maxOutstanding < 1) {
+            throw new IllegalArgumentException("maxOutstanding must be at least 1");
+        }
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /** Queues a new capture for the given result and returns it. */
+    synchronized PendingCapture enqueue(@NonNull MethodChannel.Result result, @NonNull CaptureFormat format, int quality) {
+        return enqueue(result, format, quality, Kind.SINGLE, -1);
+    }
+
+    /** Queues a new capture for shot {@code shotIndex} of a time-lapse and returns it. */
+    synchronized PendingCapture enqueueIntervalShot(@NonNull MethodChannel.Result result, @NonNull CaptureFormat format, int quality, int shotIndex) {
+        return enqueue(result, format, quality, Kind.INTERVAL, shotIndex);
+    }
+
+    private PendingCapture enqueue(MethodChannel.Result result, CaptureFormat format, int quality, Kind kind, int shotIndex) {
+        PendingCapture pending = new PendingCapture(nextRequestId++, result, format, quality, kind, shotIndex);
+        waiting.add(pending);
+        return pending;
+    }
+
+    /**
+     * Registers the frames of a burst as submitted right away, bypassing the queue and the limit
+     * of outstanding captures: a burst is handed to the camera in one call. The JPEG reader only
+     * holds a burst on top of nothing else, so the burst is refused while any capture is
+     * outstanding or waiting.
+     *
+     * @return the frames, or null if another capture is still in progress.
+     */
+    @Nullable
+    synchronized List<PendingCapture> submitBurst(@NonNull List<MethodChannel.Result> results, @NonNull CaptureFormat format, int quality) {
+        if (!submitted.isEmpty() || !waiting.isEmpty()) {
+            return null;
+        }
+        List<PendingCapture> frames = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            PendingCapture pending = new PendingCapture(nextRequestId++, results.get(i), format, quality, Kind.BURST, i);
+            submitted.add(pending);
+            frames.add(pending);
+        }
+        return frames;
+    }
+
+    /** Forgets burst frames that could not be submitted. */
+    synchronized void abandonBurst(@NonNull List<PendingCapture> frames) {
+        submitted.removeAll(frames);
+    }
+
+    /**
+     * Returns the next waiting capture if another one may be submitted to the camera, or null.
+     *
+     * <p>The returned capture counts as outstanding until {@link #finish(PendingCapture)} is called.
+     */
+    @Nullable
+    synchronized PendingCapture pollSubmittable() {
+        if (submitted.size() >= maxOutstanding || waiting.isEmpty()) {
+            return null;
+        }
+        PendingCapture pending = waiting.poll();
+        submitted.add(pending);
+        return pending;
+    }
+
+    /**
+     * Records the sensor timestamp of a submitted capture.
+     *
+     * @return the matching image if it already arrived, otherwise null.
+     */
+    @Nullable
+    synchronized Image onCaptureStarted(@NonNull PendingCapture pending, long timestamp, long frameNumber) {
+        pending.sensorTimestamp = timestamp;
+        pending.frameNumber = frameNumber;
+        Image image = unmatchedImages.remove(timestamp);
+        if (image == null) {
+            startedByTimestamp.put(timestamp, pending);
+        }
+        return image;
+    }
+
+    /**
+     * Matches an image delivered by the image reader to its capture.
+     *
+     * @return the capture the image belongs to, or null if its capture has not started yet (the
+     *     image is then kept until it does) or has already failed (the image is then closed).
+     */
+    @Nullable
+    synchronized PendingCapture onImageAvailable(@NonNull Image image) {
+        long timestamp = image.getTimestamp();
+        if (discardedTimestamps.remove(timestamp)) {
+            image.close();
+            return null;
+        }
+        PendingCapture pending = startedByTimestamp.remove(timestamp);
+        if (pending == null) {
+            unmatchedImages.put(timestamp, image);
+        }
+        return pending;
+    }
+
+    /**
+     * Attaches the matched image to its capture. The image is closed if the capture was already
+     * abandoned.
+     *
+     * @return true when everything needed to write the file is available; the caller then hands
+     *     the capture to a writer, which answers it.
+     */
+    synchronized boolean attachImage(@NonNull PendingCapture pending, @NonNull Image image) {
+        if (pending.abandoned) {
+            image.close();
+            return false;
+        }
+        pending.image = image;
+        pending.imageNanos = System.nanoTime();
+        pending.writing = !pending.needsCaptureResult() || pending.captureResult != null;
+        return pending.writing;
+    }
+
+    /**
+     * Attaches the final capture metadata to its capture.
+     *
+     * @return true when the image already arrived and the file can be written; the caller then
+     *     hands the capture to a writer, which answers it.
+     */
+    synchronized boolean attachCaptureResult(@NonNull PendingCapture pending, @NonNull TotalCaptureResult result) {
+        if (pending.abandoned) {
+            return false;
+        }
+        pending.captureResult = result;
+        pending.writing = pending.image != null;
+        return pending.writing;
+    }
+
+    /**
+     * Forgets a capture the camera reported as failed, closing its image if one arrives.
+     *
+     * @return false if a writer already owns the capture and answers it, otherwise true and the
+     *     caller answers it.
+     */
+    synchronized boolean onCaptureFailed(@NonNull PendingCapture pending) {
+        if (pending.writing || pending.abandoned) {
+            return false;
+        }
+        pending.abandoned = true;
+        if (pending.image != null) {
+            pending.image.close();
+            pending.image = null;
+            return true;
+        }
+        if (pending.sensorTimestamp < 0) {
+            return true;
+        }
+        startedByTimestamp.remove(pending.sensorTimestamp);
+        Image image = unmatchedImages.remove(pending.sensorTimestamp);
+        if (image != null) {
+            image.close();
+        } else {
+            discardedTimestamps.add(pending.sensorTimestamp);
+        }
+        return true;
+    }
+
+    /**
+     * Marks a submitted capture as completed.
+     *
+     * @return true when no capture is outstanding or waiting anymore.
+     */
+    synchronized boolean finish(@NonNull PendingCapture pending) {
+        submitted.remove(pending);
+        return submitted.isEmpty() && waiting.isEmpty();
+    }
+
+    /**
+     * Drops every capture and closes every image still held. Captures already handed to a writer
+     * are left to it: the writer answers them and closes their image.
+     *
+     * @return the captures no writer owns, so their results can be failed.
+     */
+    synchronized List<PendingCapture> clear() {
+        List<PendingCapture> abandoned = new ArrayList<>();
+        for (PendingCapture pending : submitted) {
+            if (pending.writing || pending.abandoned) {
+                continue;
+            }
+            pending.abandoned = true;
+            // Images still waiting for their capture result were never handed to a writer.
+            if (pending.image != null) {
+                pending.image.close();
+                pending.image = null;
+            }
+            abandoned.add(pending);
+        }
+        for (PendingCapture pending : waiting) {
+            pending.abandoned = true;
+            abandoned.add(pending);
+        }
+        submitted.clear();
+        waiting.clear();
+        startedByTimestamp.clear();
+        discardedTimestamps.clear();
+        for (Image image : unmatchedImages.values()) {
+            image.close();
+        }
+        unmatchedImages.clear();
+        return abandoned;
+    }
+}
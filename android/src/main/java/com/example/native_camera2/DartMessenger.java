@@ -7,6 +7,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import io.flutter.plugin.common.BinaryMessenger;
@@ -14,6 +15,8 @@ import io.flutter.plugin.common.MethodChannel;
 
 public class DartMessenger {
 
+    private static final String TRACE_POST = "DartMessenger.post";
+
     @NonNull
     private final Handler handler;
 
@@ -27,7 +30,23 @@ public class DartMessenger {
         /** Indicates that the camera is closing. */
         CLOSING("camera_closing"),
         /** Indicates that the camera is initialized. */
-        INITIALIZED("initialized");
+        INITIALIZED("initialized"),
+        /** Indicates that the camera delivered its first frame after being initialized. */
+        FIRST_FRAME("camera_first_frame"),
+        /** Indicates that the camera delivered its first frame after being restored. */
+        RESUMED("camera_resumed"),
+        /** Indicates that the camera was lost and a recovery attempt has been scheduled. */
+        RECOVERING("camera_recovering"),
+        /** Indicates that the camera delivered its first frame after a recovery. */
+        RECOVERED("camera_recovered"),
+        /** Indicates that every recovery attempt allowed by the policy has failed. */
+        RECOVERY_FAILED("camera_recovery_failed"),
+        /** Reports a batch of time-lapse shots that were written or failed. */
+        INTERVAL_CAPTURE_PROGRESS("interval_capture_progress"),
+        /** Indicates that a time-lapse finished or was stopped. */
+        INTERVAL_CAPTURE_DONE("interval_capture_done"),
+        /** Reports the faces the camera found in a preview frame. */
+        FACES("faces");
 
         private final String method;
 
@@ -57,6 +76,90 @@ public class DartMessenger {
         });
     }
 
+    void sendCameraFirstFrameEvent(long timeToFirstFrameMillis, boolean deferredSurface) {
+        this.send(CameraEventType.FIRST_FRAME, new HashMap<String, Object>() {
+            {
+                put("timeToFirstFrameMs", timeToFirstFrameMillis);
+                put("deferredSurface", deferredSurface);
+            }
+        });
+    }
+
+    void sendCameraResumedEvent(long timeToFirstFrameMillis) {
+        this.send(CameraEventType.RESUMED, new HashMap<String, Object>() {
+            {
+                put("timeToFirstFrameMs", timeToFirstFrameMillis);
+            }
+        });
+    }
+
+    void sendCameraRecoveringEvent(int attempt, long delayMillis, @Nullable String reason) {
+        this.send(CameraEventType.RECOVERING, new HashMap<String, Object>() {
+            {
+                put("attempt", attempt);
+                put("delayMs", delayMillis);
+                if (!TextUtils.isEmpty(reason)) {
+                    put("reason", reason);
+                }
+            }
+        });
+    }
+
+    void sendCameraRecoveredEvent(int attempts, long recoveryMillis) {
+        this.send(CameraEventType.RECOVERED, new HashMap<String, Object>() {
+            {
+                put("attempts", attempts);
+                put("recoveryMs", recoveryMillis);
+            }
+        });
+    }
+
+    void sendCameraRecoveryFailedEvent(int attempts, long recoveryMillis, @Nullable String reason) {
+        this.send(CameraEventType.RECOVERY_FAILED, new HashMap<String, Object>() {
+            {
+                put("attempts", attempts);
+                put("recoveryMs", recoveryMillis);
+                if (!TextUtils.isEmpty(reason)) {
+                    put("reason", reason);
+                }
+            }
+        });
+    }
+
+    void sendIntervalCaptureProgressEvent(List<Map<String, Object>> shots, int written, int failed, int total) {
+        this.send(CameraEventType.INTERVAL_CAPTURE_PROGRESS, new HashMap<String, Object>() {
+            {
+                put("shots", shots);
+                put("written", written);
+                put("failed", failed);
+                put("total", total);
+            }
+        });
+    }
+
+    void sendIntervalCaptureDoneEvent(int written, int failed, Map<String, Object> jitter) {
+        this.send(CameraEventType.INTERVAL_CAPTURE_DONE, new HashMap<String, Object>() {
+            {
+                put("written", written);
+                put("failed", failed);
+                put("jitter", jitter);
+            }
+        });
+    }
+
+    /**
+     * @param boxes five values per face, packed: left, top, right and bottom edge on the preview
+     *     from 0 to 1, and the detector's confidence from 1 to 100.
+     */
+    void sendFacesEvent(long timestampNanos, double[] boxes) {
+        this.send(CameraEventType.FACES, new HashMap<String, Object>() {
+            {
+                put("timestampNs", timestampNanos);
+                put("boxes", boxes);
+            }
+        });
+    }
+
     void sendCameraClosingEvent() {
         send(CameraEventType.CLOSING);
     }
@@ -79,11 +182,12 @@ public class DartMessenger {
         if (cameraChannel == null) {
             return;
         }
-        handler.post(() -> cameraChannel.invokeMethod(eventType.method, args));
+        MethodChannel channel = cameraChannel;
+        post(eventType.method, () -> channel.invokeMethod(eventType.method, args));
     }
 
     public void finish(MethodChannel.Result result, Object payload) {
-        handler.post(() -> result.success(payload));
+        post("success", () -> result.success(payload));
     }
 
     public void error(
@@ -91,6 +195,23 @@ public class DartMessenger {
             String errorCode,
             @Nullable String errorMessage,
             @Nullable Object errorDetails) {
-        handler.post(() -> result.error(errorCode, errorMessage, errorDetails));
+        post("error", () -> result.error(errorCode, errorMessage, errorDetails));
+    }
+
+    /**
+     * Runs {@code runnable} on the main thread. When tracing, the time spent waiting in the queue is
+     * an async section and the call itself a section named after {@code name}.
+     */
+    private void post(String name, Runnable runnable) {
+        int cookie = CameraTrace.beginAsync(TRACE_POST);
+        handler.post(() -> {
+            CameraTrace.endAsync(TRACE_POST, cookie);
+            boolean traced = CameraTrace.begin("DartMessenger.", name);
+            try {
+                runnable.run();
+            } finally {
+                CameraTrace.end(traced);
+            }
+        });
     }
 }
@@ -0,0 +1,301 @@
+package com.example.native_camera2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Merges a burst of NV21 frames into one with less noise: every tile of every frame is aligned to
+ * the reference frame by a small translation search on the luma plane, and the aligned tiles are
+ * averaged. Tiles that do not match the reference well, e.g. because something moved, are left out
+ * instead of ghosting.
+ *
+ * <p>Tiles are independent, so the image is split into bands of tile rows that run in parallel on
+ * the executor, one band on the calling thread. Frame and output buffers come from a {@link
+ * BufferPool} and are kept for the next merge of the same size until {@link #release()}. Plain Java
+ * without Android dependencies, the pool included, so it can be exercised on the JVM. Not
+ * thread-safe; one merge at a time.
+ */
+final class FrameMerger {
+
+    static final int TILE_SIZE = 32;
+    /** Largest shift searched in each direction, in pixels. */
+    static final int SEARCH_RADIUS = 4;
+    /** Every fourth row and column is enough to compare tiles and cuts the search by 16. */
+    private static final int SAMPLE_STEP = 4;
+    /**
+     * Mean absolute luma difference of an aligned tile above which it is treated as different
+     * content rather than noise.
+     */
+    private static final int MAX_MEAN_DIFFERENCE = 12;
+
+    private final ExecutorService executor;
+    private final int bands;
+    private final BufferPool bufferPool;
+
+    private int width = 0;
+    private int height = 0;
+    private byte[][] frames = new byte[0][];
+    private byte[] output;
+    // Per band, so bands never share a buffer.
+    private final int[][] lumaSums;
+    private final int[][] chromaSums;
+    private final int[] bandMergedTiles;
+    private final int[] bandCandidateTiles;
+
+    /**
+     * @param bands how many bands run at once; the executor needs {@code bands - 1} threads that
+     *     are free for the merge.
+     */
+    FrameMerger(ExecutorService executor, int bands, BufferPool bufferPool) {
+        if (bands < 1) {
+            throw new IllegalArgumentException("bands must be at least 1");
+        }
+        this.executor = executor;
+        this.bands = bands;
+        this.bufferPool = bufferPool;
+        this.lumaSums = new int[bands][TILE_SIZE * TILE_SIZE];
+        this.chromaSums = new int[bands][TILE_SIZE * TILE_SIZE / 2];
+        this.bandMergedTiles = new int[bands];
+        this.bandCandidateTiles = new int[bands];
+    }
+
+    /**
+     * Makes room for {@code frameCount} frames of the given size, reusing the buffers of the
+     * previous merge where they fit.
+     */
+    void prepare(int width, int height, int frameCount) {
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("Frames need a positive, even size, not " + width + "x" + height);
+        }
+        if (width != this.width || height != this.height) {
+            release();
+            this.width = width;
+            this.height = height;
+        }
+        int frameSize = width * height * 3 / 2;
+        if (frames.length < frameCount) {
+            byte[][] grown = new byte[frameCount][];
+            System.arraycopy(frames, 0, grown, 0, frames.length);
+            for (int i = frames.length; i < frameCount; i++) {
+                grown[i] = bufferPool.acquire(frameSize);
+            }
+            frames = grown;
+        }
+        if (output == null) {
+            output = bufferPool.acquire(frameSize);
+        }
+    }
+
+    /** Returns the NV21 buffer that frame {@code index} has to be copied into before merging. */
+    byte[] getFrame(int index) {
+        return frames[index];
+    }
+
+    /**
+     * Merges the first {@code frameCount} prepared frames onto frame {@code reference}.
+     *
+     * @return the merged NV21 frame, which is overwritten by the next merge.
+     */
+    byte[] merge(int frameCount, int reference) throws InterruptedException, ExecutionException {
+        if (frameCount < 1 || frameCount > frames.length || reference < 0 || reference >= frameCount) {
+            throw new IllegalArgumentException("Invalid frame count " + frameCount + " or reference " + reference);
+        }
+        int tileRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        int bandCount = Math.min(bands, tileRows);
+        List<Future<?>> futures = new ArrayList<>(bandCount - 1);
+        for (int band = 1; band < bandCount; band++) {
+            int index = band;
+            futures.add(executor.submit(() -> mergeBand(index, bandCount, tileRows, frameCount, reference)));
+        }
+        mergeBand(0, bandCount, tileRows, frameCount, reference);
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return output;
+    }
+
+    /** Returns the share of non-reference tiles that were merged by the last merge. */
+    double getMergedTileRatio() {
+        long merged = 0;
+        long candidates = 0;
+        for (int band = 0; band < bands; band++) {
+            merged += bandMergedTiles[band];
+            candidates += bandCandidateTiles[band];
+        }
+        return candidates == 0 ? 1 : (double) merged / candidates;
+    }
+
+    /** Hands all buffers back to the pool; the next merge acquires them again. */
+    void release() {
+        for (byte[] frame : frames) {
+            bufferPool.release(frame);
+        }
+        if (output != null) {
+            bufferPool.release(output);
+        }
+        width = 0;
+        height = 0;
+        frames = new byte[0][];
+        output = null;
+    }
+
+    private void mergeBand(int band, int bandCount, int tileRows, int frameCount, int reference) {
+        int firstRow = band * tileRows / bandCount;
+        int lastRow = (band + 1) * tileRows / bandCount;
+        int merged = 0;
+        int candidates = 0;
+        for (int tileRow = firstRow; tileRow < lastRow; tileRow++) {
+            for (int x0 = 0; x0 < width; x0 += TILE_SIZE) {
+                merged += mergeTile(band, x0, tileRow * TILE_SIZE, frameCount, reference);
+                candidates += frameCount - 1;
+            }
+        }
+        bandMergedTiles[band] = merged;
+        bandCandidateTiles[band] = candidates;
+    }
+
+    /** Returns how many frames besides the reference were merged into the tile. */
+    private int mergeTile(int band, int x0, int y0, int frameCount, int reference) {
+        int tileWidth = Math.min(TILE_SIZE, width - x0);
+        int tileHeight = Math.min(TILE_SIZE, height - y0);
+        // NV21 chroma is interleaved VU at half the rows, so a tile covers tileWidth bytes of
+        // tileHeight / 2 chroma rows.
+        int chromaStart = width * height;
+        int chromaY0 = y0 / 2;
+        int chromaHeight = tileHeight / 2;
+        int[] lumaSum = lumaSums[band];
+        int[] chromaSum = chromaSums[band];
+        byte[] referenceFrame = frames[reference];
+
+        for (int y = 0; y < tileHeight; y++) {
+            int source = (y0 + y) * width + x0;
+            int target = y * TILE_SIZE;
+            for (int x = 0; x < tileWidth; x++) {
+                lumaSum[target + x] = referenceFrame[source + x] & 0xff;
+            }
+        }
+        for (int y = 0; y < chromaHeight; y++) {
+            int source = chromaStart + (chromaY0 + y) * width + x0;
+            int target = y * TILE_SIZE;
+            for (int x = 0; x < tileWidth; x++) {
+                chromaSum[target + x] = referenceFrame[source + x] & 0xff;
+            }
+        }
+
+        int count = 1;
+        for (int f = 0; f < frameCount; f++) {
+            if (f == reference) {
+                continue;
+            }
+            byte[] frame = frames[f];
+            long match = align(referenceFrame, frame, x0, y0, tileWidth, tileHeight);
+            int dx = (int) (match & 0xff) - 128;
+            int dy = (int) ((match >> 8) & 0xff) - 128;
+            long sad = match >>> 16;
+            long samples = (long) ((tileWidth + SAMPLE_STEP - 1) / SAMPLE_STEP) * ((tileHeight + SAMPLE_STEP - 1) / SAMPLE_STEP);
+            if (sad > MAX_MEAN_DIFFERENCE * samples) {
+                continue;
+            }
+
+            for (int y = 0; y < tileHeight; y++) {
+                int source = (y0 + y + dy) * width + x0 + dx;
+                int target = y * TILE_SIZE;
+                for (int x = 0; x < tileWidth; x++) {
+                    lumaSum[target + x] += frame[source + x] & 0xff;
+                }
+            }
+            // Chroma moves by half the luma shift, rounded down to whole VU pairs.
+            int chromaDx = (dx >> 1) * 2;
+            int chromaDy = dy >> 1;
+            for (int y = 0; y < chromaHeight; y++) {
+                int source = chromaStart + (chromaY0 + y + chromaDy) * width + x0 + chromaDx;
+                int target = y * TILE_SIZE;
+                for (int x = 0; x < tileWidth; x++) {
+                    chromaSum[target + x] += frame[source + x] & 0xff;
+                }
+            }
+            count++;
+        }
+
+        int half = count / 2;
+        for (int y = 0; y < tileHeight; y++) {
+            int target = (y0 + y) * width + x0;
+            int source = y * TILE_SIZE;
+            for (int x = 0; x < tileWidth; x++) {
+                output[target + x] = (byte) ((lumaSum[source + x] + half) / count);
+            }
+        }
+        for (int y = 0; y < chromaHeight; y++) {
+            int target = chromaStart + (chromaY0 + y) * width + x0;
+            int source = y * TILE_SIZE;
+            for (int x = 0; x < tileWidth; x++) {
+                output[target + x] = (byte) ((chromaSum[source + x] + half) / count);
+            }
+        }
+        return count - 1;
+    }
+
+    /**
+     * Finds the shift of {@code frame} that best matches the tile of {@code reference}: even shifts
+     * first, then the neighbours of the best one. No shift wins ties.
+     *
+     * @return the sum of absolute differences in the upper bits, then dy + 128 and dx + 128 in one
+     *     byte each.
+     */
+    private long align(byte[] reference, byte[] frame, int x0, int y0, int tileWidth, int tileHeight) {
+        int bestDx = 0;
+        int bestDy = 0;
+        long bestSad = sad(reference, frame, x0, y0, tileWidth, tileHeight, 0, 0, Long.MAX_VALUE);
+        for (int dy = -SEARCH_RADIUS; dy <= SEARCH_RADIUS; dy += 2) {
+            for (int dx = -SEARCH_RADIUS; dx <= SEARCH_RADIUS; dx += 2) {
+                if ((dx != 0 || dy != 0) && fits(x0, y0, tileWidth, tileHeight, dx, dy)) {
+                    long sad = sad(reference, frame, x0, y0, tileWidth, tileHeight, dx, dy, bestSad);
+                    if (sad < bestSad) {
+                        bestSad = sad;
+                        bestDx = dx;
+                        bestDy = dy;
+                    }
+                }
+            }
+        }
+        int coarseDx = bestDx;
+        int coarseDy = bestDy;
+        for (int dy = coarseDy - 1; dy <= coarseDy + 1; dy++) {
+            for (int dx = coarseDx - 1; dx <= coarseDx + 1; dx++) {
+                if ((dx != coarseDx || dy != coarseDy) && Math.abs(dx) <= SEARCH_RADIUS + 1 && Math.abs(dy) <= SEARCH_RADIUS + 1
+                        && fits(x0, y0, tileWidth, tileHeight, dx, dy)) {
+                    long sad = sad(reference, frame, x0, y0, tileWidth, tileHeight, dx, dy, bestSad);
+                    if (sad < bestSad) {
+                        bestSad = sad;
+                        bestDx = dx;
+                        bestDy = dy;
+                    }
+                }
+            }
+        }
+        return (bestSad << 16) | ((long) (bestDy + 128) << 8) | (bestDx + 128);
+    }
+
+    private boolean fits(int x0, int y0, int tileWidth, int tileHeight, int dx, int dy) {
+        return x0 + dx >= 0 && y0 + dy >= 0 && x0 + dx + tileWidth <= width && y0 + dy + tileHeight <= height;
+    }
+
+    /** Sampled sum of absolute luma differences; stops early once it reaches {@code limit}. */
+    private long sad(byte[] reference, byte[] frame, int x0, int y0, int tileWidth, int tileHeight, int dx, int dy, long limit) {
+        long sum = 0;
+        for (int y = 0; y < tileHeight; y += SAMPLE_STEP) {
+            int referenceRow = (y0 + y) * width + x0;
+            int frameRow = (y0 + y + dy) * width + x0 + dx;
+            for (int x = 0; x < tileWidth; x += SAMPLE_STEP) {
+                sum += Math.abs((reference[referenceRow + x] & 0xff) - (frame[frameRow + x] & 0xff));
+            }
+            if (sum >= limit) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+}
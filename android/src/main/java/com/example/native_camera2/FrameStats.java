@@ -0,0 +1,131 @@
+package com.example.native_camera2;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Watches the preview for dropped and late frames.
+ *
+ * <p>Frame numbers, sensor timestamps and the interval to the previous frame of the last {@link
+ * #WINDOW} frames are kept in primitive ring buffers, so recording a frame allocates nothing. A
+ * frame is late when its interval exceeds the expected one by {@link #JANK_FACTOR}; the expected
+ * interval follows the regular intervals, so it adapts when auto-exposure changes the frame rate.
+ * Every whole expected interval missing in a late gap counts as a dropped frame.
+ *
+ * <p>Frames are recorded on the camera thread and metrics are read on the main thread, so all
+ * methods are synchronized.
+ */
+final class FrameStats {
+
+    static final int WINDOW = 256;
+    private static final double JANK_FACTOR = 1.5;
+    /** Weight of a new regular interval in the expected interval. */
+    private static final double EXPECTED_WEIGHT = 0.1;
+
+    private final long[] frameNumbers = new long[WINDOW];
+    private final long[] timestamps = new long[WINDOW];
+    // 0 for a frame without a previous one to compare to.
+    private final long[] intervals = new long[WINDOW];
+    private int next = 0;
+    private int size = 0;
+
+    private long lastFrameNumber = -1;
+    private long lastTimestamp = -1;
+    private double expectedInterval = 0;
+
+    private long frames = 0;
+    private long droppedFrames = 0;
+    private long lateFrames = 0;
+    private long failedFrames = 0;
+
+    synchronized void onFrame(long frameNumber, long timestampNanos) {
+        if (frameNumber <= lastFrameNumber) {
+            return;
+        }
+        long interval = lastTimestamp < 0 ? 0 : timestampNanos - lastTimestamp;
+        if (interval > 0) {
+            if (expectedInterval == 0) {
+                expectedInterval = interval;
+            } else if (interval > expectedInterval * JANK_FACTOR) {
+                lateFrames++;
+                droppedFrames += Math.max(0, Math.round(interval / expectedInterval) - 1);
+            } else {
+                expectedInterval += (interval - expectedInterval) * EXPECTED_WEIGHT;
+            }
+        }
+        frameNumbers[next] = frameNumber;
+        timestamps[next] = timestampNanos;
+        intervals[next] = Math.max(0, interval);
+        next = (next + 1) % WINDOW;
+        size = Math.min(size + 1, WINDOW);
+        lastFrameNumber = frameNumber;
+        lastTimestamp = timestampNanos;
+        frames++;
+    }
+
+    synchronized void onFrameFailed() {
+        failedFrames++;
+    }
+
+    /**
+     * Marks a deliberate gap, e.g. the preview stopped for a capture, so the next frame is not
+     * counted as late.
+     */
+    synchronized void markGap() {
+        lastTimestamp = -1;
+    }
+
+    /**
+     * Returns totals since the last reset and, over the window, the frame rate and interval
+     * percentiles.
+     */
+    synchronized Map<String, Object> getMetrics(boolean reset) {
+        long[] window = new long[size];
+        int count = 0;
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            long interval = intervals[i];
+            if (interval > 0) {
+                window[count++] = interval;
+                sum += interval;
+            }
+        }
+        Arrays.sort(window, 0, count);
+
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("frames", frames);
+        metrics.put("droppedFrames", droppedFrames);
+        metrics.put("lateFrames", lateFrames);
+        metrics.put("failedFrames", failedFrames);
+        metrics.put("windowFrames", count);
+        if (count > 0) {
+            metrics.put("fps", count * 1e9 / sum);
+            metrics.put("expectedIntervalMs", expectedInterval / 1e6);
+            metrics.put("intervalP50Ms", percentile(window, count, 50) / 1e6);
+            metrics.put("intervalP90Ms", percentile(window, count, 90) / 1e6);
+            metrics.put("intervalP99Ms", percentile(window, count, 99) / 1e6);
+            metrics.put("intervalMaxMs", window[count - 1] / 1e6);
+        }
+        if (size > 0) {
+            int last = (next - 1 + WINDOW) % WINDOW;
+            metrics.put("lastFrameNumber", frameNumbers[last]);
+            metrics.put("lastTimestampNs", timestamps[last]);
+        }
+        if (reset) {
+            frames = 0;
+            droppedFrames = 0;
+            lateFrames = 0;
+            failedFrames = 0;
+            size = 0;
+            next = 0;
+        }
+        return metrics;
+    }
+
+    /** Nearest-rank percentile of the first {@code count} sorted values. */
+    private static double percentile(long[] sorted, int count, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
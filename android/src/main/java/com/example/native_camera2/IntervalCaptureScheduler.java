@@ -0,0 +1,263 @@
+package com.example.native_camera2;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Runs a time-lapse: {@code count} still captures, {@code interval} apart, timed on the camera
+ * thread instead of from Dart.
+ *
+ * <p>Shot {@code k} is due {@code k * interval} after the sensor timestamp of the first shot, so
+ * delays never accumulate. When sensor timestamps share the {@link SystemClock#elapsedRealtimeNanos()}
+ * time base, each request is also submitted early by the average latency between submitting and
+ * the start of exposure. The deviation of every shot from its due time is reported as jitter.
+ *
+ * <p>Written shots are reported in batches of {@link #BATCH_SIZE}, or after {@link
+ * #BATCH_MAX_DELAY_MILLIS}, to keep the event channel quiet. All state is only touched on the camera
+ * thread.
+ */
+final class IntervalCaptureScheduler {
+
+    private static final String TAG = IntervalCaptureScheduler.class.getSimpleName();
+
+    private static final int BATCH_SIZE = 8;
+    private static final long BATCH_MAX_DELAY_MILLIS = 1000;
+
+    /** Submits the still captures of the time-lapse. */
+    interface Host {
+        /**
+         * Submits shot {@code index}. The outcome is reported to {@code result}, which receives the
+         * capture reply map on success.
+         *
+         * @return false if the camera cannot capture right now.
+         */
+        boolean submitShot(int index, @NonNull MethodChannel.Result result);
+
+        /** Called on the camera thread once the time-lapse is over. */
+        void onFinished(@NonNull IntervalCaptureScheduler scheduler);
+    }
+
+    private final Handler handler;
+    private final DartMessenger dartMessenger;
+    private final Host host;
+    private final long intervalNanos;
+    private final int count;
+    private final boolean realtimeTimestamps;
+
+    private int submitted = 0;
+    private int written = 0;
+    private int failed = 0;
+    private boolean stopped = false;
+    private boolean finished = false;
+
+    private long firstSensorTimestamp = -1;
+    private long startUptimeMillis;
+    // Average of (start of exposure - submit) in nanoseconds, only with realtime timestamps.
+    private long averageLatencyNanos = 0;
+    private int latencySamples = 0;
+
+    // Jitter of the shots that started, relative to their due time.
+    private int jitterSamples = 0;
+    private double jitterSum = 0;
+    private double jitterSquareSum = 0;
+    private long maxAbsJitterNanos = 0;
+
+    private final long[] submitRealtimeNanos;
+    private final long[] jitterNanosByShot;
+    private final List<Map<String, Object>> batch = new ArrayList<>();
+    private long batchStartUptimeMillis = 0;
+
+    private final Runnable captureRunnable = this::captureNext;
+    private final Runnable flushRunnable = this::flush;
+
+    /**
+     * @param realtimeTimestamps whether the sensor timestamps of the camera use the
+     *     {@link SystemClock#elapsedRealtimeNanos()} time base.
+     */
+    IntervalCaptureScheduler(@NonNull Handler handler, @NonNull DartMessenger dartMessenger, @NonNull Host host,
+                             long intervalMillis, int count, boolean realtimeTimestamps) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("The interval must be positive.");
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("The count must be at least 1.");
+        }
+        this.handler = handler;
+        this.dartMessenger = dartMessenger;
+        this.host = host;
+        this.intervalNanos = intervalMillis * 1000000L;
+        this.count = count;
+        this.realtimeTimestamps = realtimeTimestamps;
+        this.submitRealtimeNanos = new long[count];
+        this.jitterNanosByShot = new long[count];
+    }
+
+    void start() {
+        handler.post(() -> {
+            startUptimeMillis = SystemClock.uptimeMillis();
+            captureNext();
+        });
+    }
+
+    /** Stops submitting shots. Shots already submitted are still written and reported. */
+    void stop() {
+        handler.post(() -> {
+            if (stopped) {
+                return;
+            }
+            Log.d(TAG, "stop | after " + submitted + " of " + count + " shots");
+            stopped = true;
+            handler.removeCallbacks(captureRunnable);
+            finishIfDone();
+        });
+    }
+
+    /** Records the sensor timestamp of a shot; called on the camera thread. */
+    void onShotStarted(int index, long sensorTimestamp) {
+        if (firstSensorTimestamp < 0) {
+            firstSensorTimestamp = sensorTimestamp - index * intervalNanos;
+        }
+        long jitterNanos = sensorTimestamp - (firstSensorTimestamp + index * intervalNanos);
+        jitterSamples++;
+        jitterSum += jitterNanos;
+        jitterSquareSum += (double) jitterNanos * jitterNanos;
+        maxAbsJitterNanos = Math.max(maxAbsJitterNanos, Math.abs(jitterNanos));
+        jitterNanosByShot[index] = jitterNanos;
+
+        if (realtimeTimestamps) {
+            long latencyNanos = sensorTimestamp - submitRealtimeNanos[index];
+            latencySamples++;
+            averageLatencyNanos += (latencyNanos - averageLatencyNanos) / latencySamples;
+        }
+    }
+
+    private void captureNext() {
+        if (stopped || submitted >= count) {
+            return;
+        }
+        int index = submitted++;
+        submitRealtimeNanos[index] = SystemClock.elapsedRealtimeNanos();
+        if (!host.submitShot(index, new ShotResult(index))) {
+            onShotFailed(index, "The camera is not ready.");
+        }
+        scheduleNext();
+    }
+
+    private void scheduleNext() {
+        if (stopped || submitted >= count) {
+            return;
+        }
+        long delayMillis;
+        if (firstSensorTimestamp >= 0 && realtimeTimestamps) {
+            long dueNanos = firstSensorTimestamp + submitted * intervalNanos - averageLatencyNanos;
+            delayMillis = (dueNanos - SystemClock.elapsedRealtimeNanos()) / 1000000;
+        } else {
+            delayMillis = startUptimeMillis + submitted * (intervalNanos / 1000000) - SystemClock.uptimeMillis();
+        }
+        handler.postDelayed(captureRunnable, Math.max(0, delayMillis));
+    }
+
+    private void onShotWritten(int index, Object reply) {
+        written++;
+        Map<String, Object> shot = new HashMap<>();
+        shot.put("index", index);
+        if (reply instanceof Map) {
+            shot.put("path", ((Map<?, ?>) reply).get("path"));
+        }
+        shot.put("jitterMs", jitterNanosByShot[index] / 1000000.0);
+        addToBatch(shot);
+        finishIfDone();
+    }
+
+    private void onShotFailed(int index, @Nullable String message) {
+        failed++;
+        Map<String, Object> shot = new HashMap<>();
+        shot.put("index", index);
+        shot.put("error", message);
+        addToBatch(shot);
+        finishIfDone();
+    }
+
+    private void addToBatch(Map<String, Object> shot) {
+        if (batch.isEmpty()) {
+            batchStartUptimeMillis = SystemClock.uptimeMillis();
+            handler.postDelayed(flushRunnable, BATCH_MAX_DELAY_MILLIS);
+        }
+        batch.add(shot);
+        if (batch.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (batch.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "flush | " + batch.size() + " shots after " + (SystemClock.uptimeMillis() - batchStartUptimeMillis) + "ms");
+        dartMessenger.sendIntervalCaptureProgressEvent(new ArrayList<>(batch), written, failed, count);
+        batch.clear();
+    }
+
+    private void finishIfDone() {
+        int expected = stopped ? submitted : count;
+        if (finished || written + failed < expected) {
+            return;
+        }
+        finished = true;
+        flush();
+        dartMessenger.sendIntervalCaptureDoneEvent(written, failed, getJitterStats());
+        host.onFinished(this);
+    }
+
+    private Map<String, Object> getJitterStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("samples", jitterSamples);
+        if (jitterSamples > 0) {
+            double mean = jitterSum / jitterSamples;
+            double variance = Math.max(0, jitterSquareSum / jitterSamples - mean * mean);
+            stats.put("meanMs", mean / 1000000.0);
+            stats.put("stdDevMs", Math.sqrt(variance) / 1000000.0);
+            stats.put("maxAbsMs", maxAbsJitterNanos / 1000000.0);
+        }
+        if (latencySamples > 0) {
+            stats.put("submitLatencyMs", averageLatencyNanos / 1000000.0);
+        }
+        return stats;
+    }
+
+    /** Receives the outcome of one shot and hands it back to the camera thread. */
+    private final class ShotResult implements MethodChannel.Result {
+        private final int index;
+
+        ShotResult(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void success(@Nullable Object reply) {
+            handler.post(() -> onShotWritten(index, reply));
+        }
+
+        @Override
+        public void error(@NonNull String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+            handler.post(() -> onShotFailed(index, errorMessage));
+        }
+
+        @Override
+        public void notImplemented() {
+            handler.post(() -> onShotFailed(index, null));
+        }
+    }
+}
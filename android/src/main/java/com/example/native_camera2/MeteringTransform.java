@@ -0,0 +1,122 @@
+package com.example.native_camera2;
+
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.hardware.camera2.params.MeteringRectangle;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Maps a point on the preview, as it is shown on screen, to a metering region on the sensor, and
+ * sensor rectangles such as faces back to the preview.
+ *
+ * <p>The camera fits the preview stream into the metering area by cropping the longer side of the
+ * area around its center, e.g. a 16:9 preview from a 4:3 sensor loses a band at the top and the
+ * bottom. The transform applies the same crop, then undoes the rotation and mirroring of the
+ * preview and scales to the cropped area, so a tap costs one matrix multiplication; its inverse
+ * maps the other way. It only depends on the session's display rotation, the preview size and the
+ * zoom, and is built again when any of them changes. Not thread-safe.
+ */
+final class MeteringTransform {
+
+    /** Side of a metering region as a share of the metering area. */
+    private static final float REGION_SIZE = 0.1f;
+
+    private final Matrix matrix = new Matrix();
+    private final Matrix inverse = new Matrix();
+    private final Rect area;
+    private final int regionWidth;
+    private final int regionHeight;
+    private final float[] point = new float[2];
+    private final float[] corners = new float[4];
+
+    /**
+     * @param meteringArea the part of the sensor the camera outputs at the current zoom, in the
+     *     coordinates of metering regions.
+     * @param previewWidth the width of the preview stream, in sensor orientation; 0 if unknown.
+     * @param previewHeight the height of the preview stream, in sensor orientation; 0 if unknown.
+     * @param displayRotationDegrees how far the display is turned from its natural orientation.
+     */
+    MeteringTransform(@NonNull Rect meteringArea, int previewWidth, int previewHeight, int sensorOrientation, int displayRotationDegrees, boolean frontFacing) {
+        this.area = cropToAspectRatio(meteringArea, previewWidth, previewHeight);
+        this.regionWidth = Math.max(1, Math.round(area.width() * REGION_SIZE));
+        this.regionHeight = Math.max(1, Math.round(area.height() * REGION_SIZE));
+
+        // The preview is mirrored before it is rotated for front cameras, so the inverse rotates
+        // before it mirrors. Points are normalized, so both turn around the center.
+        int rotation = frontFacing
+                ? (360 - (sensorOrientation + displayRotationDegrees) % 360) % 360
+                : (sensorOrientation - displayRotationDegrees + 360) % 360;
+        matrix.setRotate(-rotation, 0.5f, 0.5f);
+        if (frontFacing) {
+            matrix.postScale(-1f, 1f, 0.5f, 0.5f);
+        }
+        matrix.postScale(area.width(), area.height());
+        matrix.postTranslate(area.left, area.top);
+        matrix.invert(inverse);
+    }
+
+    /** Returns the centered part of {@code area} with the aspect ratio of {@code width}:{@code height}. */
+    @NonNull
+    static Rect cropToAspectRatio(@NonNull Rect area, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return area;
+        }
+        long areaWidth = area.width();
+        long areaHeight = area.height();
+        if (areaWidth * height > areaHeight * width) {
+            int croppedWidth = (int) Math.round((double) areaHeight * width / height);
+            int left = area.left + (area.width() - croppedWidth) / 2;
+            return new Rect(left, area.top, left + croppedWidth, area.bottom);
+        }
+        int croppedHeight = (int) Math.round((double) areaWidth * height / width);
+        int top = area.top + (area.height() - croppedHeight) / 2;
+        return new Rect(area.left, top, area.right, top + croppedHeight);
+    }
+
+    /**
+     * Returns the region around a point of the preview, moved inside the metering area where it
+     * would stick out.
+     *
+     * @param x from 0 at the left edge of the preview to 1 at the right edge.
+     * @param y from 0 at the top edge of the preview to 1 at the bottom edge.
+     */
+    @NonNull
+    MeteringRectangle toMeteringRectangle(double x, double y) {
+        point[0] = (float) Math.max(0, Math.min(1, x));
+        point[1] = (float) Math.max(0, Math.min(1, y));
+        matrix.mapPoints(point);
+        int left = Math.round(point[0]) - regionWidth / 2;
+        int top = Math.round(point[1]) - regionHeight / 2;
+        left = Math.max(area.left, Math.min(area.right - regionWidth, left));
+        top = Math.max(area.top, Math.min(area.bottom - regionHeight, top));
+        return new MeteringRectangle(left, top, regionWidth, regionHeight, MeteringRectangle.METERING_WEIGHT_MAX);
+    }
+
+    /**
+     * Maps a rectangle in the coordinates of metering regions to the preview, clipped to it, and
+     * stores its left, top, right and bottom edge from 0 to 1 at {@code offset} of {@code out}.
+     *
+     * @return false if no part of the rectangle is visible; {@code out} is then undefined.
+     */
+    boolean toPreview(@NonNull Rect sensorRect, @NonNull double[] out, int offset) {
+        corners[0] = sensorRect.left;
+        corners[1] = sensorRect.top;
+        corners[2] = sensorRect.right;
+        corners[3] = sensorRect.bottom;
+        inverse.mapPoints(corners);
+        // Rotation may swap the corners.
+        double left = Math.max(0, Math.min(corners[0], corners[2]));
+        double top = Math.max(0, Math.min(corners[1], corners[3]));
+        double right = Math.min(1, Math.max(corners[0], corners[2]));
+        double bottom = Math.min(1, Math.max(corners[1], corners[3]));
+        if (left >= right || top >= bottom) {
+            return false;
+        }
+        out[offset] = left;
+        out[offset + 1] = top;
+        out[offset + 2] = right;
+        out[offset + 3] = bottom;
+        return true;
+    }
+}
@@ -1,6 +1,10 @@
 package com.example.native_camera2;
 
 import android.app.Activity;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.hardware.camera2.CameraAccessException;
 import android.os.Handler;
 import android.os.Looper;
@@ -9,7 +13,10 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import io.flutter.plugin.common.BinaryMessenger;
@@ -23,6 +30,12 @@ public class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
     private final BinaryMessenger messenger;
     private final TextureRegistry textureRegistry;
     private final MethodChannel methodChannel;
+    private final CaptureStore captureStore;
+    private final CaptureMetadataLog metadataLog;
+    private final CameraConfigCache configCache;
+    private final CameraEnumerator cameraEnumerator;
+    private final BufferPool bufferPool;
+    private final ComponentCallbacks2 memoryCallbacks;
     private @Nullable NativeCamera nativeCamera;
 
     private final String TAG = MethodCallHandlerImpl.class.getSimpleName();
@@ -31,27 +44,54 @@ public class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
         this.activity = activity;
         this.messenger = messenger;
         this.textureRegistry = textureRegistry;
+        this.captureStore = new CaptureStore(activity.getFilesDir());
+        this.metadataLog = new CaptureMetadataLog(new File(activity.getFilesDir(), "capture_metadata"), captureStore.getRootDirectory());
+        this.configCache = new CameraConfigCache(activity.getNoBackupFilesDir());
+        this.cameraEnumerator = new CameraEnumerator(CameraUtils.getCameraManager(activity));
+        this.bufferPool = new BufferPool(getBufferBudget(activity));
+        this.memoryCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        };
+        activity.getApplicationContext().registerComponentCallbacks(memoryCallbacks);
         methodChannel = new MethodChannel(messenger, "plugins.flutter.io/native_android2");
         methodChannel.setMethodCallHandler(this);
     }
 
     @Override
     public void onMethodCall(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        boolean traced = CameraTrace.begin("MethodCallHandlerImpl.", call.method);
+        try {
+            handleMethodCall(call, result);
+        } finally {
+            CameraTrace.end(traced);
+        }
+    }
+
+    private void handleMethodCall(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
         switch (call.method) {
 
             case "availableCameras":
-                try {
-                    result.success(CameraUtils.getAvailableCameras(activity));
-                } catch (Exception e) {
-                    handleException(e, result);
-                }
+                getCameras(false, result);
+                break;
+
+            case "allCameras":
+                getCameras(true, result);
                 break;
 
             case "create":
                 try {
-                    if (nativeCamera != null) {
-                        nativeCamera.close();
-                    }
                     instantiateCamera(call, result);
                 } catch (Exception e) {
                     handleException(e, result);
@@ -91,13 +131,145 @@ public class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
             case "takePicture":
                 if (nativeCamera != null) {
                     try {
-                        nativeCamera.takePicture(result);
-                    } catch (CameraAccessException e) {
+                        Integer quality = call.argument("quality");
+                        nativeCamera.takePicture(result, CaptureFormat.fromName(call.argument("format")), quality == null ? 0 : quality);
+                    } catch (CameraAccessException | IllegalArgumentException e) {
                         handleException(e, result);
                     }
                 }
                 break;
 
+            case "takeBurst":
+                if (nativeCamera != null) {
+                    try {
+                        List<Double> exposureValues = call.argument("exposureValues");
+                        Integer quality = call.argument("quality");
+                        nativeCamera.takeBurst(result, exposureValues == null ? Arrays.asList(-2.0, 0.0, 2.0) : exposureValues, quality == null ? 0 : quality);
+                    } catch (CameraAccessException | IllegalArgumentException e) {
+                        handleException(e, result);
+                    }
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'takeBurst'.", null);
+                }
+                break;
+
+            case "takeBestShot":
+                if (nativeCamera != null) {
+                    try {
+                        Integer frameCount = call.argument("frameCount");
+                        Integer quality = call.argument("quality");
+                        nativeCamera.takeBestShot(result, frameCount == null ? YuvBurstCapture.MAX_FRAMES : frameCount, quality == null ? 0 : quality);
+                    } catch (CameraAccessException | IllegalArgumentException e) {
+                        handleException(e, result);
+                    }
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'takeBestShot'.", null);
+                }
+                break;
+
+            case "takePreviewSnapshot":
+                if (nativeCamera != null) {
+                    Integer quality = call.argument("quality");
+                    nativeCamera.takePreviewSnapshot(result, quality == null ? 0 : quality);
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'takePreviewSnapshot'.", null);
+                }
+                break;
+
+            case "takeMergedShot":
+                if (nativeCamera != null) {
+                    try {
+                        Integer frameCount = call.argument("frameCount");
+                        Integer quality = call.argument("quality");
+                        nativeCamera.takeMergedShot(result, frameCount == null ? YuvBurstCapture.MAX_FRAMES : frameCount, quality == null ? 0 : quality);
+                    } catch (CameraAccessException | IllegalArgumentException e) {
+                        handleException(e, result);
+                    }
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'takeMergedShot'.", null);
+                }
+                break;
+
+            case "startIntervalCapture":
+                if (nativeCamera != null) {
+                    try {
+                        Number intervalMs = call.argument("intervalMs");
+                        Integer count = call.argument("count");
+                        Integer quality = call.argument("quality");
+                        nativeCamera.startIntervalCapture(
+                                intervalMs == null ? 0 : intervalMs.longValue(),
+                                count == null ? 0 : count,
+                                CaptureFormat.fromName(call.argument("format")),
+                                quality == null ? 0 : quality);
+                        result.success(null);
+                    } catch (IllegalStateException e) {
+                        result.error("cameraNotReady", e.getMessage(), null);
+                    } catch (CameraAccessException | IllegalArgumentException e) {
+                        handleException(e, result);
+                    }
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'startIntervalCapture'.", null);
+                }
+                break;
+
+            case "stopIntervalCapture":
+                if (nativeCamera != null) {
+                    nativeCamera.stopIntervalCapture();
+                }
+                result.success(null);
+                break;
+
+            case "setZoom":
+                if (nativeCamera != null) {
+                    Number zoom = call.argument("zoom");
+                    result.success((double) nativeCamera.setZoom(zoom == null ? 1f : zoom.floatValue()));
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'setZoom'.", null);
+                }
+                break;
+
+            case "getZoomRange":
+                if (nativeCamera != null) {
+                    result.success(nativeCamera.getZoomRange());
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'getZoomRange'.", null);
+                }
+                break;
+
+            case "setFocusPoint":
+                if (nativeCamera != null) {
+                    nativeCamera.setFocusPoint(result, call.argument("x"), call.argument("y"));
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'setFocusPoint'.", null);
+                }
+                break;
+
+            case "setExposurePoint":
+                if (nativeCamera != null) {
+                    nativeCamera.setExposurePoint(result, call.argument("x"), call.argument("y"));
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'setExposurePoint'.", null);
+                }
+                break;
+
+            case "setFaceDetectionEnabled":
+                if (nativeCamera != null) {
+                    Integer minIntervalMs = call.argument("minIntervalMs");
+                    nativeCamera.setFaceDetectionEnabled(result, Boolean.TRUE.equals(call.argument("enabled")),
+                            minIntervalMs == null ? NativeCamera.DEFAULT_FACE_EVENT_INTERVAL_MILLIS : minIntervalMs);
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'setFaceDetectionEnabled'.", null);
+                }
+                break;
+
+            case "getPreviewMetrics":
+                if (nativeCamera != null) {
+                    result.success(nativeCamera.getPreviewMetrics(Boolean.TRUE.equals(call.argument("reset"))));
+                } else {
+                    result.error("cameraNotFound", "Camera not found. Please call the 'create' method before calling 'getPreviewMetrics'.", null);
+                }
+                break;
+
             case "pausePreview":
                 if (nativeCamera != null) {
                     try {
@@ -120,10 +292,49 @@ public class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
                 }
                 break;
 
-            case "dispose":
+            case "configureCaptureStorage":
+                Number maxBytes = call.argument("maxBytes");
+                Number maxCount = call.argument("maxCount");
+                Number maxAgeMs = call.argument("maxAgeMs");
+                captureStore.setQuota(
+                        maxBytes == null ? 0 : maxBytes.longValue(),
+                        maxCount == null ? 0 : maxCount.intValue(),
+                        maxAgeMs == null ? 0 : maxAgeMs.longValue());
+                result.success(null);
+                break;
+
+            case "setTracingEnabled":
+                CameraTrace.setEnabled(Boolean.TRUE.equals(call.argument("enabled")));
+                result.success(null);
+                break;
+
+            case "getMemoryStats":
+                Map<String, Object> stats = bufferPool.getStats();
                 if (nativeCamera != null) {
-                    nativeCamera.dispose();
+                    stats.putAll(nativeCamera.getMemoryState());
                 }
+                result.success(stats);
+                break;
+
+            case "setCaptureMetadataEnabled":
+                metadataLog.setEnabled(Boolean.TRUE.equals(call.argument("enabled")));
+                result.success(null);
+                break;
+
+            case "getCaptureMetadata":
+                Number sinceMillis = call.argument("sinceMillis");
+                metadataLog.read(sinceMillis == null ? Long.MIN_VALUE : sinceMillis.longValue(),
+                        records -> new Handler(Looper.getMainLooper()).post(() -> result.success(records)));
+                break;
+
+            case "recentCaptures":
+                Integer limit = call.argument("limit");
+                captureStore.getRecentCaptures(limit == null ? Integer.MAX_VALUE : limit,
+                        captures -> new Handler(Looper.getMainLooper()).post(() -> result.success(captures)));
+                break;
+
+            case "dispose":
+                disposeCamera();
                 result.success(null);
                 break;
 
@@ -133,14 +344,50 @@ public class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
         }
     }
 
+    private void getCameras(boolean includePhysical, MethodChannel.Result result) {
+        cameraEnumerator.getCameras(includePhysical, new CameraEnumerator.Callback() {
+            @Override
+            public void onCameras(List<Map<String, Object>> cameras) {
+                result.success(cameras);
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                if (exception instanceof CameraAccessException) {
+                    handleException(exception, result);
+                } else {
+                    result.error("cameraEnumerationFailed", exception.getMessage(), null);
+                }
+            }
+        });
+    }
+
     private void instantiateCamera(MethodCall call, MethodChannel.Result result) throws CameraAccessException {
         String cameraName = call.argument("cameraName");
 
+        // Looked up and validated before the texture is created, so a failed lookup or a bad argument
+        // leaves nothing to release.
+        CameraProperties cameraProperties = new CameraPropertiesImpl(cameraName, CameraUtils.getCameraManager(activity));
+        RecoveryPolicy recoveryPolicy = RecoveryPolicy.fromArguments(call.argument("recoveryPolicy"));
+        Integer maxOutstandingCaptures = call.argument("maxOutstandingCaptures");
+        if (maxOutstandingCaptures != null && maxOutstandingCaptures < 1) {
+            throw new IllegalArgumentException("maxOutstandingCaptures must be at least 1");
+        }
+        // Creating a camera again without dispose would otherwise leak the old one and its threads.
+        disposeCamera();
+
         TextureRegistry.SurfaceTextureEntry flutterSurfaceTexture = textureRegistry.createSurfaceTexture();
         DartMessenger dartMessenger = new DartMessenger(messenger, flutterSurfaceTexture.id(), new Handler(Looper.getMainLooper()));
-        CameraProperties cameraProperties = new CameraPropertiesImpl(cameraName, CameraUtils.getCameraManager(activity));
 
-        nativeCamera = new NativeCamera(activity, flutterSurfaceTexture, dartMessenger, cameraProperties);
+        nativeCamera = new NativeCamera(activity, flutterSurfaceTexture, dartMessenger, cameraProperties, captureStore, metadataLog, configCache, bufferPool, new Camera2Backend(CameraUtils.getCameraManager(activity)));
+        nativeCamera.setRecoveryPolicy(recoveryPolicy);
+        nativeCamera.setRawEnabled(Boolean.TRUE.equals(call.argument("enableRaw")));
+        nativeCamera.setHeicEnabled(Boolean.TRUE.equals(call.argument("enableHeic")));
+        nativeCamera.setPreviewSnapshotEnabled(Boolean.TRUE.equals(call.argument("enablePreviewSnapshot")));
+        nativeCamera.setYuvBurstEnabled(Boolean.TRUE.equals(call.argument("enableBestShot")) || Boolean.TRUE.equals(call.argument("enableMerge")));
+        if (maxOutstandingCaptures != null) {
+            nativeCamera.setMaxOutstandingCaptures(maxOutstandingCaptures);
+        }
 
         Map<String, Object> reply = new HashMap<>();
         reply.put("cameraId", flutterSurfaceTexture.id());
@@ -152,10 +399,60 @@ public class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
             result.error("CameraAccess", exception.getMessage(), null);
             return;
         }
+        if (exception instanceof IllegalArgumentException) {
+            result.error("IllegalArgument", exception.getMessage(), null);
+            return;
+        }
         throw (RuntimeException) exception;
     }
 
+    /** Releases the camera device while the activity is not in the foreground. */
+    void onActivityPaused() {
+        if (nativeCamera != null) {
+            nativeCamera.suspend();
+        }
+    }
+
+    /** Restores streaming for a camera released by {@link #onActivityPaused()}. */
+    void onActivityResumed() {
+        if (nativeCamera != null) {
+            nativeCamera.restore();
+        }
+    }
+
+    /**
+     * A quarter of the heap the system grants the app, an eighth on low-RAM devices, for frame
+     * buffers kept between captures.
+     */
+    private static long getBufferBudget(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long heapBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        return activityManager.isLowRamDevice() ? heapBytes / 8 : heapBytes / 4;
+    }
+
+    /** Moderate pressure halves the idle buffers, anything worse drops them. */
+    private void trimMemory(int level) {
+        Log.d(TAG, "trimMemory | level " + level + ", pool " + bufferPool.getStats());
+        if (nativeCamera != null) {
+            nativeCamera.onTrimMemory(level);
+        }
+        bufferPool.trim(level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE ? bufferPool.getBudgetBytes() / 2 : 0);
+    }
+
+    private void disposeCamera() {
+        if (nativeCamera != null) {
+            nativeCamera.dispose();
+            nativeCamera = null;
+        }
+    }
+
     void stopListening() {
+        activity.getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
         methodChannel.setMethodCallHandler(null);
+        disposeCamera();
+        captureStore.close();
+        metadataLog.close();
+        configCache.close();
+        cameraEnumerator.close();
     }
 }
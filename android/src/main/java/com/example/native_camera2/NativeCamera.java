@@ -1,50 +1,53 @@
 package com.example.native_camera2;
 
-import static android.hardware.camera2.CameraCharacteristics.LENS_FACING;
-import static android.hardware.camera2.CameraMetadata.LENS_FACING_FRONT;
-
-import static androidx.core.math.MathUtils.clamp;
-
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
+import android.graphics.YuvImage;
 import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraDevice;
-import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
-import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.DngCreator;
 import android.hardware.camera2.TotalCaptureResult;
 import androidx.exifinterface.media.ExifInterface;
 
+import android.hardware.camera2.params.Face;
 import android.hardware.camera2.params.MeteringRectangle;
+import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
-import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.view.Display;
-import android.view.Surface;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.IntStream;
 
 import io.flutter.plugin.common.MethodChannel;
@@ -58,11 +61,18 @@ public class NativeCamera {
     private final DartMessenger dartMessenger;
 
     private final CameraProperties cameraProperties;
+    private final OrientationTracker orientationTracker;
+    private final ZoomController zoomController;
+    private final BufferPool bufferPool;
     private final Activity activity;
+    private final CaptureStore captureStore;
+    private final CaptureMetadataLog metadataLog;
+    private final CameraConfigCache configCache;
 
-    CameraDevice cameraDevice;
-    ImageReader imageReader;
-    CameraCaptureSession captureSession;
+    private final CameraBackend<CaptureRequest.Builder, TotalCaptureResult> backend;
+    CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> cameraDevice;
+    volatile CameraBackend.ImageOutput imageReader;
+    CameraBackend.Session<CaptureRequest.Builder, TotalCaptureResult> captureSession;
 
     HandlerThread cameraThread;
     Handler cameraHandler;
@@ -71,9 +81,143 @@ public class NativeCamera {
     Handler imageReaderHandler;
 
     boolean pausedPreview = false;
-    private Surface surface;
-
-    public NativeCamera(final Activity activity, final TextureRegistry.SurfaceTextureEntry flutterTexture, final DartMessenger dartMessenger, final CameraProperties cameraProperties) {
+    // Draws to the Flutter texture; created once the texture is sized for the preview.
+    @Nullable
+    private volatile CameraBackend.Output previewTextureOutput;
+    private Size previewSize;
+    /** The auto-exposure frame rate range of the negotiated configuration, or null to keep the default. */
+    private volatile Range<Integer> targetFpsRange;
+    /** The metadata of the latest preview frame, the base of manual exposure brackets. */
+    private volatile TotalCaptureResult lastPreviewResult;
+
+    // Read on the camera thread when an open completes.
+    private volatile boolean suspended = false;
+    /** Whether an open was requested and has not reported its outcome yet. */
+    private volatile boolean opening = false;
+    private volatile long resumeStartNanos = 0;
+    private volatile long initializeStartNanos = 0;
+
+    // Session setup state. The image outputs and the texture output are created on other threads;
+    // the session is only touched on the camera thread.
+    private volatile boolean stillOutputsReady = false;
+    // Guarded by this. Set once by close(); the camera is not opened again afterwards.
+    private boolean closed = false;
+    // Whether the current session was configured before the preview surface existed.
+    private volatile boolean previewDeferred = false;
+    @Nullable
+    private CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> sessionDevice;
+    @Nullable
+    private CameraBackend.Output deferredPreviewOutput;
+    // The outputs of the latest session by stream name, replaced as a whole.
+    private volatile Map<String, CameraBackend.Output> sessionOutputs = Collections.emptyMap();
+
+    private static final int DEFAULT_MAX_OUTSTANDING_CAPTURES = 2;
+    private static final int DNG_ENCODER_THREADS = 2;
+    private static final int WRITE_THREADS = 2;
+    // Scores frames and runs the bands of a merge; at least two threads, see YuvBurstCapture.Callback.
+    private static final int FRAME_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int DEFAULT_YUV_BURST_QUALITY = 95;
+
+    private static final String TRACE_OPEN = "NativeCamera.open";
+    private static final String TRACE_CONFIGURE = "NativeCamera.configure";
+    private static final String TRACE_CAPTURE = "NativeCamera.capture";
+    private static final String TRACE_WRITE_FILE = "NativeCamera.writeFile";
+
+    private static final String STREAM_PREVIEW = "preview";
+    private static final String STREAM_JPEG = "jpeg";
+    private static final String STREAM_HEIC = "heic";
+    private static final String STREAM_RAW = "raw";
+    private static final String STREAM_YUV = "yuv";
+    private static final String STREAM_SNAPSHOT = "snapshot";
+    /** Preview snapshots use the largest YUV size of the preview aspect ratio up to this width. */
+    private static final int SNAPSHOT_MAX_WIDTH = 640;
+    // One frame is held as the latest and one may be encoding; acquireLatestImage needs two more.
+    private static final int SNAPSHOT_MAX_IMAGES = 4;
+    private static final int DEFAULT_SNAPSHOT_QUALITY = 90;
+    private final CaptureTracker captureTracker = new CaptureTracker(DEFAULT_MAX_OUTSTANDING_CAPTURES);
+
+    private volatile boolean previewStoppedForCapture = false;
+
+    // The repeating request is kept so a zoom change only updates it instead of building a new one.
+    private final Object previewRequestLock = new Object();
+    // Guarded by previewRequestLock, as is the zoom controller.
+    @Nullable
+    private CaptureRequest.Builder previewRequestBuilder;
+    private volatile float zoom = 1f;
+    // Set while a zoom change waits for the camera thread, so rapid changes collapse into one update.
+    private final AtomicBoolean zoomUpdatePending = new AtomicBoolean();
+    // Camera thread only. Whether the repeating request was replaced since the last frame started.
+    private boolean previewRequestUpdatedThisFrame = false;
+    private final FrameStats previewFrameStats = new FrameStats();
+
+    private static final long FOCUS_TIMEOUT_MILLIS = 3000;
+    private final int maxFocusRegions;
+    private final int maxExposureRegions;
+    private final boolean frontFacing;
+    // Guarded by previewRequestLock. Regions set from the preview, null for the automatic ones.
+    @Nullable
+    private MeteringRectangle[] focusRegions;
+    @Nullable
+    private MeteringRectangle[] exposureRegions;
+    // Guarded by previewRequestLock. Built for the display rotation of the session and the zoom.
+    private int displayRotationDegrees = 0;
+    @Nullable
+    private MeteringTransform meteringTransform;
+    private float meteringTransformZoom = Float.NaN;
+    // Guarded by previewRequestLock. The focus point waiting for the lens to lock.
+    @Nullable
+    private MethodChannel.Result focusResult;
+    private boolean focusTriggered = false;
+    private long focusStartNanos = 0;
+
+    static final int DEFAULT_FACE_EVENT_INTERVAL_MILLIS = 100;
+    private static final int FACE_VALUES = 5;
+    // The cheapest mode the camera offers that still reports boxes, OFF if it has none.
+    private final int supportedFaceDetectMode;
+    // Guarded by previewRequestLock.
+    private int faceDetectMode = CaptureRequest.STATISTICS_FACE_DETECT_MODE_OFF;
+    private volatile boolean faceDetectionEnabled = false;
+    // Camera thread only.
+    private long faceEventIntervalNanos = DEFAULT_FACE_EVENT_INTERVAL_MILLIS * 1000000L;
+    private long lastFaceEventNanos = 0;
+    private boolean lastFaceEventEmpty = true;
+
+    private boolean rawEnabled = false;
+    volatile CameraBackend.ImageOutput rawImageReader;
+    private boolean heicEnabled = false;
+    volatile CameraBackend.ImageOutput heicImageReader;
+    private ExecutorService dngExecutor;
+    private ExecutorService writeExecutor;
+
+    private boolean yuvBurstEnabled = false;
+    volatile CameraBackend.ImageOutput yuvImageReader;
+    @Nullable
+    private volatile YuvBurstCapture yuvBurstCapture;
+    private ExecutorService frameExecutor;
+    // Set once the system reported low memory; the capture queue stays short from then on.
+    private volatile boolean memoryConstrained = false;
+
+    // Async trace sections from opening the device and configuring a session until the callback.
+    private int openTraceCookie = 0;
+    private int configureTraceCookie = 0;
+    private FrameMerger frameMerger;
+
+    private boolean previewSnapshotEnabled = false;
+    volatile CameraBackend.ImageOutput snapshotImageReader;
+    private final Object snapshotLock = new Object();
+    // Guarded by snapshotLock. The most recent preview frame, held until the next one replaces it.
+    @Nullable
+    private Image latestSnapshotFrame;
+
+    @Nullable
+    private volatile IntervalCaptureScheduler intervalScheduler;
+
+    @Nullable
+    private RecoveryPolicy recoveryPolicy;
+    private volatile long recoveryStartNanos = 0;
+    private int recoveryAttempt = 0;
+
+    public NativeCamera(final Activity activity, final TextureRegistry.SurfaceTextureEntry flutterTexture, final DartMessenger dartMessenger, final CameraProperties cameraProperties, final CaptureStore captureStore, final CaptureMetadataLog metadataLog, final CameraConfigCache configCache, final BufferPool bufferPool, final CameraBackend<CaptureRequest.Builder, TotalCaptureResult> backend) {
         if (activity == null) {
             throw new IllegalStateException("No activity available!");
         }
@@ -81,23 +225,165 @@ public class NativeCamera {
         this.flutterTexture = flutterTexture;
         this.dartMessenger = dartMessenger;
         this.cameraProperties = cameraProperties;
+        this.captureStore = captureStore;
+        this.metadataLog = metadataLog;
+        this.configCache = configCache;
+        this.bufferPool = bufferPool;
+        this.backend = backend;
+        this.orientationTracker = new OrientationTracker(activity, cameraProperties);
+        this.zoomController = new ZoomController(cameraProperties);
+        Integer maxFocusRegions = cameraProperties.getControlMaxRegionsAutoFocus();
+        Integer maxExposureRegions = cameraProperties.getControlMaxRegionsAutoExposure();
+        this.maxFocusRegions = maxFocusRegions == null ? 0 : maxFocusRegions;
+        this.maxExposureRegions = maxExposureRegions == null ? 0 : maxExposureRegions;
+        this.frontFacing = cameraProperties.getLensFacing() == CameraMetadata.LENS_FACING_FRONT;
+        int[] faceDetectModes = cameraProperties.getStatisticsInfoAvailableFaceDetectModes();
+        if (faceDetectModes != null && IntStream.of(faceDetectModes).anyMatch(x -> x == CaptureRequest.STATISTICS_FACE_DETECT_MODE_SIMPLE)) {
+            this.supportedFaceDetectMode = CaptureRequest.STATISTICS_FACE_DETECT_MODE_SIMPLE;
+        } else if (faceDetectModes != null && IntStream.of(faceDetectModes).anyMatch(x -> x == CaptureRequest.STATISTICS_FACE_DETECT_MODE_FULL)) {
+            this.supportedFaceDetectMode = CaptureRequest.STATISTICS_FACE_DETECT_MODE_FULL;
+        } else {
+            this.supportedFaceDetectMode = CaptureRequest.STATISTICS_FACE_DETECT_MODE_OFF;
+        }
 
         startBackgroundThread();
     }
 
+    /**
+     * Opens the camera and sets up its outputs.
+     *
+     * <p>The device is opened first. While it opens, the image outputs are created on the image
+     * reader thread and the Flutter texture is prepared on this thread. Each step posts to the camera
+     * thread, where {@link #startCaptureSession()} runs as soon as what it needs is there.
+     */
     public void openCameraInitializer() throws CameraAccessException {
-        CameraManager cameraManager = CameraUtils.getCameraManager(activity);
+        String cameraName = cameraProperties.getCameraName();
+        initializeStartNanos = SystemClock.elapsedRealtimeNanos();
+        orientationTracker.start();
+        // A device that fails to open closes the camera on the camera thread, which clears the
+        // handlers while this method still runs; posts to the stopped threads are dropped.
+        Handler cameraHandler = this.cameraHandler;
+        Handler imageReaderHandler = this.imageReaderHandler;
 
         try {
-            open(cameraManager, cameraProperties.getCameraName(), cameraHandler);
+            open(cameraName);
         } catch (CameraAccessException e) {
+            initializeStartNanos = 0;
             e.printStackTrace();
             dartMessenger.sendCameraErrorEvent(e.getMessage());
         }
 
-        CameraCharacteristics cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraProperties.getCameraName());
+        Size displaySize = getDisplaySize();
+
+        CameraConfigCache.Entry config = configCache.get(cameraName, displaySize.getWidth(), displaySize.getHeight(), rawEnabled, heicEnabled, yuvBurstEnabled, previewSnapshotEnabled);
+        if (config == null) {
+            config = negotiateConfig(cameraProperties.getCameraCharacteristics(), displaySize);
+            configCache.put(config);
+        } else {
+            Log.d(TAG, "openCameraInitializer | using cached configuration for camera " + cameraName);
+            configCache.validate(config, () -> negotiateConfig(cameraProperties.getCameraCharacteristics(), displaySize));
+        }
+        previewSize = config.previewSize;
+        targetFpsRange = config.fpsUpper > 0 ? new Range<>(config.fpsLower, config.fpsUpper) : null;
+
+        CameraConfigCache.Entry stillConfig = config;
+        imageReaderHandler.post(() -> createStillOutputs(stillConfig));
+
+        SurfaceTexture surfaceTexture = flutterTexture.surfaceTexture();
+        surfaceTexture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
+
+        previewTextureOutput = backend.createTextureOutput(STREAM_PREVIEW, surfaceTexture);
+        cameraHandler.post(this::attachPreviewSurface);
+    }
+
+    /**
+     * Creates the still capture outputs on the image reader thread. The outputs are published under
+     * the lock that {@link #close()} takes, so a camera closed in the meantime never receives them.
+     */
+    private void createStillOutputs(CameraConfigCache.Entry config) {
+        List<CameraBackend.ImageOutput> created = new ArrayList<>();
+        CameraBackend.ImageOutput jpeg;
+        CameraBackend.ImageOutput heic = null;
+        CameraBackend.ImageOutput raw = null;
+        CameraBackend.ImageOutput yuv = null;
+        CameraBackend.ImageOutput snapshot = null;
+        try {
+            // Every frame of a burst is in flight at the same time.
+            int maxJpegImages = Math.max(captureTracker.getMaxOutstanding(), BurstCapture.MAX_FRAMES);
+            jpeg = createImageOutput(STREAM_JPEG, config.jpegSize, ImageFormat.JPEG, maxJpegImages, this::onStillImageAvailable);
+            created.add(jpeg);
+
+            if (config.heicSize != null && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
+                heic = createImageOutput(STREAM_HEIC, config.heicSize, ImageFormat.HEIC, captureTracker.getMaxOutstanding(), this::onStillImageAvailable);
+                created.add(heic);
+            }
+
+            if (config.rawSize != null) {
+                raw = createImageOutput(STREAM_RAW, config.rawSize, ImageFormat.RAW_SENSOR, captureTracker.getMaxOutstanding(), this::onStillImageAvailable);
+                created.add(raw);
+            }
+
+            if (config.yuvSize != null) {
+                yuv = createImageOutput(STREAM_YUV, config.yuvSize, ImageFormat.YUV_420_888, YuvBurstCapture.MAX_FRAMES, this::onYuvImageAvailable);
+                created.add(yuv);
+            }
+
+            if (config.snapshotSize != null) {
+                snapshot = createImageOutput(STREAM_SNAPSHOT, config.snapshotSize, ImageFormat.YUV_420_888, SNAPSHOT_MAX_IMAGES, this::onSnapshotImageAvailable);
+                created.add(snapshot);
+            }
+        } catch (IllegalArgumentException e) {
+            closeReaders(created);
+            configCache.invalidate(cameraProperties.getCameraName());
+            dartMessenger.sendCameraErrorEvent(e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                Log.d(TAG, "createStillOutputs | camera closed, releasing the outputs");
+                closeReaders(created);
+                return;
+            }
+            imageReader = jpeg;
+            heicImageReader = heic;
+            rawImageReader = raw;
+            yuvImageReader = yuv;
+            snapshotImageReader = snapshot;
+            stillOutputsReady = true;
+        }
+        Handler handler = cameraHandler;
+        if (handler != null) {
+            handler.post(this::startCaptureSession);
+        }
+    }
+
+    private CameraBackend.ImageOutput createImageOutput(String name, Size size, int format, int maxImages, CameraBackend.ImageListener listener) {
+        return backend.createImageOutput(name, size.getWidth(), size.getHeight(), format, maxImages, listener, imageReaderHandler);
+    }
+
+    private static void closeReaders(List<CameraBackend.ImageOutput> outputs) {
+        for (CameraBackend.ImageOutput output : outputs) {
+            output.close();
+        }
+    }
+
+    /**
+     * Chooses the preview and capture sizes for the camera and fits them to its guaranteed stream
+     * combinations. Has no side effects, so it can also run in the background to validate a cached
+     * configuration.
+     */
+    private CameraConfigCache.Entry negotiateConfig(CameraCharacteristics cameraCharacteristics, Size displaySize) {
         int[] capabilities = cameraCharacteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
 
+        boolean isRawSupported = false;
+        for (int capability : capabilities) {
+            if (capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_RAW) {
+                isRawSupported = true;
+                break;
+            }
+        }
+
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
             boolean isManualFocusSupported = IntStream.of(capabilities).anyMatch(x -> x == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_MANUAL_SENSOR);
             if (isManualFocusSupported) {
@@ -105,66 +391,267 @@ public class NativeCamera {
             }
         }
 
-        Size[] sizeArray = cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP).getOutputSizes(ImageFormat.JPEG);
-        Size cameraPreviewSize = new Size(1920, 1080);
-        if (!Arrays.asList(sizeArray).contains(cameraPreviewSize)) {
-            Display activityDisplay = activity.getWindowManager().getDefaultDisplay();
-            Point point = new Point();
-            activityDisplay.getRealSize(point);
-            cameraPreviewSize = new Size(point.x, point.y);
+        Size cameraPreviewSize = choosePreviewSize(cameraCharacteristics, displaySize);
+        StreamConfigurationMap streamConfigurationMap = cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+
+        List<StreamCombinationPlanner.StreamRequest> streamRequests = new ArrayList<>();
+        streamRequests.add(new StreamCombinationPlanner.StreamRequest(STREAM_PREVIEW, StreamCombinationPlanner.StreamType.PRIV, cameraPreviewSize, streamConfigurationMap.getOutputSizes(SurfaceTexture.class), false));
+        streamRequests.add(new StreamCombinationPlanner.StreamRequest(STREAM_JPEG, StreamCombinationPlanner.StreamType.JPEG, cameraPreviewSize, streamConfigurationMap.getOutputSizes(ImageFormat.JPEG), false));
+
+        if (heicEnabled && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
+            Size[] heicSizes = streamConfigurationMap.getOutputSizes(ImageFormat.HEIC);
+            if (heicSizes != null && Arrays.asList(heicSizes).contains(cameraPreviewSize)) {
+                streamRequests.add(new StreamCombinationPlanner.StreamRequest(STREAM_HEIC, StreamCombinationPlanner.StreamType.JPEG, cameraPreviewSize, heicSizes, true));
+            } else {
+                Log.d(TAG, "openCameraInitializer | HEIC not supported at " + cameraPreviewSize + ", using JPEG");
+            }
         }
 
-        imageReader = ImageReader.newInstance(cameraPreviewSize.getWidth(), cameraPreviewSize.getHeight(), ImageFormat.JPEG, 1);
+        if (rawEnabled && isRawSupported) {
+            Size[] rawSizes = streamConfigurationMap.getOutputSizes(ImageFormat.RAW_SENSOR);
+            Size rawSize = getLargestSize(rawSizes);
+            if (rawSize != null) {
+                streamRequests.add(new StreamCombinationPlanner.StreamRequest(STREAM_RAW, StreamCombinationPlanner.StreamType.RAW, rawSize, rawSizes, true));
+            }
+        } else if (rawEnabled) {
+            Log.d(TAG, "openCameraInitializer | RAW requested but not supported by camera " + cameraProperties.getCameraName());
+        }
 
-        SurfaceTexture surfaceTexture = flutterTexture.surfaceTexture();
-        surfaceTexture.setDefaultBufferSize(cameraPreviewSize.getWidth(), cameraPreviewSize.getHeight());
+        if (yuvBurstEnabled) {
+            Size[] yuvSizes = streamConfigurationMap.getOutputSizes(ImageFormat.YUV_420_888);
+            if (yuvSizes != null && Arrays.asList(yuvSizes).contains(cameraPreviewSize)) {
+                streamRequests.add(new StreamCombinationPlanner.StreamRequest(STREAM_YUV, StreamCombinationPlanner.StreamType.YUV, cameraPreviewSize, yuvSizes, true));
+            } else {
+                Log.d(TAG, "openCameraInitializer | YUV not supported at " + cameraPreviewSize + ", YUV bursts disabled");
+            }
+        }
 
-        surface = new Surface(surfaceTexture);
+        if (previewSnapshotEnabled) {
+            Size[] yuvSizes = streamConfigurationMap.getOutputSizes(ImageFormat.YUV_420_888);
+            Size snapshotSize = chooseSnapshotSize(yuvSizes, cameraPreviewSize);
+            if (snapshotSize != null) {
+                streamRequests.add(new StreamCombinationPlanner.StreamRequest(STREAM_SNAPSHOT, StreamCombinationPlanner.StreamType.YUV, snapshotSize, yuvSizes, true));
+            } else {
+                Log.d(TAG, "openCameraInitializer | no small YUV size matches " + cameraPreviewSize + ", preview snapshots disabled");
+            }
+        }
 
-        List<Surface> targets = new ArrayList<>();
-        targets.add(surface);
-        targets.add(imageReader.getSurface());
+        StreamCombinationPlanner.Plan plan = planStreams(streamRequests, isRawSupported, displaySize);
+        StreamCombinationPlanner.StreamRequest heicStream = plan.get(STREAM_HEIC);
+        StreamCombinationPlanner.StreamRequest rawStream = plan.get(STREAM_RAW);
+        StreamCombinationPlanner.StreamRequest yuvStream = plan.get(STREAM_YUV);
+        StreamCombinationPlanner.StreamRequest snapshotStream = plan.get(STREAM_SNAPSHOT);
+
+        // Highest frame rate first, then the widest range so auto exposure can slow down in low light.
+        Range<Integer> fpsRange = null;
+        Range<Integer>[] fpsRanges = cameraProperties.getControlAutoExposureAvailableTargetFpsRanges();
+        if (fpsRanges != null) {
+            for (Range<Integer> range : fpsRanges) {
+                if (fpsRange == null || range.getUpper() > fpsRange.getUpper()
+                        || (range.getUpper().equals(fpsRange.getUpper()) && range.getLower() < fpsRange.getLower())) {
+                    fpsRange = range;
+                }
+            }
+        }
+        int[] afModes = cameraCharacteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+
+        return new CameraConfigCache.Entry(
+                cameraProperties.getCameraName(),
+                displaySize.getWidth(),
+                displaySize.getHeight(),
+                rawEnabled,
+                heicEnabled,
+                yuvBurstEnabled,
+                previewSnapshotEnabled,
+                cameraProperties.getHardwareLevel(),
+                plan.get(STREAM_PREVIEW).size,
+                plan.get(STREAM_JPEG).size,
+                heicStream == null ? null : heicStream.size,
+                rawStream == null ? null : rawStream.size,
+                yuvStream == null ? null : yuvStream.size,
+                snapshotStream == null ? null : snapshotStream.size,
+                fpsRange == null ? 0 : fpsRange.getLower(),
+                fpsRange == null ? 0 : fpsRange.getUpper(),
+                capabilities,
+                afModes == null ? new int[0] : afModes);
+    }
 
-        createCaptureSession(cameraDevice, targets, cameraHandler, surface);
+    private Size getDisplaySize() {
+        Display activityDisplay = activity.getWindowManager().getDefaultDisplay();
+        Point point = new Point();
+        activityDisplay.getRealSize(point);
+        return new Size(point.x, point.y);
     }
 
-    private void refreshPreviewCaptureSession(Surface surface) throws CameraAccessException {
-        CaptureRequest.Builder captureRequest = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-        captureRequest.addTarget(surface);
+    /**
+     * Fits the requested outputs to the guaranteed stream combinations of the camera.
+     *
+     * <p>LEGACY, LIMITED and EXTERNAL devices reliably reject anything beyond their guarantees, so
+     * the plan is applied there. Better devices usually support more than their guarantees; for them
+     * the outputs are kept and {@link #releaseOptionalOutputs()} is the fallback if configuring fails.
+     */
+    private StreamCombinationPlanner.Plan planStreams(List<StreamCombinationPlanner.StreamRequest> streamRequests, boolean isRawSupported, Size displaySize) {
+        int hardwareLevel = cameraProperties.getHardwareLevel();
+        StreamCombinationPlanner planner = new StreamCombinationPlanner(hardwareLevel, isRawSupported, displaySize);
+        if (hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL || hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_3) {
+            boolean guaranteed = planner.isGuaranteed(streamRequests);
+            if (!guaranteed) {
+                Log.d(TAG, "planStreams | outputs exceed the guaranteed combinations of hardware level " + hardwareLevel);
+            }
+            return new StreamCombinationPlanner.Plan(streamRequests, new ArrayList<>(), guaranteed);
+        }
+        return planner.plan(streamRequests);
+    }
 
-        //cameraPreviewSize.getHeight() / 2;
-        //        cameraPreviewSize.getWidth() / 2
-        new Handler().postDelayed(() -> {
+    /**
+     * Closes the outputs that are not needed for preview and JPEG capture.
+     *
+     * @return true if any output was released, so configuring the session may be retried.
+     */
+    private boolean releaseOptionalOutputs() {
+        boolean released = false;
+        if (heicImageReader != null) {
+            heicImageReader.close();
+            heicImageReader = null;
+            released = true;
+        }
+        if (rawImageReader != null) {
+            rawImageReader.close();
+            rawImageReader = null;
+            released = true;
+        }
+        if (yuvImageReader != null) {
+            yuvImageReader.close();
+            yuvImageReader = null;
+            released = true;
+        }
+        if (snapshotImageReader != null) {
+            closeSnapshotReader();
+            released = true;
+        }
+        return released;
+    }
+
+    /**
+     * Configures a capture session once the device is open and the still outputs exist. Runs on the
+     * camera thread and creates at most one session per opened device.
+     *
+     * <p>From API 26 the preview output is deferred while the Flutter surface is not ready, so the
+     * session configures in parallel and {@link #attachPreviewSurface()} finalizes it. Older
+     * versions wait for the surface.
+     */
+    private void startCaptureSession() {
+        CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> device = cameraDevice;
+        if (device == null || !stillOutputsReady || sessionDevice == device) {
+            return;
+        }
+        CameraBackend.Output textureOutput = previewTextureOutput;
+        boolean deferPreview = textureOutput == null;
+        if (deferPreview && android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.O) {
+            return;
+        }
+
+        Map<String, CameraBackend.Output> outputs = new LinkedHashMap<>();
+        CameraBackend.Output previewOutput = deferPreview && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O
+                ? backend.createDeferredOutput(STREAM_PREVIEW, previewSize)
+                : textureOutput;
+        outputs.put(STREAM_PREVIEW, previewOutput);
+        outputs.put(STREAM_JPEG, imageReader);
+        if (heicImageReader != null) {
+            outputs.put(STREAM_HEIC, heicImageReader);
+        }
+        if (rawImageReader != null) {
+            outputs.put(STREAM_RAW, rawImageReader);
+        }
+        if (yuvImageReader != null) {
+            outputs.put(STREAM_YUV, yuvImageReader);
+        }
+        if (snapshotImageReader != null) {
+            outputs.put(STREAM_SNAPSHOT, snapshotImageReader);
+        }
+
+        sessionDevice = device;
+        deferredPreviewOutput = deferPreview ? previewOutput : null;
+        previewDeferred = deferPreview;
+        sessionOutputs = outputs;
+        CameraTrace.endAsync(TRACE_CONFIGURE, configureTraceCookie);
+        configureTraceCookie = CameraTrace.beginAsync(TRACE_CONFIGURE);
+        boolean traced = CameraTrace.begin("NativeCamera.createCaptureSession");
+        try {
+            device.createSession(new ArrayList<>(outputs.values()), newSessionCallback(outputs.size()));
+        } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
+            sessionDevice = null;
+            endConfigureTrace();
+            e.printStackTrace();
+            if (!retryRecovery(e.getMessage())) {
+                dartMessenger.sendCameraErrorEvent(e.getMessage());
+            }
+        } finally {
+            CameraTrace.end(traced);
+        }
+    }
+
+    private void endConfigureTrace() {
+        CameraTrace.endAsync(TRACE_CONFIGURE, configureTraceCookie);
+        configureTraceCookie = 0;
+    }
+
+    /** Hands the Flutter surface to a session configured with a deferred preview, or starts one. */
+    private void attachPreviewSurface() {
+        if (captureSession == null || deferredPreviewOutput == null) {
+            startCaptureSession();
+            return;
+        }
+        try {
+            finalizeDeferredPreview();
+            refreshPreviewCaptureSession();
+        } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
+            e.printStackTrace();
+            dartMessenger.sendCameraErrorEvent(e.getMessage());
+        }
+    }
+
+    @RequiresApi(api = android.os.Build.VERSION_CODES.O)
+    private void finalizeDeferredPreview() throws CameraAccessException {
+        CameraBackend.Output previewOutput = deferredPreviewOutput;
+        deferredPreviewOutput = null;
+        backend.finalizeOutput(captureSession, previewOutput, previewTextureOutput);
+    }
+
+    /** Returns the output of the current session for a stream. */
+    private CameraBackend.Output output(String stream) {
+        CameraBackend.Output output = sessionOutputs.get(stream);
+        if (output == null) {
+            throw new IllegalStateException("The session has no " + stream + " output.");
+        }
+        return output;
+    }
+
+    private void refreshPreviewCaptureSession() throws CameraAccessException {
+        CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> device = captureSession.getDevice();
+        CaptureRequest.Builder captureRequest = sessionOutputs.containsKey(STREAM_SNAPSHOT)
+                ? device.createRequest(CameraBackend.TEMPLATE_PREVIEW, output(STREAM_PREVIEW), output(STREAM_SNAPSHOT))
+                : device.createRequest(CameraBackend.TEMPLATE_PREVIEW, output(STREAM_PREVIEW));
+
+        // Coming back from suspend() or a recovery the session was already negotiated once, and with
+        // OutputConfiguration the surface is attached explicitly, so skip the settle delay and measure
+        // how long it takes until the first preview frame is delivered.
+        if (resumeStartNanos != 0 || recoveryStartNanos != 0
+                || (initializeStartNanos != 0 && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O)) {
+            captureRequest.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            setPreviewRequest(captureRequest);
+            return;
+        }
+
+        Handler handler = cameraHandler;
+        if (handler == null) {
+            return;
+        }
+        handler.postDelayed(() -> {
             if (captureSession != null) {
                 try {
-//                    CameraManager cameraManager = CameraUtils.getCameraManager(activity);
-//                    CameraCharacteristics cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraProperties.getCameraName());
-//                    Rect rect = cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
-//                    Log.i(TAG, "SENSOR_INFO_ACTIVE_ARRAY_SIZE,,,,,,,,rect.left--->" + rect.left + ",,,rect.top--->" + rect.top + ",,,,rect.right--->" + rect.right + ",,,,rect.bottom---->" + rect.bottom);
-//                    Size size = cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_PIXEL_ARRAY_SIZE);
-//                    Log.i("onAreaTouchEvent", "mCameraCharacteristics,,,,size.getWidth()--->" + size.getWidth() + ",,,size.getHeight()--->" + size.getHeight());
-//                    int areaSize = 200;
-//                    int right = rect.right;
-//                    int bottom = rect.bottom;
-//                    int viewWidth = getPreviewSize().getWidth();
-//                    int viewHeight = getPreviewSize().getHeight();
-//                    int ll, rr;
-//                    Rect newRect;
-//                    int centerX = (int) viewWidth / 2;
-//                    int centerY = (int) viewHeight / 2;
-//                    ll = ((centerX * right) - areaSize) / viewWidth;
-//                    rr = ((centerY * bottom) - areaSize) / viewHeight;
-//                    int focusLeft = clamp(ll, 0, right);
-//                    int focusBottom = clamp(rr, 0, bottom);
-//                    Log.i(TAG, "focusLeft--->" + focusLeft + ",,,focusTop--->" + focusBottom + ",,,focusRight--->" + (focusLeft + areaSize) + ",,,focusBottom--->" + (focusBottom + areaSize));
-//                    newRect = new Rect(focusLeft, focusBottom, focusLeft + areaSize, focusBottom + areaSize);
-//                    MeteringRectangle meteringRectangle = new MeteringRectangle(newRect, 500);
-//                    MeteringRectangle[] meteringRectangleArr = {meteringRectangle};
-//                    captureRequest.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
-//                    captureRequest.set(CaptureRequest.CONTROL_AF_REGIONS, meteringRectangleArr);
-//                    captureRequest.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
                     captureRequest.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                    captureSession.setRepeatingRequest(captureRequest.build(), null, cameraHandler);
+                    setPreviewRequest(captureRequest);
                 } catch (CameraAccessException | IllegalStateException e) {
                     e.printStackTrace();
                     dartMessenger.sendCameraErrorEvent(e.getMessage());
@@ -173,218 +660,1009 @@ public class NativeCamera {
         }, 400);
     }
 
-    private void open(CameraManager manager, String cameraId, Handler handler) throws CameraAccessException {
-        manager.openCamera(cameraId, new CameraDevice.StateCallback() {
+    /** Makes {@code request} the repeating preview request, at the current zoom and metering. */
+    private void setPreviewRequest(CaptureRequest.Builder request) throws CameraAccessException {
+        synchronized (previewRequestLock) {
+            zoomController.apply(request, zoom);
+            applyMetering(request);
+            applyTargetFpsRange(request);
+            request.set(CaptureRequest.STATISTICS_FACE_DETECT_MODE, faceDetectMode);
+            previewRequestBuilder = request;
+            // The preview starts or restarts here, so the pause before is not jank.
+            previewFrameStats.markGap();
+            setRepeatingRequest(request, previewCaptureCallback);
+        }
+    }
+
+    private void setRepeatingRequest(CaptureRequest.Builder request, @Nullable CameraBackend.CaptureListener<TotalCaptureResult> callback) throws CameraAccessException {
+        boolean traced = CameraTrace.begin("NativeCamera.setRepeatingRequest");
+        try {
+            captureSession.setRepeating(request, null, callback);
+        } finally {
+            CameraTrace.end(traced);
+        }
+    }
+
+    private void open(String cameraId) throws CameraAccessException {
+        CameraTrace.endAsync(TRACE_OPEN, openTraceCookie);
+        openTraceCookie = CameraTrace.beginAsync(TRACE_OPEN);
+        opening = true;
+        try {
+            openDevice(cameraId);
+        } catch (CameraAccessException | RuntimeException e) {
+            opening = false;
+            endOpenTrace();
+            throw e;
+        }
+    }
+
+    private void openDevice(String cameraId) throws CameraAccessException {
+        backend.openCamera(cameraId, new CameraBackend.DeviceCallback<CaptureRequest.Builder, TotalCaptureResult>() {
             @Override
-            public void onOpened(@NonNull CameraDevice camera) {
+            public void onOpened(@NonNull CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> camera) {
+                endOpenTrace();
+                opening = false;
+                if (suspended) {
+                    // The activity was paused while the device was opening.
+                    Log.d(TAG, "open | suspended while opening, releasing");
+                    camera.close();
+                    return;
+                }
                 cameraDevice = camera;
+                startCaptureSession();
             }
 
             @Override
-            public void onDisconnected(@NonNull CameraDevice camera) {
+            public void onDisconnected(@NonNull CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> camera) {
                 Log.d(TAG, "open | onDisconnected");
+                endOpenTrace();
+                opening = false;
+                if (recoveryPolicy != null) {
+                    scheduleRecovery(camera, "disconnected");
+                    return;
+                }
                 close();
             }
 
             @Override
-            public void onError(@NonNull CameraDevice camera, int error) {
+            public void onError(@NonNull CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> camera, int error) {
                 Log.d(TAG, "open | onError");
+                endOpenTrace();
+                opening = false;
 
-                close();
                 String errorDescription;
                 switch (error) {
-                    case ERROR_CAMERA_IN_USE:
+                    case CameraBackend.ERROR_CAMERA_IN_USE:
                         errorDescription = "The camera device is in use already.";
                         break;
 
-                    case ERROR_MAX_CAMERAS_IN_USE:
+                    case CameraBackend.ERROR_MAX_CAMERAS_IN_USE:
                         errorDescription = "Max cameras in use";
                         break;
 
-                    case ERROR_CAMERA_DISABLED:
+                    case CameraBackend.ERROR_CAMERA_DISABLED:
                         errorDescription = "The camera device could not be opened due to a device policy.";
                         break;
 
-                    case ERROR_CAMERA_DEVICE:
+                    case CameraBackend.ERROR_CAMERA_DEVICE:
                         errorDescription = "The camera device has encountered a fatal error";
                         break;
 
-                    case ERROR_CAMERA_SERVICE:
+                    case CameraBackend.ERROR_CAMERA_SERVICE:
                         errorDescription = "The camera service has encountered a fatal error.";
                         break;
 
                     default:
                         errorDescription = "Unknown camera error";
                 }
+
+                // A device policy will not change by retrying, everything else may clear up on its own.
+                if (recoveryPolicy != null && error != CameraBackend.ERROR_CAMERA_DISABLED) {
+                    scheduleRecovery(camera, errorDescription);
+                    return;
+                }
+                close();
                 dartMessenger.sendCameraErrorEvent(errorDescription);
             }
 
             @Override
-            public void onClosed(@NonNull CameraDevice camera) {
+            public void onClosed(@NonNull CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> camera) {
                 Log.d(TAG, "open | onClosed");
 
+                // A device released by suspend() may report closing after restore() reopened it.
+                if (cameraDevice != null && cameraDevice != camera) {
+                    return;
+                }
                 cameraDevice = null;
                 closeCaptureSession();
             }
-        }, handler);
+        }, cameraHandler);
+    }
+
+    private void endOpenTrace() {
+        CameraTrace.endAsync(TRACE_OPEN, openTraceCookie);
+        openTraceCookie = 0;
     }
 
-    private void createCaptureSession(CameraDevice device, List<Surface> targets, Handler handler, Surface surface) throws CameraAccessException {
-        device.createCaptureSession(targets, new CameraCaptureSession.StateCallback() {
+    private CameraBackend.SessionCallback<CaptureRequest.Builder, TotalCaptureResult> newSessionCallback(int outputCount) {
+        return new CameraBackend.SessionCallback<CaptureRequest.Builder, TotalCaptureResult>() {
 
             boolean captureSessionClosed = false;
 
             @Override
-            public void onConfigured(@NonNull CameraCaptureSession session) {
+            public void onConfigured(@NonNull CameraBackend.Session<CaptureRequest.Builder, TotalCaptureResult> session) {
                 Log.d(TAG, "CameraCaptureSession onConfigured");
+                endConfigureTrace();
                 if (cameraDevice == null || captureSessionClosed) {
                     dartMessenger.sendCameraErrorEvent("The camera was closed during configuration.");
                     return;
                 }
                 captureSession = session;
+                synchronized (previewRequestLock) {
+                    displayRotationDegrees = OrientationTracker.getDisplayRotationDegrees(activity);
+                    meteringTransform = null;
+                }
                 try {
-                    refreshPreviewCaptureSession(surface);
-                } catch (CameraAccessException e) {
+                    if (deferredPreviewOutput != null) {
+                        if (previewTextureOutput == null) {
+                            // attachPreviewSurface() finishes once the texture is ready.
+                            return;
+                        }
+                        finalizeDeferredPreview();
+                    }
+                    refreshPreviewCaptureSession();
+                } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
                     dartMessenger.sendCameraErrorEvent(e.getMessage());
                 }
             }
 
             @Override
-            public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            public void onConfigureFailed() {
                 Log.d(TAG, "CameraCaptureSession onConfigureFailed");
-                dartMessenger.sendCameraErrorEvent("Failed to configure camera session.");
+                endConfigureTrace();
+                if (!captureSessionClosed && cameraDevice != null && releaseOptionalOutputs()) {
+                    Log.d(TAG, "CameraCaptureSession retrying without optional outputs");
+                    sessionDevice = null;
+                    startCaptureSession();
+                    return;
+                }
+                // The outputs may come from a cached configuration that no longer fits the device.
+                configCache.invalidate(cameraProperties.getCameraName());
+                String reason = "Failed to configure camera session with " + outputCount + " outputs (hardware level " + cameraProperties.getHardwareLevel() + ").";
+                if (!captureSessionClosed && retryRecovery(reason)) {
+                    return;
+                }
+                dartMessenger.sendCameraErrorEvent(reason);
             }
 
             @Override
-            public void onClosed(@NonNull CameraCaptureSession session) {
+            public void onClosed() {
                 Log.d(TAG, "CameraCaptureSession onClosed");
                 captureSessionClosed = true;
             }
 
-        }, handler);
+        };
     }
 
-    private MethodChannel.Result flutterResult;
+    /**
+     * Queues a still capture. Every call is answered on its own result, even when several captures
+     * overlap; at most {@link CaptureTracker#getMaxOutstanding()} are submitted at the same time.
+     */
+    public void takePicture(@NonNull final MethodChannel.Result result, @NonNull CaptureFormat format, int quality) throws CameraAccessException {
+        if (captureSession == null || imageReader == null) {
+            result.error("cameraNotReady", "The camera session has not been configured yet.", null);
+            return;
+        }
+        if (format == CaptureFormat.DNG && rawImageReader == null) {
+            result.error("rawNotSupported", "RAW capture was not enabled or is not supported by this camera.", null);
+            return;
+        }
+
+        if (quality != 0 && (quality < 1 || quality > 100)) {
+            result.error("invalidQuality", "The quality must be between 1 and 100.", null);
+            return;
+        }
+        if (format == CaptureFormat.HEIC && heicImageReader == null) {
+            Log.d(TAG, "takePicture | HEIC not available, falling back to JPEG");
+            format = CaptureFormat.JPEG;
+        }
+
+        CaptureTracker.PendingCapture pending = captureTracker.enqueue(result, format, quality);
+        Log.d(TAG, "takePicture | queued " + format + " request " + pending.requestId);
+        submitPendingCaptures();
+    }
 
-    public void takePicture(@NonNull final MethodChannel.Result result) throws CameraAccessException {
+    /** Adds a RAW_SENSOR output for DNG captures when the camera supports it; takes effect on initialize. */
+    public void setRawEnabled(boolean rawEnabled) {
+        this.rawEnabled = rawEnabled;
+    }
 
-        captureSession.stopRepeating();
+    /** Adds a HEIC output when the stream configuration map supports it; takes effect on initialize. */
+    public void setHeicEnabled(boolean heicEnabled) {
+        this.heicEnabled = heicEnabled;
+    }
 
-        flutterResult = result;
+    /** Adds a small YUV output to the preview for {@link #takePreviewSnapshot}; takes effect on initialize. */
+    public void setPreviewSnapshotEnabled(boolean previewSnapshotEnabled) {
+        this.previewSnapshotEnabled = previewSnapshotEnabled;
+    }
 
-        imageReader.setOnImageAvailableListener(reader -> {
-            Image image = reader.acquireNextImage();
+    /** Adds a YUV output for {@link #takeBestShot} and {@link #takeMergedShot}; takes effect on initialize. */
+    public void setYuvBurstEnabled(boolean yuvBurstEnabled) {
+        this.yuvBurstEnabled = yuvBurstEnabled;
+    }
 
-            CameraManager cameraManager = CameraUtils.getCameraManager(activity);
-            CameraCharacteristics cameraCharacteristics;
+    /** Sets how many still captures may be in flight at the same time. */
+    public void setMaxOutstandingCaptures(int maxOutstandingCaptures) {
+        if (memoryConstrained) {
+            Log.d(TAG, "setMaxOutstandingCaptures | memory is low, keeping one capture in flight");
+            return;
+        }
+        captureTracker.setMaxOutstanding(maxOutstandingCaptures);
+    }
+
+    private void submitPendingCaptures() {
+        CaptureTracker.PendingCapture pending;
+        while ((pending = captureTracker.pollSubmittable()) != null) {
             try {
+                submitCapture(pending);
+            } catch (CameraAccessException | IllegalStateException e) {
+                dartMessenger.error(pending.result, "CameraAccess", e.getMessage(), null);
+                captureTracker.finish(pending);
+            }
+        }
+    }
+
+    private void submitCapture(final CaptureTracker.PendingCapture pending) throws CameraAccessException {
+        String stream = pending.format == CaptureFormat.DNG ? STREAM_RAW
+                : pending.format == CaptureFormat.HEIC ? STREAM_HEIC : STREAM_JPEG;
+        CaptureRequest.Builder captureRequest = captureSession.getDevice().createRequest(CameraBackend.TEMPLATE_STILL_CAPTURE, output(stream));
+        // RAW captures are interleaved with the preview, which keeps running while the DNG is encoded.
+        if (pending.format != CaptureFormat.DNG) {
+            // Time-lapse shots are interleaved with the preview like RAW captures, so the preview
+            // never pauses between shots.
+            if (!pending.isIntervalShot()) {
+                captureSession.stopRepeating();
+                previewStoppedForCapture = true;
+            }
+            if (pending.format == CaptureFormat.HEIC) {
+                // ExifInterface cannot rewrite HEIC files, so the encoder writes the orientation.
+                captureRequest.set(CaptureRequest.JPEG_ORIENTATION, orientationTracker.getRotationDegrees());
+            }
+            if (pending.quality != 0) {
+                // JPEG_QUALITY also controls the HEIC encoder.
+                captureRequest.set(CaptureRequest.JPEG_QUALITY, (byte) pending.quality);
+            }
+        }
+        applyPreviewControls(captureRequest);
+        pending.submitNanos = System.nanoTime();
+        pending.exifOrientation = orientationTracker.getExifOrientation();
+        pending.traceCookie = CameraTrace.beginAsync(TRACE_CAPTURE);
+
+        boolean traced = CameraTrace.begin("NativeCamera.submitCapture");
+        try {
+            captureSession.capture(captureRequest, pending, stillCaptureCallback);
+        } finally {
+            CameraTrace.end(traced);
+        }
+    }
+
+    private final CameraBackend.CaptureListener<TotalCaptureResult> stillCaptureCallback = new CameraBackend.CaptureListener<TotalCaptureResult>() {
+        @Override
+        public void onCaptureStarted(@Nullable Object tag, long timestamp, long frameNumber) {
+            CaptureTracker.PendingCapture pending = (CaptureTracker.PendingCapture) tag;
+            Log.i(TAG, "onCaptureStarted: request " + pending.requestId + ", frame " + frameNumber);
+
+            IntervalCaptureScheduler scheduler = intervalScheduler;
+            if (pending.isIntervalShot() && scheduler != null) {
+                scheduler.onShotStarted(pending.shotIndex, timestamp);
+            }
 
-                cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraProperties.getCameraName());
-                int rotation = 90;
-                boolean mirrored = cameraCharacteristics.get(LENS_FACING) == LENS_FACING_FRONT;
-                int exifOrientation = computeExifOrientation(rotation, mirrored);
+            Image image = captureTracker.onCaptureStarted(pending, timestamp, frameNumber);
+            if (image != null && imageReaderHandler != null) {
+                imageReaderHandler.post(() -> onImageMatched(pending, image));
+            }
+        }
 
-                File newFile = createFile("jpg");
+        @Override
+        public void onCaptureCompleted(@Nullable Object tag, @NonNull TotalCaptureResult result) {
+            Log.i(TAG, "onCaptureCompleted: ");
+            CaptureTracker.PendingCapture pending = (CaptureTracker.PendingCapture) tag;
+            if (pending.needsCaptureResult() && captureTracker.attachCaptureResult(pending, result)) {
+                encodeDng(pending);
+            }
+            if (metadataLog.isEnabled()) {
+                logMetadata(pending, result, null);
+            }
 
-                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                byte[] bytes = new byte[buffer.remaining()];
-                buffer.get(bytes);
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+            if (afState == null || aeState == null) {
+                return;
+            }
+            Log.i(TAG, "onCaptureCompleted: " + afState + " , " + aeState);
+            if (afState == CameraMetadata.CONTROL_AF_STATE_FOCUSED_LOCKED || afState == CameraMetadata.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                Log.i(TAG, "onCaptureCompleted: focus locked, aeState " + aeState);
+                if (aeState == CameraMetadata.CONTROL_AE_STATE_LOCKED || aeState == CameraMetadata.CONTROL_AE_STATE_CONVERGED || aeState == CameraMetadata.CONTROL_AE_STATE_PRECAPTURE || aeState == CameraMetadata.CONTROL_AE_STATE_FLASH_REQUIRED) {
+                    Log.i(TAG, "onCaptureCompleted: exposure settled, aeState " + aeState);
+                }
+            }
+        }
 
-                FileOutputStream output;
+        @Override
+        public void onCaptureFailed(@Nullable Object tag, int reason) {
+            CaptureTracker.PendingCapture pending = (CaptureTracker.PendingCapture) tag;
+            Log.i(TAG, "onCaptureFailed: request " + pending.requestId + ", reason " + reason);
 
-                output = new FileOutputStream(newFile);
-                output.write(bytes);
-                output.close();
+            // A writer that already took the image answers the capture itself.
+            if (captureTracker.onCaptureFailed(pending)) {
+                dartMessenger.error(pending.result, "captureFailed", "The camera failed to capture the image (reason " + reason + ").", null);
+                onCaptureFinished(pending);
+            }
+        }
+    };
 
-                ExifInterface exif = new ExifInterface(newFile.getAbsolutePath());
-                exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_ROTATE_90));
-                exif.saveAttributes();
+    private void onStillImageAvailable(CameraBackend.ImageOutput output) {
+        boolean traced = CameraTrace.begin("NativeCamera.onImageAvailable");
+        try {
+            Image image = output.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            CaptureTracker.PendingCapture pending = captureTracker.onImageAvailable(image);
+            if (pending != null) {
+                onImageMatched(pending, image);
+            }
+        } finally {
+            CameraTrace.end(traced);
+        }
+    }
 
-                flutterResult.success(newFile.getAbsolutePath());
+    private void onImageMatched(CaptureTracker.PendingCapture pending, Image image) {
+        if (!captureTracker.attachImage(pending, image)) {
+            return;
+        }
+        if (pending.format == CaptureFormat.DNG) {
+            encodeDng(pending);
+        } else if (pending.writesInBackground()) {
+            writeInBackground(pending, image);
+        } else {
+            saveStillImage(pending, image);
+        }
+    }
+
+    /**
+     * Writes a time-lapse shot or burst frame on the write pool, so the image reader thread is free
+     * for the next image and burst frames are written in parallel. The queue never grows beyond the
+     * submitted captures, which hold the images.
+     */
+    private void writeInBackground(CaptureTracker.PendingCapture pending, Image image) {
+        try {
+            getWriteExecutor().execute(() -> saveStillImage(pending, image));
+        } catch (RejectedExecutionException e) {
+            image.close();
+            dartMessenger.error(pending.result, "cameraClosed", "The camera was closed before the image was saved.", null);
+            onCaptureFinished(pending);
+        }
+    }
 
-                image.close();
+    /**
+     * Writes a RAW capture as a DNG on the encoder pool, so encoding tens of megabytes never blocks
+     * the camera or image reader threads.
+     */
+    private void encodeDng(CaptureTracker.PendingCapture pending) {
+        ExecutorService executor = getDngExecutor();
+        try {
+            executor.execute(() -> saveDngImage(pending));
+        } catch (RejectedExecutionException e) {
+            if (pending.image != null) {
+                pending.image.close();
+                pending.image = null;
+            }
+            dartMessenger.error(pending.result, "cameraClosed", "The camera was closed before the image was saved.", null);
+            onCaptureFinished(pending);
+        }
+    }
+
+    private void saveDngImage(CaptureTracker.PendingCapture pending) {
+        Image image = pending.image;
+        TotalCaptureResult captureResult = pending.captureResult;
+        File newFile = createFile(pending.format.extension);
+        boolean traced = CameraTrace.begin("NativeCamera.writeDng");
+        try (DngCreator dngCreator = new DngCreator(cameraProperties.getCameraCharacteristics(), captureResult);
+             FileOutputStream output = new FileOutputStream(newFile)) {
+            dngCreator.setOrientation(pending.exifOrientation);
+            dngCreator.writeImage(output, image);
+            output.flush();
+
+            finishCapture(pending, newFile);
+        } catch (IOException | IllegalArgumentException | IllegalStateException | NullPointerException e) {
+            // DngCreator throws NullPointerException for metadata it needs but the camera did not
+            // report. Nothing records a DNG that failed halfway, so it would only take up space.
+            newFile.delete();
+            dartMessenger.error(pending.result, "IOError", e.getMessage(), null);
+        } finally {
+            CameraTrace.end(traced);
+            image.close();
+            onCaptureFinished(pending);
+        }
+    }
 
-                //openCameraInitializer();
-                if (surface != null) {
-                    refreshPreviewCaptureSession(surface);
+    /**
+     * Answers a capture with the written file, its size and how long it took.
+     *
+     * <p>{@code encodeTimeMs} covers submitting the request until the encoded (or RAW) image was
+     * available, {@code writeTimeMs} the remaining time until the file was complete.
+     */
+    private void finishCapture(CaptureTracker.PendingCapture pending, File file) {
+        long now = System.nanoTime();
+        captureStore.onCaptureWritten(file);
+        if (metadataLog.isEnabled()) {
+            logMetadata(pending, null, file);
+        }
+
+        Map<String, Object> reply = new HashMap<>();
+        reply.put("path", file.getAbsolutePath());
+        reply.put("format", pending.format.name);
+        reply.put("fileSize", file.length());
+        reply.put("encodeTimeMs", (pending.imageNanos - pending.submitNanos) / 1000000.0);
+        reply.put("writeTimeMs", (now - pending.imageNanos) / 1000000.0);
+
+        Log.d(TAG, "takePicture | request " + pending.requestId + " saved to " + file.getName() + " (" + file.length() + " bytes)");
+        dartMessenger.finish(pending.result, reply);
+    }
+
+    private synchronized ExecutorService getWriteExecutor() {
+        if (writeExecutor == null) {
+            writeExecutor = Executors.newFixedThreadPool(WRITE_THREADS);
+        }
+        return writeExecutor;
+    }
+
+    private synchronized ExecutorService getDngExecutor() {
+        if (dngExecutor == null) {
+            dngExecutor = Executors.newFixedThreadPool(DNG_ENCODER_THREADS);
+        }
+        return dngExecutor;
+    }
+
+    private static Size getLargestSize(Size[] sizes) {
+        Size largest = null;
+        if (sizes == null) {
+            return null;
+        }
+        for (Size size : sizes) {
+            if (largest == null || (long) size.getWidth() * size.getHeight() > (long) largest.getWidth() * largest.getHeight()) {
+                largest = size;
+            }
+        }
+        return largest;
+    }
+
+    private void saveStillImage(CaptureTracker.PendingCapture pending, Image image) {
+        File newFile = createFile(pending.format.extension);
+        try {
+            // Written straight from the image buffer, without copying it to the heap first.
+            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+
+            boolean traced = CameraTrace.begin(TRACE_WRITE_FILE);
+            try (FileOutputStream output = new FileOutputStream(newFile)) {
+                FileChannel channel = output.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
                 }
+            } finally {
+                CameraTrace.end(traced);
+            }
 
-            } catch (CameraAccessException | IOException e) {
-                dartMessenger.error(flutterResult, "", e.getMessage(), null);
+            if (pending.format == CaptureFormat.JPEG) {
+                writeExifOrientation(newFile, pending.exifOrientation);
             }
-        }, imageReaderHandler);
 
-        CaptureRequest.Builder captureRequest = captureSession.getDevice().createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-        captureRequest.addTarget(imageReader.getSurface());
+            finishCapture(pending, newFile);
+
+        } catch (IOException | IllegalStateException e) {
+            // A partly written file would otherwise stay behind without being recorded.
+            newFile.delete();
+            dartMessenger.error(pending.result, "IOError", e.getMessage(), null);
+        } finally {
+            image.close();
+            onCaptureFinished(pending);
+        }
+    }
 
-        captureSession.capture(captureRequest.build(), new CameraCaptureSession.CaptureCallback() {
+    /**
+     * Starts a time-lapse of {@code count} shots taken {@code intervalMillis} apart. Progress and the
+     * final jitter statistics are reported as events.
+     */
+    public void startIntervalCapture(long intervalMillis, int count, @NonNull CaptureFormat format, int quality) throws CameraAccessException {
+        if (captureSession == null || imageReader == null || cameraHandler == null) {
+            throw new IllegalStateException("The camera session has not been configured yet.");
+        }
+        if (intervalScheduler != null) {
+            throw new IllegalStateException("An interval capture is already running.");
+        }
+        if (format == CaptureFormat.DNG && rawImageReader == null) {
+            throw new IllegalArgumentException("RAW capture was not enabled or is not supported by this camera.");
+        }
+        if (quality != 0 && (quality < 1 || quality > 100)) {
+            throw new IllegalArgumentException("The quality must be between 1 and 100.");
+        }
+        CaptureFormat shotFormat = format == CaptureFormat.HEIC && heicImageReader == null ? CaptureFormat.JPEG : format;
+
+        Integer timestampSource = cameraProperties.getCameraCharacteristics().get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        boolean realtimeTimestamps = timestampSource != null && timestampSource == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+
+        intervalScheduler = new IntervalCaptureScheduler(cameraHandler, dartMessenger, new IntervalCaptureScheduler.Host() {
             @Override
-            public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
-                super.onCaptureStarted(session, request, timestamp, frameNumber);
-                Log.i(TAG, "onCaptureStarted: ");
+            public boolean submitShot(int index, @NonNull MethodChannel.Result result) {
+                if (captureSession == null || imageReader == null) {
+                    return false;
+                }
+                captureTracker.enqueueIntervalShot(result, shotFormat, quality, index);
+                submitPendingCaptures();
+                return true;
             }
 
             @Override
-            public void onCaptureProgressed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureResult partialResult) {
-                super.onCaptureProgressed(session, request, partialResult);
-                Log.i(TAG, "onCaptureProgressed: ");
+            public void onFinished(@NonNull IntervalCaptureScheduler scheduler) {
+                if (intervalScheduler == scheduler) {
+                    intervalScheduler = null;
+                }
             }
+        }, intervalMillis, count, realtimeTimestamps);
+        Log.d(TAG, "startIntervalCapture | " + count + " shots every " + intervalMillis + "ms");
+        intervalScheduler.start();
+    }
 
+    /**
+     * Captures an exposure-bracketed burst with {@code captureBurst} and answers with every frame
+     * once all of them are written.
+     *
+     * <p>Auto exposure is locked for the burst, so the frames differ only by their compensation,
+     * which the camera applies even while locked.
+     *
+     * @param exposureValues the EV offset of every frame, rounded to the compensation step.
+     */
+    public void takeBurst(@NonNull final MethodChannel.Result result, @NonNull List<Double> exposureValues, int quality) throws CameraAccessException {
+        if (captureSession == null || imageReader == null) {
+            result.error("cameraNotReady", "The camera session has not been configured yet.", null);
+            return;
+        }
+        if (quality != 0 && (quality < 1 || quality > 100)) {
+            result.error("invalidQuality", "The quality must be between 1 and 100.", null);
+            return;
+        }
+        BurstCapture burst = createBurst(result, exposureValues);
+
+        List<MethodChannel.Result> frameResults = new ArrayList<>();
+        for (int i = 0; i < burst.getFrameCount(); i++) {
+            frameResults.add(burst.getFrameResult(i));
+        }
+        List<CaptureTracker.PendingCapture> frames = captureTracker.submitBurst(frameResults, CaptureFormat.JPEG, quality);
+        if (frames == null) {
+            result.error("captureInProgress", "A burst or still capture is already running.", null);
+            return;
+        }
+
+        List<CaptureRequest.Builder> requests = new ArrayList<>();
+        for (CaptureTracker.PendingCapture pending : frames) {
+            CaptureRequest.Builder captureRequest = captureSession.getDevice().createRequest(CameraBackend.TEMPLATE_STILL_CAPTURE, output(STREAM_JPEG));
+            if (burst.isManual()) {
+                captureRequest.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_OFF);
+                captureRequest.set(CaptureRequest.SENSOR_EXPOSURE_TIME, burst.getExposureTime(pending.shotIndex));
+                captureRequest.set(CaptureRequest.SENSOR_SENSITIVITY, burst.getSensitivity(pending.shotIndex));
+            } else {
+                captureRequest.set(CaptureRequest.CONTROL_AE_LOCK, true);
+                captureRequest.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, burst.getCompensation(pending.shotIndex));
+            }
+            if (quality != 0) {
+                captureRequest.set(CaptureRequest.JPEG_QUALITY, (byte) quality);
+            }
+            applyPreviewControls(captureRequest);
+            requests.add(captureRequest);
+        }
+
+        try {
+            captureSession.stopRepeating();
+            previewStoppedForCapture = true;
+            long submitNanos = System.nanoTime();
+            int exifOrientation = orientationTracker.getExifOrientation();
+            for (CaptureTracker.PendingCapture pending : frames) {
+                pending.submitNanos = submitNanos;
+                pending.exifOrientation = exifOrientation;
+                pending.traceCookie = CameraTrace.beginAsync(TRACE_CAPTURE);
+            }
+            captureSession.captureBurst(requests, frames, stillCaptureCallback);
+            Log.d(TAG, "takeBurst | submitted " + requests.size() + " frames");
+        } catch (CameraAccessException | IllegalStateException e) {
+            captureTracker.abandonBurst(frames);
+            result.error("CameraAccess", e.getMessage(), null);
+            onCaptureFinished(frames.get(0));
+        }
+    }
+
+    /**
+     * Brackets around the exposure of the latest preview frame with manual exposure when the camera
+     * supports MANUAL_SENSOR, and with exposure compensation otherwise.
+     */
+    private BurstCapture createBurst(MethodChannel.Result result, List<Double> exposureValues) {
+        CameraCharacteristics characteristics = cameraProperties.getCameraCharacteristics();
+        Range<Long> exposureTimeRange = characteristics.get(CameraCharacteristics.SENSOR_INFO_EXPOSURE_TIME_RANGE);
+        Range<Integer> sensitivityRange = characteristics.get(CameraCharacteristics.SENSOR_INFO_SENSITIVITY_RANGE);
+        TotalCaptureResult metered = lastPreviewResult;
+        Long exposureTime = metered == null ? null : metered.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+        Integer sensitivity = metered == null ? null : metered.get(CaptureResult.SENSOR_SENSITIVITY);
+        if (CameraUtils.hasCapability(characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES), CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_MANUAL_SENSOR)
+                && exposureTimeRange != null && sensitivityRange != null
+                && exposureTime != null && exposureTime > 0 && sensitivity != null && sensitivity > 0) {
+            return BurstCapture.createManual(result, exposureValues, exposureTime, sensitivity, exposureTimeRange, sensitivityRange);
+        }
+        Log.d(TAG, "takeBurst | no manual exposure, bracketing with exposure compensation");
+        return BurstCapture.create(result, exposureValues,
+                cameraProperties.getControlAutoExposureCompensationRange(),
+                cameraProperties.getControlAutoExposureCompensationStep());
+    }
+
+    /**
+     * Captures a short YUV burst next to the running preview and writes only its sharpest frame as
+     * a JPEG, at the preview resolution.
+     */
+    public void takeBestShot(@NonNull final MethodChannel.Result result, int frameCount, int quality) throws CameraAccessException {
+        if (!checkYuvBurst(result, quality)) {
+            return;
+        }
+        long submitNanos = System.nanoTime();
+        submitYuvBurst(YuvBurstCapture.bestShot(result, frameCount, quality == 0 ? DEFAULT_YUV_BURST_QUALITY : quality,
+                createFile(CaptureFormat.JPEG.extension), getFrameExecutor(), bufferPool, newYuvBurstCallback(result, submitNanos)));
+    }
+
+    /**
+     * Captures a short YUV burst next to the running preview, aligns and averages its frames to
+     * reduce noise and writes the result as a JPEG, at the preview resolution.
+     */
+    public void takeMergedShot(@NonNull final MethodChannel.Result result, int frameCount, int quality) throws CameraAccessException {
+        if (!checkYuvBurst(result, quality)) {
+            return;
+        }
+        long submitNanos = System.nanoTime();
+        submitYuvBurst(YuvBurstCapture.merge(result, frameCount, quality == 0 ? DEFAULT_YUV_BURST_QUALITY : quality,
+                createFile(CaptureFormat.JPEG.extension), getFrameExecutor(), bufferPool, getFrameMerger(), newYuvBurstCallback(result, submitNanos)));
+    }
+
+    private boolean checkYuvBurst(MethodChannel.Result result, int quality) {
+        if (captureSession == null || yuvImageReader == null) {
+            result.error("yuvBurstNotAvailable", "YUV bursts were not enabled or are not supported by this camera.", null);
+            return false;
+        }
+        if (yuvBurstCapture != null) {
+            result.error("captureInProgress", "A YUV burst capture is already running.", null);
+            return false;
+        }
+        if (quality != 0 && (quality < 1 || quality > 100)) {
+            result.error("invalidQuality", "The quality must be between 1 and 100.", null);
+            return false;
+        }
+        return true;
+    }
+
+    private YuvBurstCapture.Callback newYuvBurstCallback(MethodChannel.Result result, long submitNanos) {
+        int exifOrientation = orientationTracker.getExifOrientation();
+        return new YuvBurstCapture.Callback() {
             @Override
-            public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-                super.onCaptureCompleted(session, request, result);
-                Log.i(TAG, "onCaptureCompleted: ");
-                Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
-                Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-                if (afState == null || aeState == null) {
+            public void onWritten(@NonNull File file, @NonNull Map<String, Object> details) {
+                if (!releaseYuvBurst(result)) {
                     return;
                 }
-                Log.i(TAG, "onCaptureCompleted: " + afState + " , " + aeState);
-                if (afState == CameraMetadata.CONTROL_AF_STATE_FOCUSED_LOCKED || afState == CameraMetadata.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
-                    Log.i("DngSessionCallback", " aeState.intValue()--->" + aeState);
-                    if (aeState == CameraMetadata.CONTROL_AE_STATE_LOCKED || aeState == CameraMetadata.CONTROL_AE_STATE_CONVERGED || aeState == CameraMetadata.CONTROL_AE_STATE_PRECAPTURE || aeState == CameraMetadata.CONTROL_AE_STATE_FLASH_REQUIRED) {
-                        Log.i("DngSessionCallback", " inner aeState.intValue()--->" + aeState);
-                    }
+                try {
+                    writeExifOrientation(file, exifOrientation);
+                } catch (IOException e) {
+                    Log.w(TAG, "onWritten | could not write the orientation", e);
                 }
+                captureStore.onCaptureWritten(file);
+
+                Map<String, Object> reply = new HashMap<>(details);
+                reply.put("path", file.getAbsolutePath());
+                reply.put("format", CaptureFormat.JPEG.name);
+                reply.put("fileSize", file.length());
+                reply.put("totalTimeMs", (System.nanoTime() - submitNanos) / 1000000.0);
+                dartMessenger.finish(result, reply);
             }
 
             @Override
-            public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
-                super.onCaptureFailed(session, request, failure);
-                Log.i(TAG, "onCaptureFailed: ");
+            public void onFailed(@NonNull String errorCode, @NonNull String message) {
+                if (releaseYuvBurst(result)) {
+                    dartMessenger.error(result, errorCode, message, null);
+                }
             }
+        };
+    }
 
-        }, cameraHandler);
+    private void submitYuvBurst(YuvBurstCapture capture) throws CameraAccessException {
+        int[] noiseReductionModes = cameraProperties.getAvailableNoiseReductionModes();
+        // Merged frames are denoised by averaging; the fast mode keeps the detail that alignment needs.
+        boolean fastNoiseReduction = capture.isMerge() && noiseReductionModes != null
+                && IntStream.of(noiseReductionModes).anyMatch(x -> x == CaptureRequest.NOISE_REDUCTION_MODE_FAST);
+        List<CaptureRequest.Builder> requests = new ArrayList<>();
+        for (int i = 0; i < capture.getFrameCount(); i++) {
+            CaptureRequest.Builder captureRequest = captureSession.getDevice().createRequest(CameraBackend.TEMPLATE_STILL_CAPTURE, output(STREAM_YUV));
+            if (capture.isMerge()) {
+                // The frames are averaged, so they must share one exposure.
+                captureRequest.set(CaptureRequest.CONTROL_AE_LOCK, true);
+                if (fastNoiseReduction) {
+                    captureRequest.set(CaptureRequest.NOISE_REDUCTION_MODE, CaptureRequest.NOISE_REDUCTION_MODE_FAST);
+                }
+            }
+            applyPreviewControls(captureRequest);
+            requests.add(captureRequest);
+        }
+        yuvBurstCapture = capture;
+        try {
+            captureSession.captureBurst(requests, Collections.nCopies(requests.size(), null), yuvBurstCaptureCallback);
+        } catch (CameraAccessException | IllegalStateException e) {
+            releaseYuvBurst(capture.result);
+            capture.result.error("CameraAccess", e.getMessage(), null);
+        }
+    }
+
+    /**
+     * Clears the running YUV burst if it answers {@code result}.
+     *
+     * @return false if it was already released, e.g. by {@link #close()}, and must not reply again.
+     */
+    private synchronized boolean releaseYuvBurst(MethodChannel.Result result) {
+        YuvBurstCapture capture = yuvBurstCapture;
+        if (capture == null || capture.result != result) {
+            return false;
+        }
+        yuvBurstCapture = null;
+        return true;
+    }
+
+    private final CameraBackend.CaptureListener<TotalCaptureResult> yuvBurstCaptureCallback = new CameraBackend.CaptureListener<TotalCaptureResult>() {
+        @Override
+        public void onCaptureFailed(@Nullable Object tag, int reason) {
+            YuvBurstCapture capture = yuvBurstCapture;
+            if (capture != null) {
+                capture.onFrameFailed();
+            }
+        }
+    };
+
+    private void onYuvImageAvailable(CameraBackend.ImageOutput output) {
+        Image image = output.acquireNextImage();
+        if (image == null) {
+            return;
+        }
+        YuvBurstCapture capture = yuvBurstCapture;
+        if (capture == null) {
+            image.close();
+            return;
+        }
+        capture.onImage(image);
+    }
+
+    private synchronized ExecutorService getFrameExecutor() {
+        if (frameExecutor == null) {
+            frameExecutor = Executors.newFixedThreadPool(FRAME_THREADS);
+        }
+        return frameExecutor;
+    }
+
+    /**
+     * Gives memory back when the system asks for it. Idle merge buffers return to the pool, and once
+     * memory runs low only one still capture is kept in flight until the camera is created again.
+     *
+     * @param level a {@link ComponentCallbacks2} trim level.
+     */
+    public synchronized void onTrimMemory(int level) {
+        if (frameMerger != null && yuvBurstCapture == null) {
+            frameMerger.release();
+        }
+        boolean low = level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+        if (low && !memoryConstrained) {
+            Log.d(TAG, "onTrimMemory | level " + level + ", lowering the capture queue depth to 1");
+            memoryConstrained = true;
+            captureTracker.setMaxOutstanding(1);
+        }
+    }
+
+    /** Returns whether {@link #onTrimMemory} lowered the capture queue depth and what it is now. */
+    public Map<String, Object> getMemoryState() {
+        Map<String, Object> state = new HashMap<>();
+        state.put("memoryConstrained", memoryConstrained);
+        state.put("maxOutstandingCaptures", captureTracker.getMaxOutstanding());
+        return state;
+    }
+
+    private synchronized FrameMerger getFrameMerger() {
+        if (frameMerger == null) {
+            frameMerger = new FrameMerger(getFrameExecutor(), FRAME_THREADS, bufferPool);
+        }
+        return frameMerger;
+    }
+
+    /**
+     * Writes the most recent preview frame as a JPEG. The frame comes from the small YUV output on
+     * the repeating request, so the preview keeps running and no still request is submitted.
+     */
+    public void takePreviewSnapshot(@NonNull final MethodChannel.Result result, int quality) {
+        if (snapshotImageReader == null) {
+            result.error("previewSnapshotNotAvailable", "Preview snapshots were not enabled or are not supported by this camera.", null);
+            return;
+        }
+        if (quality != 0 && (quality < 1 || quality > 100)) {
+            result.error("invalidQuality", "The quality must be between 1 and 100.", null);
+            return;
+        }
+        Image frame;
+        synchronized (snapshotLock) {
+            frame = latestSnapshotFrame;
+            latestSnapshotFrame = null;
+        }
+        if (frame == null) {
+            result.error("noPreviewFrame", "No preview frame has been delivered yet.", null);
+            return;
+        }
+
+        long submitNanos = System.nanoTime();
+        int exifOrientation = orientationTracker.getExifOrientation();
+        int jpegQuality = quality == 0 ? DEFAULT_SNAPSHOT_QUALITY : quality;
+        try {
+            getWriteExecutor().execute(() -> saveSnapshot(result, frame, jpegQuality, exifOrientation, submitNanos));
+        } catch (RejectedExecutionException e) {
+            frame.close();
+            result.error("cameraClosed", "The camera was closed before the image was saved.", null);
+        }
+    }
+
+    private void saveSnapshot(MethodChannel.Result result, Image frame, int quality, int exifOrientation, long submitNanos) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        byte[] nv21 = bufferPool.acquire(width * height * 3 / 2);
+        try {
+            YuvBurstCapture.toNv21(frame, nv21);
+        } catch (IllegalStateException e) {
+            bufferPool.release(nv21);
+            dartMessenger.error(result, "IOError", e.getMessage(), null);
+            return;
+        } finally {
+            frame.close();
+        }
+
+        File file = createFile(CaptureFormat.JPEG.extension);
+        boolean traced = CameraTrace.begin(TRACE_WRITE_FILE);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            if (!new YuvImage(nv21, ImageFormat.NV21, width, height, null).compressToJpeg(new Rect(0, 0, width, height), quality, output)) {
+                file.delete();
+                dartMessenger.error(result, "IOError", "Could not encode the preview frame.", null);
+                return;
+            }
+        } catch (IOException e) {
+            file.delete();
+            dartMessenger.error(result, "IOError", e.getMessage(), null);
+            return;
+        } finally {
+            CameraTrace.end(traced);
+            bufferPool.release(nv21);
+        }
+        long encodedNanos = System.nanoTime();
+        try {
+            writeExifOrientation(file, exifOrientation);
+        } catch (IOException e) {
+            Log.w(TAG, "saveSnapshot | could not write the orientation", e);
+        }
+        captureStore.onCaptureWritten(file);
+
+        Map<String, Object> reply = new HashMap<>();
+        reply.put("path", file.getAbsolutePath());
+        reply.put("format", CaptureFormat.JPEG.name);
+        reply.put("fileSize", file.length());
+        reply.put("encodeTimeMs", (encodedNanos - submitNanos) / 1000000.0);
+        reply.put("writeTimeMs", (System.nanoTime() - encodedNanos) / 1000000.0);
+        dartMessenger.finish(result, reply);
+    }
+
+    /** Keeps the newest preview frame and hands the previous one back to the reader. */
+    private void onSnapshotImageAvailable(CameraBackend.ImageOutput output) {
+        Image image;
+        try {
+            image = output.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // Every image is in use, e.g. by a snapshot being encoded; the next frame will do.
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        Image previous;
+        synchronized (snapshotLock) {
+            previous = latestSnapshotFrame;
+            latestSnapshotFrame = image;
+        }
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private void closeSnapshotReader() {
+        synchronized (snapshotLock) {
+            if (latestSnapshotFrame != null) {
+                latestSnapshotFrame.close();
+                latestSnapshotFrame = null;
+            }
+        }
+        snapshotImageReader.close();
+        snapshotImageReader = null;
+    }
+
+    /** Stops the running time-lapse; shots already taken are still written. */
+    public void stopIntervalCapture() {
+        IntervalCaptureScheduler scheduler = intervalScheduler;
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    /** Submits the next waiting capture, or restarts the preview once every capture is done. */
+    private void onCaptureFinished(CaptureTracker.PendingCapture pending) {
+        CameraTrace.endAsync(TRACE_CAPTURE, pending.traceCookie);
+        boolean idle = captureTracker.finish(pending);
+        submitPendingCaptures();
+
+        // Captures finish on the image reader thread or the write pool, which has no Looper, so
+        // the preview restarts on the camera thread.
+        Handler handler = cameraHandler;
+        if (idle && previewStoppedForCapture && handler != null) {
+            previewStoppedForCapture = false;
+            handler.post(() -> {
+                if (previewTextureOutput == null || captureSession == null) {
+                    return;
+                }
+                try {
+                    refreshPreviewCaptureSession();
+                } catch (CameraAccessException | IllegalStateException e) {
+                    dartMessenger.sendCameraErrorEvent(e.getMessage());
+                }
+            });
+        }
+    }
+
+    /** Logs the metadata of a still once both its result and its file are known, in either order. */
+    private void logMetadata(CaptureTracker.PendingCapture pending, @Nullable TotalCaptureResult result, @Nullable File file) {
+        synchronized (pending) {
+            if (result != null) {
+                pending.metadataResult = result;
+            }
+            if (file != null) {
+                pending.metadataFile = file;
+            }
+            if (pending.metadataResult == null || pending.metadataFile == null) {
+                return;
+            }
+            result = pending.metadataResult;
+            file = pending.metadataFile;
+        }
+        metadataLog.append(result, file, pending.exifOrientation, cameraProperties.getLensFacing());
     }
 
     private File createFile(String extension) {
-        DateFormat sdf = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS", Locale.US);
-        return new File(activity.getFilesDir(), "IMG_" + sdf.format(new Date()) + "." + extension);
-    }
-
-    private int computeExifOrientation(int rotationDegrees, boolean mirrored) {
-        if (rotationDegrees == 0 && !mirrored) {
-            return ExifInterface.ORIENTATION_NORMAL;
-        } else if (rotationDegrees == 0) {
-            return ExifInterface.ORIENTATION_FLIP_HORIZONTAL;
-        } else if (rotationDegrees == 180 && !mirrored) {
-            return ExifInterface.ORIENTATION_ROTATE_180;
-        } else if (rotationDegrees == 180) {
-            return ExifInterface.ORIENTATION_FLIP_VERTICAL;
-        } else if (rotationDegrees == 270 && mirrored) {
-            return ExifInterface.ORIENTATION_TRANSVERSE;
-        } else if (rotationDegrees == 90 && !mirrored) {
-            return ExifInterface.ORIENTATION_ROTATE_90;
-        } else if (rotationDegrees == 90) {
-            return ExifInterface.ORIENTATION_TRANSPOSE;
-        } else if (rotationDegrees == 270 && mirrored) {
-            return ExifInterface.ORIENTATION_ROTATE_270;
-        } else if (rotationDegrees == 270) {
-            return ExifInterface.ORIENTATION_TRANSVERSE;
-        } else {
-            return ExifInterface.ORIENTATION_UNDEFINED;
+        return captureStore.newFile(extension);
+    }
+
+    private static void writeExifOrientation(File file, int exifOrientation) throws IOException {
+        boolean traced = CameraTrace.begin("NativeCamera.writeExif");
+        try {
+            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+            exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(exifOrientation));
+            exif.saveAttributes();
+        } finally {
+            CameraTrace.end(traced);
         }
     }
+
 //    public void open() throws CameraAccessException {
 //        CameraManager cameraManager = CameraUtils.getCameraManager(activity);
 //        cameraManager.openCamera(
@@ -457,7 +1735,7 @@ public class NativeCamera {
         }
 
         if (imageReaderThread == null && imageReaderHandler == null) {
-            imageReaderThread = new HandlerThread("CameraThread");
+            imageReaderThread = new HandlerThread("ImageReaderThread");
             imageReaderThread.start();
 
             imageReaderHandler = new Handler(imageReaderThread.getLooper());
@@ -479,20 +1757,360 @@ public class NativeCamera {
     }
 
     public Size getPreviewSize() throws CameraAccessException {
-        CameraManager cameraManager = CameraUtils.getCameraManager(activity);
-        CameraCharacteristics cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraProperties.getCameraName());
+        if (previewSize != null) {
+            return previewSize;
+        }
+        previewSize = choosePreviewSize(cameraProperties.getCameraCharacteristics(), getDisplaySize());
+        return previewSize;
+    }
 
+    private static Size choosePreviewSize(CameraCharacteristics cameraCharacteristics, Size displaySize) {
         Size[] sizeArray = cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP).getOutputSizes(ImageFormat.JPEG);
         Size cameraPreviewSize = new Size(1920, 1080);
         if (!Arrays.asList(sizeArray).contains(cameraPreviewSize)) {
-            Display activityDisplay = activity.getWindowManager().getDefaultDisplay();
-            Point point = new Point();
-            activityDisplay.getRealSize(point);
-            cameraPreviewSize = new Size(point.x, point.y);
+            cameraPreviewSize = displaySize;
         }
         return cameraPreviewSize;
     }
 
+    /** Returns the largest size with the aspect ratio of the preview up to {@link #SNAPSHOT_MAX_WIDTH}, or null. */
+    @Nullable
+    private static Size chooseSnapshotSize(@Nullable Size[] yuvSizes, Size previewSize) {
+        if (yuvSizes == null) {
+            return null;
+        }
+        Size best = null;
+        for (Size size : yuvSizes) {
+            boolean sameAspect = (long) size.getWidth() * previewSize.getHeight() == (long) previewSize.getWidth() * size.getHeight();
+            if (sameAspect && size.getWidth() <= Math.min(SNAPSHOT_MAX_WIDTH, previewSize.getWidth())
+                    && (best == null || size.getWidth() > best.getWidth())) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Zooms the preview and later captures to {@code zoom}, clamped to what the camera supports.
+     *
+     * <p>Only the repeating request is updated, the session keeps running. Calls that arrive faster
+     * than frames are collapsed: the request is replaced at most once per preview frame, with the
+     * latest zoom.
+     *
+     * @return the zoom that is applied.
+     */
+    public float setZoom(float zoom) {
+        float clamped = zoomController.clamp(zoom);
+        this.zoom = clamped;
+        Handler handler = cameraHandler;
+        if (handler != null && zoomUpdatePending.compareAndSet(false, true)) {
+            handler.post(this::applyPendingZoom);
+        }
+        return clamped;
+    }
+
+    public Map<String, Object> getZoomRange() {
+        Map<String, Object> range = new HashMap<>();
+        range.put("minZoom", (double) zoomController.getMinZoom());
+        range.put("maxZoom", (double) zoomController.getMaxZoom());
+        range.put("zoom", (double) zoom);
+        return range;
+    }
+
+    /** Runs on the camera thread; waits for the next frame if the request was replaced in this one. */
+    private void applyPendingZoom() {
+        if (previewRequestUpdatedThisFrame) {
+            return;
+        }
+        zoomUpdatePending.set(false);
+        synchronized (previewRequestLock) {
+            // Without a running preview the zoom is applied when the next preview request is built.
+            if (!isPreviewRunning()) {
+                return;
+            }
+            zoomController.apply(previewRequestBuilder, zoom);
+            try {
+                setRepeatingRequest(previewRequestBuilder, previewCaptureCallback);
+                previewRequestUpdatedThisFrame = true;
+            } catch (CameraAccessException | IllegalStateException e) {
+                dartMessenger.sendCameraErrorEvent(e.getMessage());
+            }
+        }
+    }
+
+    /** Gives a still capture the zoom, metering and frame rate range of the preview. */
+    private void applyPreviewControls(CaptureRequest.Builder request) {
+        synchronized (previewRequestLock) {
+            zoomController.apply(request, zoom);
+            applyMetering(request);
+            applyTargetFpsRange(request);
+        }
+    }
+
+    /** Sets the frame rate range negotiated with the configuration, if the camera reported any. */
+    private void applyTargetFpsRange(CaptureRequest.Builder request) {
+        Range<Integer> range = targetFpsRange;
+        if (range != null) {
+            request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+        }
+    }
+
+    // Guarded by previewRequestLock.
+    private boolean isPreviewRunning() {
+        return previewRequestBuilder != null && captureSession != null && !pausedPreview && !previewStoppedForCapture;
+    }
+
+    /**
+     * Focuses on a point of the preview, or returns to continuous auto-focus when {@code x} or
+     * {@code y} is null.
+     *
+     * <p>The repeating request switches to auto mode with the new region and one request triggers
+     * the scan, so the session keeps running. The reply comes once the lens locked, with whether it
+     * found focus and how long that took.
+     *
+     * @param x from 0 at the left edge of the preview as shown to 1 at the right edge.
+     * @param y from 0 at the top edge of the preview as shown to 1 at the bottom edge.
+     */
+    public void setFocusPoint(@NonNull final MethodChannel.Result result, @Nullable Double x, @Nullable Double y) {
+        if (maxFocusRegions < 1) {
+            result.error("focusPointNotSupported", "This camera cannot focus on a point.", null);
+            return;
+        }
+        Handler handler = cameraHandler;
+        if (handler == null) {
+            result.error("cameraClosed", "The camera is closed.", null);
+            return;
+        }
+        handler.post(() -> startFocus(result, x, y));
+    }
+
+    /**
+     * Meters exposure on a point of the preview, or over the whole frame when {@code x} or {@code y}
+     * is null. Auto-exposure follows the region continuously, so no trigger is needed.
+     */
+    public void setExposurePoint(@NonNull final MethodChannel.Result result, @Nullable Double x, @Nullable Double y) {
+        if (maxExposureRegions < 1) {
+            result.error("exposurePointNotSupported", "This camera cannot meter exposure on a point.", null);
+            return;
+        }
+        Handler handler = cameraHandler;
+        if (handler == null) {
+            result.error("cameraClosed", "The camera is closed.", null);
+            return;
+        }
+        handler.post(() -> {
+            synchronized (previewRequestLock) {
+                if (!isPreviewRunning()) {
+                    dartMessenger.error(result, "cameraNotReady", "The preview is not running.", null);
+                    return;
+                }
+                exposureRegions = x == null || y == null ? null : new MeteringRectangle[] {getMeteringTransform().toMeteringRectangle(x, y)};
+                applyMetering(previewRequestBuilder);
+                try {
+                    setRepeatingRequest(previewRequestBuilder, previewCaptureCallback);
+                } catch (CameraAccessException | IllegalStateException e) {
+                    dartMessenger.error(result, "CameraAccess", e.getMessage(), null);
+                    return;
+                }
+            }
+            dartMessenger.finish(result, null);
+        });
+    }
+
+    /** Runs on the camera thread. */
+    private void startFocus(MethodChannel.Result result, @Nullable Double x, @Nullable Double y) {
+        synchronized (previewRequestLock) {
+            if (focusResult != null) {
+                cameraHandler.removeCallbacks(focusTimeout);
+                dartMessenger.error(focusResult, "focusCanceled", "A new focus point was set.", null);
+                focusResult = null;
+            }
+            if (!isPreviewRunning()) {
+                dartMessenger.error(result, "cameraNotReady", "The preview is not running.", null);
+                return;
+            }
+            focusRegions = x == null || y == null ? null : new MeteringRectangle[] {getMeteringTransform().toMeteringRectangle(x, y)};
+            applyMetering(previewRequestBuilder);
+            try {
+                // Cancelling releases a lock from an earlier point before the new region is used.
+                previewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+                captureSession.capture(previewRequestBuilder, null, null);
+                previewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+                setRepeatingRequest(previewRequestBuilder, previewCaptureCallback);
+                if (focusRegions == null) {
+                    dartMessenger.finish(result, null);
+                    return;
+                }
+                previewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
+                captureSession.capture(previewRequestBuilder, null, previewCaptureCallback);
+            } catch (CameraAccessException | IllegalStateException e) {
+                dartMessenger.error(result, "CameraAccess", e.getMessage(), null);
+                return;
+            } finally {
+                previewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            }
+            focusResult = result;
+            focusTriggered = false;
+            focusStartNanos = SystemClock.elapsedRealtimeNanos();
+        }
+        cameraHandler.postDelayed(focusTimeout, FOCUS_TIMEOUT_MILLIS);
+    }
+
+    /** Runs on the camera thread for every preview result while a focus point waits for the lock. */
+    private void checkFocusLock(TotalCaptureResult result) {
+        synchronized (previewRequestLock) {
+            if (focusResult == null) {
+                return;
+            }
+            // Results before the trigger may still report the lock of an earlier point.
+            if (!focusTriggered) {
+                Integer trigger = result.getRequest().get(CaptureRequest.CONTROL_AF_TRIGGER);
+                focusTriggered = trigger != null && trigger == CaptureRequest.CONTROL_AF_TRIGGER_START;
+                if (!focusTriggered) {
+                    return;
+                }
+            }
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            if (afState != null && (afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED
+                    || afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED)) {
+                finishFocus(afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED);
+            }
+        }
+    }
+
+    // Guarded by previewRequestLock.
+    private void finishFocus(boolean focused) {
+        cameraHandler.removeCallbacks(focusTimeout);
+        long timeToLockMillis = (SystemClock.elapsedRealtimeNanos() - focusStartNanos) / 1000000;
+        Log.d(TAG, "setFocusPoint | " + (focused ? "focused" : "not focused") + " after " + timeToLockMillis + "ms");
+        Map<String, Object> reply = new HashMap<>();
+        reply.put("focused", focused);
+        reply.put("timeToLockMs", timeToLockMillis);
+        dartMessenger.finish(focusResult, reply);
+        focusResult = null;
+    }
+
+    private final Runnable focusTimeout = () -> {
+        synchronized (previewRequestLock) {
+            if (focusResult != null) {
+                finishFocus(false);
+            }
+        }
+    };
+
+    // Guarded by previewRequestLock.
+    private void applyMetering(CaptureRequest.Builder request) {
+        if (focusRegions != null) {
+            request.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_AUTO);
+            request.set(CaptureRequest.CONTROL_AF_REGIONS, focusRegions);
+        } else if (request.get(CaptureRequest.CONTROL_AF_REGIONS) != null) {
+            request.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            request.set(CaptureRequest.CONTROL_AF_REGIONS, null);
+        }
+        request.set(CaptureRequest.CONTROL_AE_REGIONS, exposureRegions);
+    }
+
+    /**
+     * Turns the camera's face detector on the preview on or off. Faces are sent as {@code faces}
+     * events, at most one every {@code minIntervalMillis}, and once more without boxes when they
+     * are gone.
+     */
+    public void setFaceDetectionEnabled(@NonNull final MethodChannel.Result result, boolean enabled, int minIntervalMillis) {
+        if (enabled && supportedFaceDetectMode == CaptureRequest.STATISTICS_FACE_DETECT_MODE_OFF) {
+            result.error("faceDetectionNotSupported", "This camera cannot detect faces.", null);
+            return;
+        }
+        if (minIntervalMillis < 0) {
+            result.error("IllegalArgument", "minIntervalMs must not be negative.", null);
+            return;
+        }
+        Handler handler = cameraHandler;
+        if (handler == null) {
+            result.error("cameraClosed", "The camera is closed.", null);
+            return;
+        }
+        handler.post(() -> {
+            faceEventIntervalNanos = minIntervalMillis * 1000000L;
+            lastFaceEventNanos = 0;
+            if (!enabled && !lastFaceEventEmpty) {
+                lastFaceEventEmpty = true;
+                dartMessenger.sendFacesEvent(0, new double[0]);
+            }
+            faceDetectionEnabled = enabled;
+            synchronized (previewRequestLock) {
+                faceDetectMode = enabled ? supportedFaceDetectMode : CaptureRequest.STATISTICS_FACE_DETECT_MODE_OFF;
+                // Otherwise the mode is set when the preview request is built.
+                if (isPreviewRunning()) {
+                    previewRequestBuilder.set(CaptureRequest.STATISTICS_FACE_DETECT_MODE, faceDetectMode);
+                    try {
+                        setRepeatingRequest(previewRequestBuilder, previewCaptureCallback);
+                    } catch (CameraAccessException | IllegalStateException e) {
+                        dartMessenger.error(result, "CameraAccess", e.getMessage(), null);
+                        return;
+                    }
+                }
+            }
+            dartMessenger.finish(result, null);
+        });
+    }
+
+    /**
+     * Runs on the camera thread for every preview result while face detection is on. Frames within
+     * the interval of the last event are skipped before the faces are read.
+     */
+    private void sendFaces(CaptureResult result) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (lastFaceEventNanos != 0 && now - lastFaceEventNanos < faceEventIntervalNanos) {
+            return;
+        }
+        Face[] faces = result.get(CaptureResult.STATISTICS_FACES);
+        if (faces == null || (faces.length == 0 && lastFaceEventEmpty)) {
+            return;
+        }
+        double[] boxes = new double[faces.length * FACE_VALUES];
+        int count = 0;
+        synchronized (previewRequestLock) {
+            MeteringTransform transform = getMeteringTransform();
+            for (Face face : faces) {
+                int offset = count * FACE_VALUES;
+                if (transform.toPreview(face.getBounds(), boxes, offset)) {
+                    boxes[offset + 4] = face.getScore();
+                    count++;
+                }
+            }
+        }
+        if (count < faces.length) {
+            boxes = Arrays.copyOf(boxes, count * FACE_VALUES);
+        }
+        if (count == 0 && lastFaceEventEmpty) {
+            return;
+        }
+        lastFaceEventNanos = now;
+        lastFaceEventEmpty = count == 0;
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        dartMessenger.sendFacesEvent(timestamp == null ? 0 : timestamp, boxes);
+    }
+
+    // Guarded by previewRequestLock.
+    private MeteringTransform getMeteringTransform() {
+        if (meteringTransform == null || meteringTransformZoom != zoom) {
+            meteringTransformZoom = zoom;
+            Size stream = previewSize;
+            meteringTransform = new MeteringTransform(zoomController.getMeteringArea(zoom),
+                    stream == null ? 0 : stream.getWidth(), stream == null ? 0 : stream.getHeight(),
+                    cameraProperties.getSensorOrientation(), displayRotationDegrees, frontFacing);
+        }
+        return meteringTransform;
+    }
+
+    /**
+     * Reports how smoothly the preview runs: frame, dropped, late and failed totals, and over the
+     * last {@link FrameStats#WINDOW} frames the frame rate and interval percentiles.
+     */
+    public Map<String, Object> getPreviewMetrics(boolean reset) {
+        return previewFrameStats.getMetrics(reset);
+    }
+
     /** Pause the preview from dart. */
     public void pausePreview() throws CameraAccessException {
         this.pausedPreview = true;
@@ -505,7 +2123,191 @@ public class NativeCamera {
         //this.refreshPreviewCaptureSession(null);
     }
 
+    /**
+     * Releases the camera device while the activity is in the background.
+     *
+     * <p>The negotiated preview size, image outputs, Flutter texture and background threads are
+     * kept so {@link #restore()} only has to reopen the device and configure the session again.
+     */
+    public void suspend() {
+        if (suspended || (cameraDevice == null && !opening && recoveryStartNanos == 0)) {
+            return;
+        }
+        Log.d(TAG, "suspend");
+
+        suspended = true;
+        orientationTracker.stop();
+        resumeStartNanos = 0;
+        cancelRecovery();
+        closeCaptureSession();
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+        failPendingCaptures("The camera was released before the image was captured.");
+    }
+
+    /** Reopens the camera device released by {@link #suspend()} using the cached configuration. */
+    public void restore() {
+        if (!suspended) {
+            return;
+        }
+        suspended = false;
+        if (opening) {
+            // The open that suspend() interrupted is still running and configures the session itself.
+            Log.d(TAG, "restore | open still in progress");
+            orientationTracker.start();
+            return;
+        }
+        if (previewTextureOutput == null || imageReader == null || cameraHandler == null) {
+            return;
+        }
+        Log.d(TAG, "restore");
+
+        orientationTracker.start();
+        resumeStartNanos = SystemClock.elapsedRealtimeNanos();
+        try {
+            open(cameraProperties.getCameraName());
+        } catch (CameraAccessException e) {
+            resumeStartNanos = 0;
+            dartMessenger.sendCameraErrorEvent(e.getMessage());
+        }
+    }
+
+    private final CameraBackend.CaptureListener<TotalCaptureResult> previewCaptureCallback = new CameraBackend.CaptureListener<TotalCaptureResult>() {
+        @Override
+        public void onCaptureStarted(@Nullable Object tag, long timestamp, long frameNumber) {
+            previewFrameStats.onFrame(frameNumber, timestamp);
+            previewRequestUpdatedThisFrame = false;
+            if (zoomUpdatePending.get()) {
+                applyPendingZoom();
+            }
+        }
+
+        @Override
+        public void onCaptureCompleted(@Nullable Object tag, @NonNull TotalCaptureResult result) {
+            lastPreviewResult = result;
+            checkFocusLock(result);
+            if (faceDetectionEnabled) {
+                sendFaces(result);
+            }
+            if (initializeStartNanos != 0) {
+                long timeToFirstFrameMillis = (SystemClock.elapsedRealtimeNanos() - initializeStartNanos) / 1000000;
+                initializeStartNanos = 0;
+                Log.d(TAG, "initialize | first frame after " + timeToFirstFrameMillis + "ms");
+                dartMessenger.sendCameraFirstFrameEvent(timeToFirstFrameMillis, previewDeferred);
+            }
+            if (recoveryStartNanos != 0) {
+                long recoveryMillis = (SystemClock.elapsedRealtimeNanos() - recoveryStartNanos) / 1000000;
+                Log.d(TAG, "recovery | first frame after " + recoveryAttempt + " attempt(s), " + recoveryMillis + "ms");
+                dartMessenger.sendCameraRecoveredEvent(recoveryAttempt, recoveryMillis);
+                recoveryStartNanos = 0;
+                recoveryAttempt = 0;
+            }
+            if (resumeStartNanos == 0) {
+                return;
+            }
+            long timeToFirstFrameMillis = (SystemClock.elapsedRealtimeNanos() - resumeStartNanos) / 1000000;
+            resumeStartNanos = 0;
+            Log.d(TAG, "restore | first frame after " + timeToFirstFrameMillis + "ms");
+            dartMessenger.sendCameraResumedEvent(timeToFirstFrameMillis);
+        }
+
+        @Override
+        public void onCaptureFailed(@Nullable Object tag, int reason) {
+            previewFrameStats.onFrameFailed();
+        }
+    };
+
+    /** Enables automatic recovery after disconnects and camera errors, or disables it when null. */
+    public void setRecoveryPolicy(@Nullable RecoveryPolicy recoveryPolicy) {
+        this.recoveryPolicy = recoveryPolicy;
+    }
+
+    /**
+     * Releases the failed device and schedules the next attempt to reopen it.
+     *
+     * <p>Unlike {@link #close()} this keeps the background threads, the image outputs and the
+     * Flutter texture so a successful attempt only has to rebuild the capture session.
+     */
+    private void scheduleRecovery(@NonNull CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> camera, String reason) {
+        camera.close();
+        if (cameraDevice == camera) {
+            cameraDevice = null;
+        }
+        closeCaptureSession();
+        // The captures will never complete on the failed device.
+        failPendingCaptures("The camera failed before the image was captured.");
+
+        if (cameraHandler == null || suspended) {
+            return;
+        }
+        if (recoveryStartNanos == 0) {
+            recoveryStartNanos = SystemClock.elapsedRealtimeNanos();
+            recoveryAttempt = 0;
+        }
+        scheduleNextRecoveryAttempt(reason);
+    }
+
+    /**
+     * Counts a session that could not be configured on a reopened device as a failed recovery
+     * attempt.
+     *
+     * @return false if no recovery is in progress.
+     */
+    private boolean retryRecovery(String reason) {
+        CameraBackend.Device<CaptureRequest.Builder, TotalCaptureResult> device = cameraDevice;
+        if (recoveryStartNanos == 0 || device == null || suspended) {
+            return false;
+        }
+        Log.d(TAG, "recovery | attempt " + recoveryAttempt + " failed: " + reason);
+        scheduleRecovery(device, reason);
+        return true;
+    }
+
+    private void scheduleNextRecoveryAttempt(String reason) {
+        RecoveryPolicy policy = recoveryPolicy;
+        if (policy == null || recoveryAttempt >= policy.getMaxAttempts()) {
+            long recoveryMillis = (SystemClock.elapsedRealtimeNanos() - recoveryStartNanos) / 1000000;
+            Log.d(TAG, "recovery | giving up after " + recoveryAttempt + " attempt(s)");
+            dartMessenger.sendCameraRecoveryFailedEvent(recoveryAttempt, recoveryMillis, reason);
+            close();
+            dartMessenger.sendCameraErrorEvent(reason);
+            return;
+        }
+
+        recoveryAttempt++;
+        long delayMillis = policy.getDelayMillis(recoveryAttempt);
+        Log.d(TAG, "recovery | attempt " + recoveryAttempt + " in " + delayMillis + "ms: " + reason);
+        dartMessenger.sendCameraRecoveringEvent(recoveryAttempt, delayMillis, reason);
+        cameraHandler.postDelayed(recoveryRunnable, delayMillis);
+    }
+
+    private final Runnable recoveryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (recoveryStartNanos == 0 || suspended || previewTextureOutput == null || imageReader == null) {
+                return;
+            }
+            try {
+                open(cameraProperties.getCameraName());
+            } catch (CameraAccessException | IllegalArgumentException | SecurityException e) {
+                Log.d(TAG, "recovery | attempt " + recoveryAttempt + " failed: " + e.getMessage());
+                scheduleNextRecoveryAttempt(e.getMessage());
+            }
+        }
+    };
+
+    private void cancelRecovery() {
+        if (cameraHandler != null) {
+            cameraHandler.removeCallbacks(recoveryRunnable);
+        }
+        recoveryStartNanos = 0;
+        recoveryAttempt = 0;
+    }
+
     private void closeCaptureSession() {
+        releasePreviewRequest();
         if (captureSession != null) {
             Log.d(TAG, "closeCaptureSession");
 
@@ -514,22 +2316,104 @@ public class NativeCamera {
         }
     }
 
+    /**
+     * Fails the captures no writer owns yet and forgets that the preview was stopped for them, so
+     * the next session starts it again.
+     */
+    private void failPendingCaptures(String message) {
+        previewStoppedForCapture = false;
+        for (CaptureTracker.PendingCapture pending : captureTracker.clear()) {
+            CameraTrace.endAsync(TRACE_CAPTURE, pending.traceCookie);
+            dartMessenger.error(pending.result, "cameraClosed", message, null);
+        }
+    }
+
+    /** Drops the repeating request of a session that is closing and fails a waiting focus point. */
+    private void releasePreviewRequest() {
+        lastPreviewResult = null;
+        synchronized (previewRequestLock) {
+            previewRequestBuilder = null;
+            if (focusResult != null) {
+                dartMessenger.error(focusResult, "cameraClosed", "The camera was closed before the lens locked.", null);
+                focusResult = null;
+            }
+        }
+    }
+
     public void close() {
         Log.d(TAG, "close");
+        orientationTracker.stop();
+
+        suspended = false;
+        resumeStartNanos = 0;
+        initializeStartNanos = 0;
+        stillOutputsReady = false;
+        deferredPreviewOutput = null;
+        cancelRecovery();
 
         if (cameraDevice != null) {
             cameraDevice.close();
             cameraDevice = null;
 
+            // Closing the device closes its session.
+            releasePreviewRequest();
             captureSession = null;
         } else {
             closeCaptureSession();
         }
 
+        failPendingCaptures("The camera was closed before the image was captured.");
+
+        // Runs on the camera thread before it quits, which also drops the scheduled shots.
+        IntervalCaptureScheduler scheduler = intervalScheduler;
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+        intervalScheduler = null;
+        YuvBurstCapture capture = yuvBurstCapture;
+        if (capture != null && releaseYuvBurst(capture.result)) {
+            capture.cancel();
+            dartMessenger.error(capture.result, "cameraClosed", "The camera was closed before the image was captured.", null);
+        }
+        synchronized (this) {
+            closed = true;
+            if (frameExecutor != null) {
+                frameExecutor.shutdown();
+                frameExecutor = null;
+            }
+            if (frameMerger != null) {
+                frameMerger.release();
+                frameMerger = null;
+            }
+            if (dngExecutor != null) {
+                dngExecutor.shutdown();
+                dngExecutor = null;
+            }
+            if (writeExecutor != null) {
+                writeExecutor.shutdown();
+                writeExecutor = null;
+            }
+        }
+
         if (imageReader != null) {
             imageReader.close();
             imageReader = null;
         }
+        if (heicImageReader != null) {
+            heicImageReader.close();
+            heicImageReader = null;
+        }
+        if (rawImageReader != null) {
+            rawImageReader.close();
+            rawImageReader = null;
+        }
+        if (yuvImageReader != null) {
+            yuvImageReader.close();
+            yuvImageReader = null;
+        }
+        if (snapshotImageReader != null) {
+            closeSnapshotReader();
+        }
         stopBackgroundThread();
     }
 
@@ -1,6 +1,8 @@
 package com.example.native_camera2;
 
 import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -21,6 +23,8 @@ public class NativeCamera2Plugin implements FlutterPlugin, ActivityAware {
   private @Nullable
   FlutterPluginBinding flutterPluginBinding;
   private @Nullable MethodCallHandlerImpl methodCallHandler;
+  private @Nullable Activity activity;
+  private @Nullable Application.ActivityLifecycleCallbacks lifecycleCallbacks;
 
   @Override
   public void onAttachedToEngine(@NonNull FlutterPluginBinding binding) {
@@ -39,6 +43,7 @@ public class NativeCamera2Plugin implements FlutterPlugin, ActivityAware {
 
   @Override
   public void onDetachedFromActivity() {
+    stopObservingLifecycle();
     // Could be on too low of an SDK to have started listening originally.
     if (methodCallHandler != null) {
       methodCallHandler.stopListening();
@@ -58,6 +63,54 @@ public class NativeCamera2Plugin implements FlutterPlugin, ActivityAware {
 
   private void maybeStartListening(Activity activity, BinaryMessenger messenger, TextureRegistry textureRegistry) {
     methodCallHandler = new MethodCallHandlerImpl(activity, messenger, textureRegistry);
+    startObservingLifecycle(activity);
+  }
+
+  /**
+   * Releases the camera when the host activity is paused and restores it when it resumes, so the
+   * device is not held (or taken away by another app) while the app is in the background.
+   */
+  private void startObservingLifecycle(Activity activity) {
+    this.activity = activity;
+    lifecycleCallbacks = new Application.ActivityLifecycleCallbacks() {
+      @Override
+      public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {}
+
+      @Override
+      public void onActivityStarted(@NonNull Activity activity) {}
+
+      @Override
+      public void onActivityResumed(@NonNull Activity activity) {
+        if (activity == NativeCamera2Plugin.this.activity && methodCallHandler != null) {
+          methodCallHandler.onActivityResumed();
+        }
+      }
+
+      @Override
+      public void onActivityPaused(@NonNull Activity activity) {
+        if (activity == NativeCamera2Plugin.this.activity && methodCallHandler != null) {
+          methodCallHandler.onActivityPaused();
+        }
+      }
+
+      @Override
+      public void onActivityStopped(@NonNull Activity activity) {}
+
+      @Override
+      public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {}
+
+      @Override
+      public void onActivityDestroyed(@NonNull Activity activity) {}
+    };
+    activity.getApplication().registerActivityLifecycleCallbacks(lifecycleCallbacks);
+  }
+
+  private void stopObservingLifecycle() {
+    if (activity != null && lifecycleCallbacks != null) {
+      activity.getApplication().unregisterActivityLifecycleCallbacks(lifecycleCallbacks);
+    }
+    activity = null;
+    lifecycleCallbacks = null;
   }
 
 }
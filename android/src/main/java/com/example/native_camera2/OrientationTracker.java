@@ -0,0 +1,131 @@
+package com.example.native_camera2;
+
+import android.app.Activity;
+import android.hardware.camera2.CameraMetadata;
+import android.view.OrientationEventListener;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.exifinterface.media.ExifInterface;
+
+/**
+ * Follows the physical rotation of the device and keeps the orientation of the next still capture
+ * ready, so a capture reads one field instead of querying the camera.
+ *
+ * <p>Sensor orientation and lens facing come from the cached {@link CameraProperties}. The device
+ * rotation is rounded to a multiple of 90 degrees with some hysteresis, so holding the phone near
+ * a diagonal does not flip the result back and forth. Until the first sensor event the display
+ * rotation is used.
+ *
+ * <p>The camera never mirrors still outputs, front camera or not, so every format gets a plain
+ * rotation: the EXIF tag of JPEG files, {@code JPEG_ORIENTATION} for HEIC, the DNG orientation and
+ * the metadata log all agree.
+ */
+final class OrientationTracker {
+
+    /** How far past a diagonal the device has to turn before the rotation changes. */
+    private static final int HYSTERESIS_DEGREES = 10;
+
+    private final int sensorOrientation;
+    private final boolean frontFacing;
+    private final OrientationEventListener listener;
+
+    // Written on the main thread, read by capture threads.
+    private volatile int deviceOrientation;
+    private volatile int rotationDegrees;
+    private volatile int exifOrientation;
+
+    OrientationTracker(@NonNull Activity activity, @NonNull CameraProperties cameraProperties) {
+        this.sensorOrientation = cameraProperties.getSensorOrientation();
+        this.frontFacing = cameraProperties.getLensFacing() == CameraMetadata.LENS_FACING_FRONT;
+        this.listener = new OrientationEventListener(activity) {
+            @Override
+            public void onOrientationChanged(int orientation) {
+                if (orientation != ORIENTATION_UNKNOWN) {
+                    onDeviceOrientation(orientation);
+                }
+            }
+        };
+        update(getDisplayOrientation(activity));
+    }
+
+    /** Starts listening to the orientation sensor, if the device has one. */
+    void start() {
+        if (listener.canDetectOrientation()) {
+            listener.enable();
+        }
+    }
+
+    void stop() {
+        listener.disable();
+    }
+
+    /** Returns the clockwise rotation that makes a still capture upright, in degrees. */
+    int getRotationDegrees() {
+        return rotationDegrees;
+    }
+
+    /** Returns the {@link ExifInterface} orientation tag for a still capture taken now. */
+    int getExifOrientation() {
+        return exifOrientation;
+    }
+
+    private void onDeviceOrientation(int orientation) {
+        int current = deviceOrientation;
+        int distance = Math.abs(orientation - current);
+        distance = Math.min(distance, 360 - distance);
+        if (distance < 45 + HYSTERESIS_DEGREES) {
+            return;
+        }
+        update(((orientation + 45) / 90 * 90) % 360);
+    }
+
+    private void update(int deviceOrientation) {
+        this.deviceOrientation = deviceOrientation;
+        // Front cameras face the user, so the device rotation counts the other way.
+        int rotation = frontFacing
+                ? (sensorOrientation - deviceOrientation + 360) % 360
+                : (sensorOrientation + deviceOrientation) % 360;
+        rotationDegrees = rotation;
+        exifOrientation = computeExifOrientation(rotation);
+    }
+
+    /**
+     * The device orientation that matches the current display rotation; the two turn in opposite
+     * directions.
+     */
+    private static int getDisplayOrientation(Activity activity) {
+        return (360 - getDisplayRotationDegrees(activity)) % 360;
+    }
+
+    /** Returns how far the display content is rotated from the natural orientation, in degrees. */
+    @SuppressWarnings("deprecation")
+    static int getDisplayRotationDegrees(@NonNull Activity activity) {
+        switch (activity.getWindowManager().getDefaultDisplay().getRotation()) {
+            case Surface.ROTATION_90:
+                return 90;
+            case Surface.ROTATION_180:
+                return 180;
+            case Surface.ROTATION_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /** Returns the EXIF orientation tag of an unmirrored image that needs the given rotation. */
+    static int computeExifOrientation(int rotationDegrees) {
+        switch (rotationDegrees) {
+            case 0:
+                return ExifInterface.ORIENTATION_NORMAL;
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+    }
+}
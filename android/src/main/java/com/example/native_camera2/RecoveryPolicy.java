@@ -0,0 +1,106 @@
+package com.example.native_camera2;
+
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Describes how {@link NativeCamera} tries to reopen the camera device after it was disconnected or
+ * the camera service reported an error.
+ *
+ * <p>Attempts are spaced with an exponential backoff, capped at {@link #getMaxDelayMillis()}, and
+ * spread by a random jitter so several devices (or cameras) do not retry in lockstep.
+ */
+final class RecoveryPolicy {
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_INITIAL_DELAY_MILLIS = 250;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+    private static final double DEFAULT_MULTIPLIER = 2.0;
+    private static final double DEFAULT_JITTER = 0.2;
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final Random random = new Random();
+
+    RecoveryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Invalid recovery delay bounds");
+        }
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier must be at least 1");
+        }
+        if (jitter < 0.0 || jitter > 1.0) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Creates a policy from the arguments of a method call, falling back to the defaults for every
+     * value that is missing.
+     *
+     * @param arguments map with the optional keys {@code maxAttempts}, {@code initialDelayMs}, {@code
+     *     maxDelayMs}, {@code multiplier} and {@code jitter}.
+     * @return the policy, or {@code null} when no arguments were supplied (recovery disabled).
+     */
+    @Nullable
+    static RecoveryPolicy fromArguments(@Nullable Map<String, Object> arguments) {
+        if (arguments == null) {
+            return null;
+        }
+        return new RecoveryPolicy(
+                getInt(arguments, "maxAttempts", DEFAULT_MAX_ATTEMPTS),
+                getLong(arguments, "initialDelayMs", DEFAULT_INITIAL_DELAY_MILLIS),
+                getLong(arguments, "maxDelayMs", DEFAULT_MAX_DELAY_MILLIS),
+                getDouble(arguments, "multiplier", DEFAULT_MULTIPLIER),
+                getDouble(arguments, "jitter", DEFAULT_JITTER));
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Returns the delay before the given attempt.
+     *
+     * @param attempt one based attempt number.
+     * @return the backoff delay with jitter applied, in milliseconds.
+     */
+    long getDelayMillis(int attempt) {
+        double delay = initialDelayMillis * Math.pow(multiplier, Math.max(0, attempt - 1));
+        delay = Math.min(delay, maxDelayMillis);
+        double spread = delay * jitter * (random.nextDouble() * 2.0 - 1.0);
+        return Math.max(0, Math.min(maxDelayMillis, Math.round(delay + spread)));
+    }
+
+    private static int getInt(Map<String, Object> arguments, String key, int fallback) {
+        Object value = arguments.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+
+    private static long getLong(Map<String, Object> arguments, String key, long fallback) {
+        Object value = arguments.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : fallback;
+    }
+
+    private static double getDouble(Map<String, Object> arguments, String key, double fallback) {
+        Object value = arguments.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : fallback;
+    }
+}
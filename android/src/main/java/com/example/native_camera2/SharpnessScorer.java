@@ -0,0 +1,75 @@
+package com.example.native_camera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scores how sharp a frame is by the variance of the Laplacian of its luma plane: edges produce
+ * large second derivatives, blur flattens them.
+ *
+ * <p>Plain Java on a {@link ByteBuffer}, so it runs on the JVM with synthetic planes as well as on
+ * {@link android.media.Image} planes. The score is only comparable between frames of the same size
+ * and scene.
+ */
+final class SharpnessScorer {
+
+    private SharpnessScorer() {
+    }
+
+    /**
+     * Returns the variance of the 4-neighbour Laplacian over the interior of the plane.
+     *
+     * @param luma the luma plane; its position and limit are ignored.
+     * @param width width of the plane in pixels.
+     * @param height height of the plane in pixels.
+     * @param rowStride distance between the starts of two rows in bytes.
+     * @param pixelStride distance between two pixels of a row in bytes.
+     * @param step only every {@code step}-th row and column is sampled; 1 samples every pixel.
+     */
+    static double laplacianVariance(ByteBuffer luma, int width, int height, int rowStride, int pixelStride, int step) {
+        if (width < 3 || height < 3) {
+            return 0;
+        }
+        if (step < 1) {
+            throw new IllegalArgumentException("step must be at least 1");
+        }
+        long sum = 0;
+        long squareSum = 0;
+        long samples = 0;
+        for (int y = 1; y < height - 1; y += step) {
+            int row = y * rowStride;
+            int above = row - rowStride;
+            int below = row + rowStride;
+            for (int x = 1; x < width - 1; x += step) {
+                int offset = x * pixelStride;
+                int center = luma.get(row + offset) & 0xff;
+                int laplacian = 4 * center
+                        - (luma.get(above + offset) & 0xff)
+                        - (luma.get(below + offset) & 0xff)
+                        - (luma.get(row + offset - pixelStride) & 0xff)
+                        - (luma.get(row + offset + pixelStride) & 0xff);
+                sum += laplacian;
+                squareSum += (long) laplacian * laplacian;
+                samples++;
+            }
+        }
+        double mean = (double) sum / samples;
+        return (double) squareSum / samples - mean * mean;
+    }
+
+    /**
+     * Returns the index of the highest score. On a tie the earliest frame wins, as it is closest to
+     * the moment the capture was requested.
+     */
+    static int indexOfBest(double[] scores) {
+        if (scores.length == 0) {
+            throw new IllegalArgumentException("no scores");
+        }
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
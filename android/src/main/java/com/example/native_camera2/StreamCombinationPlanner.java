@@ -0,0 +1,326 @@
+package com.example.native_camera2;
+
+import android.hardware.camera2.CameraMetadata;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks the outputs of a capture session against the stream combinations every camera device of a
+ * given hardware level is guaranteed to support, and adjusts them before the session is configured.
+ *
+ * <p>When the requested outputs do not match a guaranteed combination, optional outputs are first
+ * lowered in size and then dropped, and finally the sizes of required outputs other than the
+ * preview are lowered. This avoids paying for configurations that LEGACY and LIMITED devices
+ * reject, at the cost of a lower resolution for outputs that could not have been configured anyway.
+ *
+ * @see android.hardware.camera2.CameraDevice#createCaptureSession
+ */
+final class StreamCombinationPlanner {
+
+    private static final String TAG = StreamCombinationPlanner.class.getSimpleName();
+
+    /** The output types of the guaranteed stream combination tables. */
+    enum StreamType {
+        /** Implementation defined format, used by the preview and video encoder. */
+        PRIV,
+        /** {@link android.graphics.ImageFormat#YUV_420_888}. */
+        YUV,
+        /** {@link android.graphics.ImageFormat#JPEG}, also used for HEIC. */
+        JPEG,
+        /** {@link android.graphics.ImageFormat#RAW_SENSOR}. */
+        RAW
+    }
+
+    /** The size classes of the guaranteed stream combination tables, from smallest to largest. */
+    enum SizeClass {
+        VGA,
+        PREVIEW,
+        RECORD,
+        MAXIMUM
+    }
+
+    /** A single output the session should be configured with. */
+    static final class StreamRequest {
+        @NonNull final String name;
+        @NonNull final StreamType type;
+        final boolean optional;
+        @NonNull final Size[] availableSizes;
+        @NonNull Size size;
+
+        /**
+         * @param name used in logs and to look the stream up in the plan.
+         * @param type the output type.
+         * @param size the size the caller would like to use.
+         * @param availableSizes every size the camera supports for the output format.
+         * @param optional whether the stream may be dropped to reach a guaranteed combination.
+         */
+        StreamRequest(@NonNull String name, @NonNull StreamType type, @NonNull Size size, @Nullable Size[] availableSizes, boolean optional) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.availableSizes = availableSizes == null ? new Size[] {size} : availableSizes;
+            this.optional = optional;
+        }
+    }
+
+    /** The outcome of {@link #plan(List)}. */
+    static final class Plan {
+        final List<StreamRequest> streams;
+        final List<String> changes;
+        final boolean guaranteed;
+
+        Plan(List<StreamRequest> streams, List<String> changes, boolean guaranteed) {
+            this.streams = streams;
+            this.changes = changes;
+            this.guaranteed = guaranteed;
+        }
+
+        /** Returns the planned stream with the given name, or null if it was dropped. */
+        @Nullable
+        StreamRequest get(String name) {
+            for (StreamRequest stream : streams) {
+                if (stream.name.equals(name)) {
+                    return stream;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Slot {
+        final StreamType type;
+        final SizeClass maxSize;
+
+        Slot(StreamType type, SizeClass maxSize) {
+            this.type = type;
+            this.maxSize = maxSize;
+        }
+    }
+
+    private final List<Slot[]> combinations = new ArrayList<>();
+    private final Size previewThreshold;
+    private final Size recordThreshold;
+
+    /**
+     * @param hardwareLevel the value of {@link CameraProperties#getHardwareLevel()}.
+     * @param rawSupported whether the camera lists the RAW capability.
+     * @param displaySize the size of the display, which bounds the PREVIEW size class.
+     */
+    StreamCombinationPlanner(int hardwareLevel, boolean rawSupported, @NonNull Size displaySize) {
+        Size fullHd = new Size(1920, 1080);
+        int longEdge = Math.max(displaySize.getWidth(), displaySize.getHeight());
+        int shortEdge = Math.min(displaySize.getWidth(), displaySize.getHeight());
+        this.previewThreshold = area(longEdge, shortEdge) < area(fullHd) ? new Size(longEdge, shortEdge) : fullHd;
+        this.recordThreshold = fullHd;
+
+        addLegacyCombinations();
+        if (hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED
+                || hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL
+                || hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_3) {
+            addLimitedCombinations();
+        }
+        if (hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL
+                || hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_3) {
+            addFullCombinations();
+        }
+        if (rawSupported) {
+            addRawCombinations();
+        }
+        if (rawSupported && hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_3) {
+            addLevel3Combinations();
+        }
+    }
+
+    /**
+     * Returns the outputs to configure. The requests are adjusted in place; their order is kept and
+     * should go from most to least important.
+     */
+    Plan plan(@NonNull List<StreamRequest> requested) {
+        List<StreamRequest> streams = new ArrayList<>(requested);
+        List<String> changes = new ArrayList<>();
+        if (isGuaranteed(streams)) {
+            return new Plan(streams, changes, true);
+        }
+
+        // Optional streams, least important first: lower the size step by step, then drop them.
+        List<StreamRequest> optional = new ArrayList<>();
+        for (StreamRequest stream : streams) {
+            if (stream.optional) {
+                optional.add(stream);
+            }
+        }
+        Collections.reverse(optional);
+        for (StreamRequest stream : optional) {
+            if (downsizeUntilGuaranteed(stream, streams, changes)) {
+                return log(new Plan(streams, changes, true));
+            }
+            streams.remove(stream);
+            changes.add("dropped " + stream.name);
+            if (isGuaranteed(streams)) {
+                return log(new Plan(streams, changes, true));
+            }
+        }
+
+        // Required streams after the first (the preview): lower their size.
+        for (int i = streams.size() - 1; i > 0; i--) {
+            if (downsizeUntilGuaranteed(streams.get(i), streams, changes)) {
+                return log(new Plan(streams, changes, true));
+            }
+        }
+        return log(new Plan(streams, changes, false));
+    }
+
+    private Plan log(Plan plan) {
+        Log.d(TAG, (plan.guaranteed ? "guaranteed" : "not guaranteed") + " after " + plan.changes);
+        return plan;
+    }
+
+    private boolean downsizeUntilGuaranteed(StreamRequest stream, List<StreamRequest> streams, List<String> changes) {
+        Size original = stream.size;
+        SizeClass sizeClass = classify(stream);
+        while (sizeClass.ordinal() > 0) {
+            sizeClass = SizeClass.values()[sizeClass.ordinal() - 1];
+            Size smaller = largestSizeWithin(stream.availableSizes, sizeClass);
+            if (smaller == null) {
+                continue;
+            }
+            stream.size = smaller;
+            if (isGuaranteed(streams)) {
+                changes.add("resized " + stream.name + " " + original + " -> " + smaller);
+                return true;
+            }
+        }
+        stream.size = original;
+        return false;
+    }
+
+    @Nullable
+    private Size largestSizeWithin(Size[] sizes, SizeClass sizeClass) {
+        Size best = null;
+        for (Size size : sizes) {
+            if (classify(size).ordinal() <= sizeClass.ordinal() && (best == null || area(size) > area(best))) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    boolean isGuaranteed(List<StreamRequest> streams) {
+        for (Slot[] combination : combinations) {
+            if (combination.length == streams.size() && matches(streams, combination, new boolean[combination.length], 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(List<StreamRequest> streams, Slot[] combination, boolean[] used, int index) {
+        if (index == streams.size()) {
+            return true;
+        }
+        StreamRequest stream = streams.get(index);
+        SizeClass sizeClass = classify(stream);
+        for (int i = 0; i < combination.length; i++) {
+            Slot slot = combination[i];
+            if (used[i] || slot.type != stream.type || slot.maxSize.ordinal() < sizeClass.ordinal()) {
+                continue;
+            }
+            used[i] = true;
+            if (matches(streams, combination, used, index + 1)) {
+                return true;
+            }
+            used[i] = false;
+        }
+        return false;
+    }
+
+    private SizeClass classify(StreamRequest stream) {
+        return classify(stream.size);
+    }
+
+    /**
+     * Returns the smallest size class the size fits in. The MAXIMUM class covers every size, so
+     * classifying by the thresholds alone never accepts a combination that is not guaranteed.
+     */
+    private SizeClass classify(Size size) {
+        long area = area(size);
+        if (area <= area(640, 480)) {
+            return SizeClass.VGA;
+        }
+        if (area <= area(previewThreshold)) {
+            return SizeClass.PREVIEW;
+        }
+        if (area <= area(recordThreshold)) {
+            return SizeClass.RECORD;
+        }
+        return SizeClass.MAXIMUM;
+    }
+
+    private static long area(Size size) {
+        return area(size.getWidth(), size.getHeight());
+    }
+
+    private static long area(int width, int height) {
+        return (long) width * height;
+    }
+
+    private void add(Object... slots) {
+        Slot[] combination = new Slot[slots.length / 2];
+        for (int i = 0; i < combination.length; i++) {
+            combination[i] = new Slot((StreamType) slots[i * 2], (SizeClass) slots[i * 2 + 1]);
+        }
+        combinations.add(combination);
+    }
+
+    private void addLegacyCombinations() {
+        add(StreamType.PRIV, SizeClass.MAXIMUM);
+        add(StreamType.JPEG, SizeClass.MAXIMUM);
+        add(StreamType.YUV, SizeClass.MAXIMUM);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.JPEG, SizeClass.MAXIMUM);
+        add(StreamType.YUV, SizeClass.PREVIEW, StreamType.JPEG, SizeClass.MAXIMUM);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.PRIV, SizeClass.PREVIEW);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.PREVIEW);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.PREVIEW, StreamType.JPEG, SizeClass.MAXIMUM);
+    }
+
+    private void addLimitedCombinations() {
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.PRIV, SizeClass.RECORD);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.RECORD);
+        add(StreamType.YUV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.RECORD);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.PRIV, SizeClass.RECORD, StreamType.JPEG, SizeClass.RECORD);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.RECORD, StreamType.JPEG, SizeClass.RECORD);
+        add(StreamType.YUV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.PREVIEW, StreamType.JPEG, SizeClass.MAXIMUM);
+    }
+
+    private void addFullCombinations() {
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.PRIV, SizeClass.MAXIMUM);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.MAXIMUM);
+        add(StreamType.YUV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.MAXIMUM);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.PRIV, SizeClass.PREVIEW, StreamType.JPEG, SizeClass.MAXIMUM);
+        add(StreamType.YUV, SizeClass.VGA, StreamType.PRIV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.MAXIMUM);
+        add(StreamType.YUV, SizeClass.VGA, StreamType.YUV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.MAXIMUM);
+    }
+
+    private void addRawCombinations() {
+        add(StreamType.RAW, SizeClass.MAXIMUM);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.RAW, SizeClass.MAXIMUM);
+        add(StreamType.YUV, SizeClass.PREVIEW, StreamType.RAW, SizeClass.MAXIMUM);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.PRIV, SizeClass.PREVIEW, StreamType.RAW, SizeClass.MAXIMUM);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.PREVIEW, StreamType.RAW, SizeClass.MAXIMUM);
+        add(StreamType.YUV, SizeClass.PREVIEW, StreamType.YUV, SizeClass.PREVIEW, StreamType.RAW, SizeClass.MAXIMUM);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.JPEG, SizeClass.MAXIMUM, StreamType.RAW, SizeClass.MAXIMUM);
+        add(StreamType.YUV, SizeClass.PREVIEW, StreamType.JPEG, SizeClass.MAXIMUM, StreamType.RAW, SizeClass.MAXIMUM);
+    }
+
+    private void addLevel3Combinations() {
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.PRIV, SizeClass.VGA, StreamType.YUV, SizeClass.MAXIMUM, StreamType.RAW, SizeClass.MAXIMUM);
+        add(StreamType.PRIV, SizeClass.PREVIEW, StreamType.PRIV, SizeClass.VGA, StreamType.JPEG, SizeClass.MAXIMUM, StreamType.RAW, SizeClass.MAXIMUM);
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.native_camera2;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * A short YUV burst that is written as one JPEG, either its sharpest frame or all frames merged.
+ *
+ * <p>Frames are collected as the reader delivers them. Once every frame arrived or failed, each is
+ * scored with {@link SharpnessScorer} on its own pool thread. For a best shot the other frames are
+ * closed as soon as the best one is known, which hands their buffers back to the reader, and only
+ * the best frame is encoded. For a merge the sharpest frame is the reference that the others are
+ * aligned to by {@link FrameMerger}; every frame is closed once it was copied into the merger.
+ */
+final class YuvBurstCapture {
+
+    private static final String TAG = YuvBurstCapture.class.getSimpleName();
+
+    /** Upper bound for the number of frames, which the YUV reader must be able to hold at once. */
+    static final int MAX_FRAMES = 5;
+    /** Every second row and column is enough to rank frames and quarters the work. */
+    private static final int SCORE_STEP = 2;
+
+    private enum Mode {
+        BEST_SHOT,
+        MERGE
+    }
+
+    /**
+     * Receives the outcome on a pool thread. The pool needs at least two threads, since the thread
+     * processing the frames waits for the others.
+     */
+    interface Callback {
+        /** {@code details} describes how the image was made and is added to the reply. */
+        void onWritten(@NonNull File file, @NonNull Map<String, Object> details);
+
+        void onFailed(@NonNull String errorCode, @NonNull String message);
+    }
+
+    final MethodChannel.Result result;
+    private final Mode mode;
+    private final int frameCount;
+    private final int quality;
+    private final File file;
+    private final ExecutorService executor;
+    private final BufferPool bufferPool;
+    @Nullable
+    private final FrameMerger merger;
+    private final Callback callback;
+
+    // Guarded by this.
+    private final List<Image> images = new ArrayList<>();
+    private int failedFrames = 0;
+    private boolean done = false;
+
+    private YuvBurstCapture(@NonNull MethodChannel.Result result, Mode mode, int frameCount, int quality, @NonNull File file,
+                            @NonNull ExecutorService executor, @NonNull BufferPool bufferPool, @Nullable FrameMerger merger, @NonNull Callback callback) {
+        if (frameCount < 1 || frameCount > MAX_FRAMES) {
+            throw new IllegalArgumentException("A YUV burst needs between 1 and " + MAX_FRAMES + " frames.");
+        }
+        this.result = result;
+        this.mode = mode;
+        this.frameCount = frameCount;
+        this.quality = quality;
+        this.file = file;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.merger = merger;
+        this.callback = callback;
+    }
+
+    /** A burst of which only the sharpest frame is written. */
+    static YuvBurstCapture bestShot(@NonNull MethodChannel.Result result, int frameCount, int quality, @NonNull File file,
+                                    @NonNull ExecutorService executor, @NonNull BufferPool bufferPool, @NonNull Callback callback) {
+        return new YuvBurstCapture(result, Mode.BEST_SHOT, frameCount, quality, file, executor, bufferPool, null, callback);
+    }
+
+    /** A burst whose frames are aligned and averaged into one with less noise. */
+    static YuvBurstCapture merge(@NonNull MethodChannel.Result result, int frameCount, int quality, @NonNull File file,
+                                 @NonNull ExecutorService executor, @NonNull BufferPool bufferPool, @NonNull FrameMerger merger, @NonNull Callback callback) {
+        return new YuvBurstCapture(result, Mode.MERGE, frameCount, quality, file, executor, bufferPool, merger, callback);
+    }
+
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    boolean isMerge() {
+        return mode == Mode.MERGE;
+    }
+
+    void onImage(@NonNull Image image) {
+        synchronized (this) {
+            if (done || images.size() + failedFrames >= frameCount) {
+                image.close();
+                return;
+            }
+            images.add(image);
+        }
+        completeIfReady();
+    }
+
+    void onFrameFailed() {
+        synchronized (this) {
+            failedFrames++;
+        }
+        completeIfReady();
+    }
+
+    /** Closes every frame; the capture then never completes. */
+    synchronized void cancel() {
+        done = true;
+        closeAll(images);
+        images.clear();
+    }
+
+    private void completeIfReady() {
+        List<Image> frames;
+        synchronized (this) {
+            if (done || images.size() + failedFrames < frameCount) {
+                return;
+            }
+            done = true;
+            frames = new ArrayList<>(images);
+            images.clear();
+        }
+        if (frames.isEmpty()) {
+            callback.onFailed("captureFailed", "The camera failed to capture every frame.");
+            return;
+        }
+        try {
+            executor.execute(() -> process(frames));
+        } catch (RejectedExecutionException e) {
+            closeAll(frames);
+            callback.onFailed("cameraClosed", "The camera was closed before the image was saved.");
+        }
+    }
+
+    private void process(List<Image> frames) {
+        double[] scores = new double[frames.size()];
+        try {
+            // The last frame is scored on this thread, which would otherwise only wait.
+            int last = frames.size() - 1;
+            List<Future<Double>> futures = new ArrayList<>(last);
+            for (int i = 0; i < last; i++) {
+                Image frame = frames.get(i);
+                futures.add(executor.submit(() -> score(frame)));
+            }
+            scores[last] = score(frames.get(last));
+            for (int i = 0; i < last; i++) {
+                scores[i] = futures.get(i).get();
+            }
+        } catch (Exception e) {
+            closeAll(frames);
+            callback.onFailed("scoringFailed", String.valueOf(e.getMessage()));
+            return;
+        }
+
+        int best = SharpnessScorer.indexOfBest(scores);
+        List<Double> scoreList = new ArrayList<>(scores.length);
+        for (double score : scores) {
+            scoreList.add(score);
+        }
+        Map<String, Object> details = new HashMap<>();
+        details.put("scores", scoreList);
+
+        int width = frames.get(0).getWidth();
+        int height = frames.get(0).getHeight();
+        byte[] nv21;
+        // Owned by the pool for a best shot; the merger keeps its output for the next merge.
+        byte[] pooled = null;
+        if (mode == Mode.BEST_SHOT) {
+            Image bestFrame = frames.get(best);
+            for (Image frame : frames) {
+                if (frame != bestFrame) {
+                    frame.close();
+                }
+            }
+            Log.d(TAG, "process | frame " + best + " of " + frames.size() + " is the sharpest");
+            pooled = bufferPool.acquire(width * height * 3 / 2);
+            try {
+                nv21 = toNv21(bestFrame, pooled);
+            } catch (IllegalStateException e) {
+                bufferPool.release(pooled);
+                callback.onFailed("IOError", String.valueOf(e.getMessage()));
+                return;
+            } finally {
+                bestFrame.close();
+            }
+            details.put("bestIndex", best);
+        } else {
+            long mergeStartNanos = System.nanoTime();
+            try {
+                merger.prepare(width, height, frames.size());
+                for (int i = 0; i < frames.size(); i++) {
+                    toNv21(frames.get(i), merger.getFrame(i));
+                    frames.get(i).close();
+                }
+                nv21 = merger.merge(frames.size(), best);
+            } catch (Exception e) {
+                closeAll(frames);
+                callback.onFailed("mergeFailed", String.valueOf(e.getMessage()));
+                return;
+            }
+            double mergeTimeMs = (System.nanoTime() - mergeStartNanos) / 1000000.0;
+            Log.d(TAG, "process | merged " + frames.size() + " frames onto frame " + best + " in " + mergeTimeMs + "ms");
+            details.put("referenceIndex", best);
+            details.put("mergedFrames", frames.size());
+            details.put("mergedTileRatio", merger.getMergedTileRatio());
+            details.put("mergeTimeMs", mergeTimeMs);
+        }
+
+        boolean traced = CameraTrace.begin("YuvBurstCapture.writeFile");
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+            if (!yuvImage.compressToJpeg(new Rect(0, 0, width, height), quality, output)) {
+                file.delete();
+                callback.onFailed("IOError", "Could not encode the frame.");
+                return;
+            }
+        } catch (IOException e) {
+            file.delete();
+            callback.onFailed("IOError", String.valueOf(e.getMessage()));
+            return;
+        } finally {
+            CameraTrace.end(traced);
+            if (pooled != null) {
+                bufferPool.release(pooled);
+            }
+        }
+        callback.onWritten(file, details);
+    }
+
+    private static double score(Image frame) {
+        Image.Plane luma = frame.getPlanes()[0];
+        return SharpnessScorer.laplacianVariance(luma.getBuffer(), frame.getWidth(), frame.getHeight(),
+                luma.getRowStride(), luma.getPixelStride(), SCORE_STEP);
+    }
+
+    /**
+     * Packs a {@link ImageFormat#YUV_420_888} image into NV21, whatever its strides.
+     *
+     * @param target reused if it is large enough, otherwise a new array is returned.
+     */
+    static byte[] toNv21(Image image, @Nullable byte[] target) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int size = width * height * 3 / 2;
+        byte[] nv21 = target != null && target.length >= size ? target : new byte[size];
+        Image.Plane[] planes = image.getPlanes();
+
+        ByteBuffer y = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int yPixelStride = planes[0].getPixelStride();
+        int offset = 0;
+        for (int row = 0; row < height; row++) {
+            if (yPixelStride == 1) {
+                y.position(row * yRowStride);
+                y.get(nv21, offset, width);
+                offset += width;
+            } else {
+                for (int column = 0; column < width; column++) {
+                    nv21[offset++] = y.get(row * yRowStride + column * yPixelStride);
+                }
+            }
+        }
+
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int chromaRowStride = planes[1].getRowStride();
+        int chromaPixelStride = planes[1].getPixelStride();
+        for (int row = 0; row < height / 2; row++) {
+            for (int column = 0; column < width / 2; column++) {
+                int index = row * chromaRowStride + column * chromaPixelStride;
+                nv21[offset++] = v.get(index);
+                nv21[offset++] = u.get(index);
+            }
+        }
+        return nv21;
+    }
+
+    private static void closeAll(List<Image> frames) {
+        for (Image frame : frames) {
+            frame.close();
+        }
+    }
+}
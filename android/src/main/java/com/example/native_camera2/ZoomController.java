@@ -0,0 +1,97 @@
+package com.example.native_camera2;
+
+import android.graphics.Rect;
+import android.hardware.camera2.CaptureRequest;
+import android.util.Range;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Digital zoom for one camera, worked out from sensor geometry read once when the camera is
+ * created.
+ *
+ * <p>From API 30 a camera that reports a zoom ratio range is zoomed with {@link
+ * CaptureRequest#CONTROL_ZOOM_RATIO}, which lets a logical camera switch lenses and may go below
+ * 1. Otherwise {@link CaptureRequest#SCALER_CROP_REGION} is set to a centered crop of the active
+ * array. Not thread-safe; callers apply zoom under their own lock.
+ */
+final class ZoomController {
+
+    private final Rect activeArray;
+    private final float minZoom;
+    private final float maxZoom;
+    private final boolean useZoomRatio;
+
+    // The crop region for lastZoom, so repeated requests at the same zoom share one Rect.
+    private float lastZoom = Float.NaN;
+    private Rect lastCropRegion;
+
+    ZoomController(@NonNull CameraProperties cameraProperties) {
+        Rect activeArray = cameraProperties.getSensorInfoActiveArraySize();
+        this.activeArray = activeArray != null ? activeArray : new Rect();
+        Range<Float> zoomRatioRange = android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.R
+                ? cameraProperties.getControlZoomRatioRange()
+                : null;
+        if (zoomRatioRange != null) {
+            minZoom = zoomRatioRange.getLower();
+            maxZoom = zoomRatioRange.getUpper();
+            useZoomRatio = true;
+        } else {
+            Float maxDigitalZoom = cameraProperties.getScalerAvailableMaxDigitalZoom();
+            minZoom = 1f;
+            maxZoom = maxDigitalZoom != null && !this.activeArray.isEmpty() ? Math.max(1f, maxDigitalZoom) : 1f;
+            useZoomRatio = false;
+        }
+    }
+
+    float getMinZoom() {
+        return minZoom;
+    }
+
+    float getMaxZoom() {
+        return maxZoom;
+    }
+
+    /** Returns the closest zoom the camera supports; NaN becomes the minimum. */
+    float clamp(float zoom) {
+        if (Float.isNaN(zoom)) {
+            return minZoom;
+        }
+        return Math.max(minZoom, Math.min(maxZoom, zoom));
+    }
+
+    /** Sets the zoom on a request, which also makes it the zoom of the images it produces. */
+    void apply(@NonNull CaptureRequest.Builder request, float zoom) {
+        if (useZoomRatio) {
+            request.set(CaptureRequest.CONTROL_ZOOM_RATIO, zoom);
+        } else if (maxZoom > 1f) {
+            request.set(CaptureRequest.SCALER_CROP_REGION, getCropRegion(zoom));
+        }
+    }
+
+    /**
+     * The part of the sensor that the preview shows at {@code zoom}, in the coordinates of metering
+     * regions. With a zoom ratio those coordinates already describe the zoomed field of view.
+     */
+    @NonNull
+    Rect getMeteringArea(float zoom) {
+        if (useZoomRatio || maxZoom <= 1f) {
+            return new Rect(0, 0, activeArray.width(), activeArray.height());
+        }
+        return getCropRegion(zoom);
+    }
+
+    /** The centered part of the active array that is visible at {@code zoom}, in its coordinates. */
+    @NonNull
+    Rect getCropRegion(float zoom) {
+        if (zoom != lastZoom) {
+            int width = Math.round(activeArray.width() / zoom);
+            int height = Math.round(activeArray.height() / zoom);
+            int left = (activeArray.width() - width) / 2;
+            int top = (activeArray.height() - height) / 2;
+            lastCropRegion = new Rect(left, top, left + width, top + height);
+            lastZoom = zoom;
+        }
+        return lastCropRegion;
+    }
+}
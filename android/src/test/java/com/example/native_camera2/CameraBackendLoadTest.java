@@ -0,0 +1,128 @@
+package com.example.native_camera2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Runs thousands of create / initialize / takePicture / dispose cycles of {@link NativeCamera} on
+ * {@link FakeCameraBackend} and reports throughput, per-phase latency percentiles and thread
+ * counts. Fails if a cycle leaves a device, a session, an image, a texture, a file or a thread
+ * behind, or answers a call twice.
+ *
+ * <p>The number of cycles can be raised with {@code -Dcamera.load.cycles=<n>}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30)
+public class CameraBackendLoadTest {
+
+    private static final int CYCLES = Integer.getInteger("camera.load.cycles", 2000);
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeCameraBackend backend;
+    private NativeCameraHarness harness;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new FakeCameraBackend(42, "0", "1").setFrameIntervalMillis(1);
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        harness = new NativeCameraHarness(activity, backend, folder.newFolder());
+    }
+
+    @After
+    public void tearDown() {
+        harness.close();
+        backend.shutdown();
+    }
+
+    @Test
+    public void cyclesLeaveNothingBehind() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // One warm-up cycle starts the backend thread, loads the classes and caches the configuration.
+        runCycle("0");
+        int baselineThreads = TestThreads.settledThreadCount(threads, Integer.MAX_VALUE);
+
+        long[][] latencies = new long[4][CYCLES];
+        int peakThreads = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < CYCLES; i++) {
+            long[] cycle = runCycle(i % 2 == 0 ? "0" : "1");
+            for (int phase = 0; phase < cycle.length; phase++) {
+                latencies[phase][i] = cycle[phase];
+            }
+            peakThreads = Math.max(peakThreads, threads.getThreadCount());
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        int finalThreads = TestThreads.settledThreadCount(threads, baselineThreads);
+
+        System.out.printf("%d cycles in %d ms, %.1f cycles/s%n", CYCLES, elapsedNanos / 1000000, CYCLES * 1e9 / elapsedNanos);
+        String[] phases = {"create", "initialize", "takePicture", "dispose"};
+        for (int phase = 0; phase < phases.length; phase++) {
+            long[] sorted = latencies[phase].clone();
+            Arrays.sort(sorted);
+            System.out.printf("%-12s p50 %7.3f ms  p90 %7.3f ms  p99 %7.3f ms  max %7.3f ms%n", phases[phase],
+                    percentile(sorted, 50) / 1e6, percentile(sorted, 90) / 1e6, percentile(sorted, 99) / 1e6, sorted[sorted.length - 1] / 1e6);
+        }
+        System.out.printf("threads: baseline %d, peak %d, final %d%n", baselineThreads, peakThreads, finalThreads);
+        System.out.printf("leaks: devices %d, sessions %d, images %d of %d delivered, textures %d%n", backend.getOpenDeviceCount(),
+                backend.getOpenSessionCount(), backend.getOutstandingImageCount(), backend.getDeliveredImageCount(), harness.getOpenTextureCount());
+
+        assertEquals("open devices", 0, backend.getOpenDeviceCount());
+        assertEquals("open sessions", 0, backend.getOpenSessionCount());
+        assertEquals("outstanding images", 0, backend.getOutstandingImageCount());
+        assertEquals("open textures", 0, harness.getOpenTextureCount());
+        assertEquals("files left behind", 0, harness.listCaptures().size());
+        assertEquals("calls answered twice", 0, harness.getDuplicateReplyCount());
+        assertTrue("threads grew from " + baselineThreads + " to " + finalThreads, finalThreads <= baselineThreads);
+    }
+
+    /** Returns the nanoseconds spent in each phase. */
+    private long[] runCycle(String cameraId) throws Exception {
+        long[] phases = new long[4];
+        long t0 = System.nanoTime();
+        NativeCameraHarness.Client client = harness.create(cameraId);
+        long t1 = System.nanoTime();
+        client.initialize().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long t2 = System.nanoTime();
+        Map<String, Object> reply = client.takePicture(CaptureFormat.JPEG).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long t3 = System.nanoTime();
+        client.dispose();
+        backend.awaitIdle();
+        long t4 = System.nanoTime();
+        File file = new File((String) reply.get("path"));
+        assertTrue("empty capture " + file, file.length() > 0);
+        assertTrue(file.delete());
+        phases[0] = t1 - t0;
+        phases[1] = t2 - t1;
+        phases[2] = t3 - t2;
+        phases[3] = t4 - t3;
+        return phases;
+    }
+
+    /** Nearest-rank percentile of sorted values. */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
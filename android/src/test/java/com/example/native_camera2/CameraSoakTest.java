@@ -0,0 +1,144 @@
+package com.example.native_camera2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+/**
+ * Repeats create / initialize / takePicture / dispose of {@link NativeCamera} on {@link
+ * FakeCameraBackend} with injected open, configure, capture and image failures, and checks after
+ * every round that threads, open file descriptors, outstanding images, textures and the heap after
+ * a GC stay flat, that no capture file stays behind and that every call is answered once.
+ *
+ * <p>Every fourth cycle takes a DNG. Robolectric has no native DNG encoder, so those captures take
+ * the failure path of the DNG writer, which must still close the image and delete the file.
+ *
+ * <p>{@code -Dcamera.soak.rounds=<n>} and {@code -Dcamera.soak.cycles=<n>} lengthen the run.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30)
+public class CameraSoakTest {
+
+    private static final int ROUNDS = Integer.getInteger("camera.soak.rounds", 10);
+    private static final int CYCLES_PER_ROUND = Integer.getInteger("camera.soak.cycles", 200);
+    private static final long TIMEOUT_SECONDS = 10;
+    /** Heap growth after a GC that is still noise rather than a leak. */
+    private static final long HEAP_TOLERANCE_BYTES = 8L << 20;
+    /** Descriptors the JVM may open on its own, e.g. for lazily loaded jars. */
+    private static final int FD_TOLERANCE = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeCameraBackend backend;
+    private NativeCameraHarness harness;
+    private int written = 0;
+    private int failures = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new FakeCameraBackend(7, "0", "1")
+                .setFrameIntervalMillis(1)
+                .setFailureRates(0.02, 0.02, 0.05)
+                .setImageFailureRate(0.05);
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        harness = new NativeCameraHarness(activity, backend, folder.newFolder());
+    }
+
+    @After
+    public void tearDown() {
+        harness.close();
+        backend.shutdown();
+    }
+
+    @Test
+    public void repeatedCyclesStayFlat() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // The first round loads classes and starts the backend thread.
+        runRound();
+        int baselineThreads = TestThreads.settledThreadCount(threads, Integer.MAX_VALUE);
+        int baselineFds = openFileDescriptors();
+        long baselineHeap = usedHeapAfterGc();
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            runRound();
+            int threadCount = TestThreads.settledThreadCount(threads, baselineThreads);
+            int fds = openFileDescriptors();
+            long heap = usedHeapAfterGc();
+            System.out.printf("round %d: threads %d, fds %d, heap %d KiB, images delivered %d, written %d, failures %d%n",
+                    round, threadCount, fds, heap / 1024, backend.getDeliveredImageCount(), written, failures);
+
+            assertEquals("open devices after round " + round, 0, backend.getOpenDeviceCount());
+            assertEquals("open sessions after round " + round, 0, backend.getOpenSessionCount());
+            assertEquals("outstanding images after round " + round, 0, backend.getOutstandingImageCount());
+            assertEquals("open textures after round " + round, 0, harness.getOpenTextureCount());
+            assertEquals("calls answered twice after round " + round, 0, harness.getDuplicateReplyCount());
+            assertTrue("threads grew from " + baselineThreads + " to " + threadCount, threadCount <= baselineThreads);
+            assertTrue("fds grew from " + baselineFds + " to " + fds, fds <= baselineFds + FD_TOLERANCE);
+            assertTrue("heap grew from " + baselineHeap + " to " + heap, heap <= baselineHeap + HEAP_TOLERANCE_BYTES);
+        }
+        assertEquals("files left behind", 0, harness.listCaptures().size());
+        // Both the success and the injected failure paths must actually have been exercised.
+        assertTrue("nothing was written", written > 0);
+        assertTrue("no failures were injected", failures > 0);
+    }
+
+    private void runRound() throws Exception {
+        for (int i = 0; i < CYCLES_PER_ROUND; i++) {
+            NativeCameraHarness.Client client = harness.create(i % 2 == 0 ? "0" : "1");
+            client.camera.setRawEnabled(true);
+            try {
+                client.initialize().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                CaptureFormat format = i % 4 == 3 ? CaptureFormat.DNG : CaptureFormat.JPEG;
+                Map<String, Object> reply = client.takePicture(format).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                assertTrue(new File((String) reply.get("path")).delete());
+                written++;
+            } catch (ExecutionException e) {
+                failures++;
+            } finally {
+                client.dispose();
+                backend.awaitIdle();
+            }
+        }
+    }
+
+    /** Open descriptors of this process, or 0 where /proc is not available. */
+    private static int openFileDescriptors() {
+        String[] fds = new File("/proc/self/fd").list();
+        return fds == null ? 0 : fds.length;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        // Robolectric keeps every log line in memory.
+        ShadowLog.clear();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // One GC may leave garbage of finalizers and reference queues for the next.
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
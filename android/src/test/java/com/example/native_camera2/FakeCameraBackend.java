@@ -0,0 +1,688 @@
+package com.example.native_camera2;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+import android.os.Handler;
+import android.util.Size;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowCaptureResult;
+import org.robolectric.shadows.ShadowTotalCaptureResult;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+/**
+ * {@link CameraBackend} that simulates camera devices for {@link NativeCamera} under Robolectric.
+ *
+ * <p>Opening, configuring and capturing complete after configurable delays and fail with a
+ * configurable probability, driven by a seeded {@link Random} so runs are reproducible. Repeating
+ * requests tick at a fixed frame interval. Every request delivers an image to each of its targets
+ * that is an image output, like an ImageReader with room for {@code maxImages}: a real JPEG for
+ * JPEG and HEIC outputs, so EXIF can be written to it, and gradient planes for RAW and YUV.
+ *
+ * <p>Requests are real {@link CaptureRequest.Builder}s and results real {@link TotalCaptureResult}s
+ * carrying the sensor timestamp; images are Mockito mocks that, like camera2, throw {@link
+ * IllegalStateException} once they are closed. Open devices, open sessions and images that were
+ * delivered but not closed are counted, so a load or soak run can assert that a create / initialize
+ * / takePicture / dispose cycle leaves nothing behind.
+ *
+ * <p>The simulation runs on one scheduler thread; callbacks are posted to the handlers the device
+ * was opened and the outputs were created with, and dropped like camera2 drops them once the
+ * handler's thread quit.
+ */
+final class FakeCameraBackend implements CameraBackend<CaptureRequest.Builder, TotalCaptureResult> {
+
+    /** Failure reason reported for failed captures, the value of camera2. */
+    static final int REASON_ERROR = 0;
+
+    private final ScheduledExecutorService scheduler;
+    private final List<String> cameraIds;
+    private final Random random;
+
+    private volatile long openDelayMillis = 0;
+    private volatile long configureDelayMillis = 0;
+    private volatile long captureDelayMillis = 0;
+    private volatile long frameIntervalMillis = 33;
+    private volatile double openFailureRate = 0;
+    private volatile double configureFailureRate = 0;
+    private volatile double captureFailureRate = 0;
+    private volatile double imageFailureRate = 0;
+
+    private final AtomicInteger openDevices = new AtomicInteger();
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final AtomicInteger outstandingImages = new AtomicInteger();
+    private final AtomicLong deliveredImages = new AtomicLong();
+    private final AtomicLong frameNumbers = new AtomicLong();
+
+    private final List<FakeDevice> devices = Collections.synchronizedList(new ArrayList<>());
+    // The targets of every request; builders do not expose them.
+    private final Map<CaptureRequest.Builder, List<FakeOutput>> requestTargets = Collections.synchronizedMap(new WeakHashMap<>());
+    // Encoding a JPEG is slow, so every size is encoded once.
+    private final Map<Size, byte[]> jpegs = new ConcurrentHashMap<>();
+
+    FakeCameraBackend(long seed, String... cameraIds) {
+        this.random = new Random(seed);
+        this.cameraIds = Collections.unmodifiableList(Arrays.asList(cameraIds.length == 0 ? new String[] {"0"} : cameraIds));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FakeCamera");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    FakeCameraBackend setDelays(long openDelayMillis, long configureDelayMillis, long captureDelayMillis) {
+        this.openDelayMillis = openDelayMillis;
+        this.configureDelayMillis = configureDelayMillis;
+        this.captureDelayMillis = captureDelayMillis;
+        return this;
+    }
+
+    FakeCameraBackend setFrameIntervalMillis(long frameIntervalMillis) {
+        this.frameIntervalMillis = frameIntervalMillis;
+        return this;
+    }
+
+    /** Sets the probability (0 to 1) with which opening, configuring and capturing fail. */
+    FakeCameraBackend setFailureRates(double openFailureRate, double configureFailureRate, double captureFailureRate) {
+        this.openFailureRate = openFailureRate;
+        this.configureFailureRate = configureFailureRate;
+        this.captureFailureRate = captureFailureRate;
+        return this;
+    }
+
+    /**
+     * Sets the probability (0 to 1) with which a delivered image cannot be read: its buffers throw
+     * {@link IllegalStateException}, as after the camera that produced it was lost.
+     */
+    FakeCameraBackend setImageFailureRate(double imageFailureRate) {
+        this.imageFailureRate = imageFailureRate;
+        return this;
+    }
+
+    int getOpenDeviceCount() {
+        return openDevices.get();
+    }
+
+    int getOpenSessionCount() {
+        return openSessions.get();
+    }
+
+    /** Returns the number of images delivered to an output that have not been closed yet. */
+    int getOutstandingImageCount() {
+        return outstandingImages.get();
+    }
+
+    long getDeliveredImageCount() {
+        return deliveredImages.get();
+    }
+
+    /** Disconnects every open device of the given camera, as if another client took it over. */
+    void disconnect(String cameraId) {
+        scheduler.execute(() -> {
+            for (FakeDevice device : snapshotDevices()) {
+                if (device.id.equals(cameraId) && device.closeInternal()) {
+                    post(device.handler, () -> device.callback.onDisconnected(device));
+                }
+            }
+        });
+    }
+
+    /** Reports {@code error} on every open device of the given camera. */
+    void injectError(String cameraId, int error) {
+        scheduler.execute(() -> {
+            for (FakeDevice device : snapshotDevices()) {
+                if (device.id.equals(cameraId) && device.closeInternal()) {
+                    post(device.handler, () -> device.callback.onError(device, error));
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until everything the scheduler was asked to do so far has run, e.g. closing the devices
+     * of disposed cameras. Delayed steps are not waited for.
+     */
+    void awaitIdle() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(1);
+        scheduler.execute(idle::countDown);
+        if (!idle.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("The fake camera did not become idle");
+        }
+    }
+
+    /** Stops the scheduler thread. Devices still open are closed. */
+    void shutdown() {
+        for (FakeDevice device : snapshotDevices()) {
+            device.closeInternal();
+        }
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public List<String> getCameraIds() {
+        return cameraIds;
+    }
+
+    @Override
+    public void openCamera(String cameraId, DeviceCallback<CaptureRequest.Builder, TotalCaptureResult> callback, Handler handler) {
+        if (!cameraIds.contains(cameraId)) {
+            throw new IllegalArgumentException("Unknown camera " + cameraId);
+        }
+        scheduler.schedule(() -> {
+            FakeDevice device = new FakeDevice(cameraId, callback, handler);
+            if (shouldFail(openFailureRate)) {
+                post(handler, () -> callback.onError(device, ERROR_CAMERA_IN_USE));
+                return;
+            }
+            openDevices.incrementAndGet();
+            devices.add(device);
+            post(handler, () -> callback.onOpened(device));
+        }, openDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public ImageOutput createImageOutput(String name, int width, int height, int format, int maxImages, ImageListener listener, Handler handler) {
+        if (width <= 0 || height <= 0 || maxImages <= 0) {
+            throw new IllegalArgumentException("Unsupported output " + width + "x" + height + " with " + maxImages + " images");
+        }
+        return new FakeImageOutput(name, width, height, format, maxImages, listener, handler);
+    }
+
+    @Override
+    public Output createTextureOutput(String name, SurfaceTexture texture) {
+        return new FakeOutput(name, false);
+    }
+
+    @Override
+    public Output createDeferredOutput(String name, Size size) {
+        return new FakeOutput(name, true);
+    }
+
+    @Override
+    public void finalizeOutput(Session<CaptureRequest.Builder, TotalCaptureResult> session, Output deferred, Output target) {
+        FakeSession fake = (FakeSession) session;
+        if (fake.isClosed()) {
+            throw new IllegalStateException("Session has been closed");
+        }
+        if (!fake.outputs.contains(deferred)) {
+            throw new IllegalArgumentException("Output " + deferred.getName() + " is not part of the session");
+        }
+        ((FakeOutput) deferred).deferred = false;
+    }
+
+    private List<FakeDevice> snapshotDevices() {
+        synchronized (devices) {
+            return new ArrayList<>(devices);
+        }
+    }
+
+    private boolean shouldFail(double rate) {
+        if (rate <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    /** Posts a callback; like camera2, drops it if the handler's thread quit. */
+    private static void post(Handler handler, Runnable callback) {
+        handler.post(callback);
+    }
+
+    /** Returns a request with empty settings, as the camera service would for any template. */
+    private static CaptureRequest.Builder newRequestBuilder(String cameraId) {
+        Class<?> metadataClass;
+        try {
+            // Hidden from the SDK, but part of the Robolectric android-all jar.
+            metadataClass = Class.forName("android.hardware.camera2.impl.CameraMetadataNative");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        return ReflectionHelpers.callConstructor(CaptureRequest.Builder.class,
+                ClassParameter.from(metadataClass, ReflectionHelpers.callConstructor(metadataClass)),
+                ClassParameter.from(boolean.class, false),
+                ClassParameter.from(int.class, -1),
+                ClassParameter.from(String.class, cameraId),
+                ClassParameter.from(Set.class, null));
+    }
+
+    private static TotalCaptureResult newResult(long timestamp) {
+        TotalCaptureResult result = ShadowTotalCaptureResult.newTotalCaptureResult();
+        ShadowCaptureResult shadow = Shadow.extract(result);
+        shadow.set(CaptureResult.SENSOR_TIMESTAMP, timestamp);
+        return result;
+    }
+
+    static class FakeOutput implements Output {
+        final String name;
+        // A deferred output cannot be targeted until its texture is attached.
+        volatile boolean deferred;
+
+        FakeOutput(String name, boolean deferred) {
+            this.name = name;
+            this.deferred = deferred;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final class FakeImageOutput extends FakeOutput implements ImageOutput {
+        final int width;
+        final int height;
+        final int format;
+        final int maxImages;
+        final ImageListener listener;
+        final Handler handler;
+        // Guarded by this.
+        final ArrayDeque<Image> queue = new ArrayDeque<>();
+        int acquired = 0;
+        boolean closed = false;
+
+        FakeImageOutput(String name, int width, int height, int format, int maxImages, ImageListener listener, Handler handler) {
+            super(name, false);
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.maxImages = maxImages;
+            this.listener = listener;
+            this.handler = handler;
+        }
+
+        /** Runs on the scheduler thread. Like a full ImageReader, drops the image if there is no room. */
+        void deliver(long timestamp) {
+            synchronized (this) {
+                if (closed || queue.size() + acquired >= maxImages) {
+                    return;
+                }
+                queue.add(newImage(this, timestamp));
+            }
+            post(handler, () -> listener.onImageAvailable(this));
+        }
+
+        @Override
+        public synchronized Image acquireNextImage() {
+            if (closed) {
+                throw new IllegalStateException("Output " + name + " has been closed");
+            }
+            if (queue.isEmpty()) {
+                return null;
+            }
+            if (acquired >= maxImages) {
+                throw new IllegalStateException("maxImages (" + maxImages + ") has already been acquired");
+            }
+            acquired++;
+            return queue.poll();
+        }
+
+        @Override
+        public Image acquireLatestImage() {
+            List<Image> older = new ArrayList<>();
+            Image latest;
+            synchronized (this) {
+                latest = acquireNextImage();
+                while (latest != null && !queue.isEmpty()) {
+                    older.add(latest);
+                    latest = queue.poll();
+                    acquired++;
+                }
+            }
+            for (Image image : older) {
+                image.close();
+            }
+            return latest;
+        }
+
+        @Override
+        public void close() {
+            List<Image> dropped;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                dropped = new ArrayList<>(queue);
+                queue.clear();
+                // Images in the queue count as acquired until they are closed below.
+                acquired += dropped.size();
+            }
+            for (Image image : dropped) {
+                image.close();
+            }
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized void onImageClosed() {
+            acquired--;
+        }
+    }
+
+    /** Returns a mock image whose buffers, like camera2's, are unusable once it is closed. */
+    private Image newImage(FakeImageOutput output, long timestamp) {
+        AtomicBoolean closed = new AtomicBoolean();
+        boolean unreadable = shouldFail(imageFailureRate);
+        ByteBuffer[] buffers = output.format == ImageFormat.JPEG || output.format == ImageFormat.HEIC
+                ? new ByteBuffer[] {ByteBuffer.wrap(jpeg(output.width, output.height))}
+                : output.format == ImageFormat.RAW_SENSOR
+                ? new ByteBuffer[] {gradient(output.width * 2, output.height, timestamp)}
+                : new ByteBuffer[] {gradient(output.width, output.height, timestamp),
+                        gradient(output.width / 2, output.height / 2, timestamp),
+                        gradient(output.width / 2, output.height / 2, timestamp)};
+        Image.Plane[] planes = new Image.Plane[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer buffer = buffers[i];
+            int pixelStride = output.format == ImageFormat.RAW_SENSOR ? 2 : 1;
+            Image.Plane plane = mock(Image.Plane.class);
+            when(plane.getPixelStride()).thenReturn(pixelStride);
+            when(plane.getRowStride()).thenReturn(i == 0 ? output.width * pixelStride : output.width / 2);
+            when(plane.getBuffer()).thenAnswer(invocation -> {
+                if (closed.get() || unreadable) {
+                    throw new IllegalStateException("Image is already closed");
+                }
+                return buffer.duplicate();
+            });
+            planes[i] = plane;
+        }
+
+        Image image = mock(Image.class);
+        when(image.getFormat()).thenReturn(output.format);
+        when(image.getWidth()).thenReturn(output.width);
+        when(image.getHeight()).thenReturn(output.height);
+        when(image.getTimestamp()).thenReturn(timestamp);
+        when(image.getPlanes()).thenAnswer(invocation -> {
+            if (closed.get()) {
+                throw new IllegalStateException("Image is already closed");
+            }
+            return planes;
+        });
+        doAnswer(invocation -> {
+            if (closed.compareAndSet(false, true)) {
+                outstandingImages.decrementAndGet();
+                output.onImageClosed();
+            }
+            return null;
+        }).when(image).close();
+        outstandingImages.incrementAndGet();
+        deliveredImages.incrementAndGet();
+        return image;
+    }
+
+    private byte[] jpeg(int width, int height) {
+        return jpegs.computeIfAbsent(new Size(width, height), size -> {
+            BufferedImage picture = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    picture.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+                }
+            }
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try {
+                ImageIO.write(picture, "jpg", encoded);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return encoded.toByteArray();
+        });
+    }
+
+    /** A diagonal gradient shifted by the timestamp, so consecutive frames differ. */
+    private static ByteBuffer gradient(int width, int height, long timestamp) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(width * height);
+        int shift = (int) (timestamp >>> 20);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                buffer.put((byte) (x + y + shift));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private final class FakeDevice implements Device<CaptureRequest.Builder, TotalCaptureResult> {
+        final String id;
+        final DeviceCallback<CaptureRequest.Builder, TotalCaptureResult> callback;
+        final Handler handler;
+        FakeSession session;
+        boolean closed = false;
+
+        FakeDevice(String id, DeviceCallback<CaptureRequest.Builder, TotalCaptureResult> callback, Handler handler) {
+            this.id = id;
+            this.callback = callback;
+            this.handler = handler;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public void createSession(List<Output> outputs, SessionCallback<CaptureRequest.Builder, TotalCaptureResult> sessionCallback) {
+            for (Output output : outputs) {
+                if (output instanceof FakeImageOutput && ((FakeImageOutput) output).isClosed()) {
+                    throw new IllegalArgumentException("Output " + output.getName() + " has been closed");
+                }
+            }
+            scheduler.schedule(() -> {
+                FakeSession replaced;
+                FakeSession created;
+                synchronized (this) {
+                    if (closed || shouldFail(configureFailureRate)) {
+                        created = null;
+                        replaced = null;
+                    } else {
+                        replaced = session;
+                        created = session = new FakeSession(this, outputs, sessionCallback);
+                        openSessions.incrementAndGet();
+                    }
+                }
+                if (created == null) {
+                    post(handler, sessionCallback::onConfigureFailed);
+                    return;
+                }
+                if (replaced != null) {
+                    replaced.close();
+                }
+                post(handler, () -> sessionCallback.onConfigured(created));
+            }, configureDelayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public CaptureRequest.Builder createRequest(int template, Output... targets) {
+            List<FakeOutput> outputs = new ArrayList<>(targets.length);
+            for (Output target : targets) {
+                FakeOutput output = (FakeOutput) target;
+                if (output.deferred) {
+                    throw new IllegalStateException("Output " + output.name + " has no surface yet");
+                }
+                outputs.add(output);
+            }
+            CaptureRequest.Builder request = newRequestBuilder(id);
+            requestTargets.put(request, outputs);
+            return request;
+        }
+
+        @Override
+        public void close() {
+            scheduler.execute(() -> {
+                if (closeInternal()) {
+                    post(handler, () -> callback.onClosed(this));
+                }
+            });
+        }
+
+        /** Returns false if the device was already closed. */
+        boolean closeInternal() {
+            FakeSession closing;
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                closed = true;
+                closing = session;
+                session = null;
+            }
+            if (closing != null) {
+                closing.close();
+            }
+            devices.remove(this);
+            openDevices.decrementAndGet();
+            return true;
+        }
+    }
+
+    private final class FakeSession implements Session<CaptureRequest.Builder, TotalCaptureResult> {
+        final FakeDevice device;
+        final List<Output> outputs;
+        final SessionCallback<CaptureRequest.Builder, TotalCaptureResult> callback;
+        ScheduledFuture<?> repeating;
+        boolean closed = false;
+
+        FakeSession(FakeDevice device, List<Output> outputs, SessionCallback<CaptureRequest.Builder, TotalCaptureResult> callback) {
+            this.device = device;
+            this.outputs = new ArrayList<>(outputs);
+            this.callback = callback;
+        }
+
+        @Override
+        public Device<CaptureRequest.Builder, TotalCaptureResult> getDevice() {
+            return device;
+        }
+
+        @Override
+        public synchronized void setRepeating(CaptureRequest.Builder request, Object tag, CaptureListener<TotalCaptureResult> listener) {
+            List<FakeOutput> targets = checkOpen(request);
+            stopRepeating();
+            repeating = scheduler.scheduleAtFixedRate(() -> {
+                if (!isClosed()) {
+                    run(targets, tag, listener, false);
+                }
+            }, 0, frameIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void stopRepeating() {
+            if (repeating != null) {
+                repeating.cancel(false);
+                repeating = null;
+            }
+        }
+
+        @Override
+        public synchronized void capture(CaptureRequest.Builder request, Object tag, CaptureListener<TotalCaptureResult> listener) {
+            List<FakeOutput> targets = checkOpen(request);
+            scheduler.schedule(() -> {
+                if (isClosed()) {
+                    if (listener != null) {
+                        post(device.handler, () -> listener.onCaptureFailed(tag, REASON_ERROR));
+                    }
+                    return;
+                }
+                run(targets, tag, listener, true);
+            }, captureDelayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void captureBurst(List<CaptureRequest.Builder> requests, List<?> tags, CaptureListener<TotalCaptureResult> listener) {
+            for (int i = 0; i < requests.size(); i++) {
+                capture(requests.get(i), tags.get(i), listener);
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                stopRepeating();
+                openSessions.decrementAndGet();
+            }
+            post(device.handler, callback::onClosed);
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /** Runs on the scheduler thread. */
+        private void run(List<FakeOutput> targets, Object tag, CaptureListener<TotalCaptureResult> listener, boolean mayFail) {
+            long timestamp = System.nanoTime();
+            long frameNumber = frameNumbers.incrementAndGet();
+            if (listener != null) {
+                post(device.handler, () -> listener.onCaptureStarted(tag, timestamp, frameNumber));
+            }
+            if (mayFail && shouldFail(captureFailureRate)) {
+                if (listener != null) {
+                    post(device.handler, () -> listener.onCaptureFailed(tag, REASON_ERROR));
+                }
+                return;
+            }
+            for (FakeOutput target : targets) {
+                if (target instanceof FakeImageOutput) {
+                    ((FakeImageOutput) target).deliver(timestamp);
+                }
+            }
+            if (listener != null) {
+                TotalCaptureResult result = newResult(timestamp);
+                post(device.handler, () -> listener.onCaptureCompleted(tag, result));
+            }
+        }
+
+        private List<FakeOutput> checkOpen(CaptureRequest.Builder request) {
+            if (closed) {
+                throw new IllegalStateException("Session has been closed");
+            }
+            List<FakeOutput> targets = requestTargets.get(request);
+            if (targets == null) {
+                throw new IllegalArgumentException("The request was not created by this backend");
+            }
+            for (FakeOutput target : targets) {
+                if (!outputs.contains(target)) {
+                    throw new IllegalArgumentException("Output " + target.name + " is not part of the session");
+                }
+            }
+            return new ArrayList<>(targets);
+        }
+    }
+}
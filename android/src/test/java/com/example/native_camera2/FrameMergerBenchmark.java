@@ -0,0 +1,88 @@
+package com.example.native_camera2;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Time of one {@link FrameMerger#merge} of noisy frames, by frame size, burst length and band
+ * count. The sizes cover a preview stream and a 12 MP sensor, the burst lengths what {@link
+ * YuvBurstCapture} accepts.
+ *
+ * <p>Not run by the unit tests; start it with {@link #main} from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameMergerBenchmark {
+
+    @Param({"1280x720", "4000x3000"})
+    public String size;
+
+    @Param({"3", "5"})
+    public int frameCount;
+
+    @Param({"1", "4"})
+    public int bands;
+
+    private ExecutorService executor;
+    private FrameMerger merger;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        long frameBytes = (long) width * height * 3 / 2;
+        executor = Executors.newFixedThreadPool(Math.max(1, bands - 1));
+        merger = new FrameMerger(executor, bands, new BufferPool((frameCount + 1) * frameBytes));
+        merger.prepare(width, height, frameCount);
+        Random random = new Random(1);
+        byte[] scene = new byte[(int) frameBytes];
+        for (int i = 0; i < scene.length; i++) {
+            scene[i] = (byte) (i % width / 8 + random.nextInt(64));
+        }
+        for (int f = 0; f < frameCount; f++) {
+            byte[] frame = merger.getFrame(f);
+            for (int i = 0; i < frame.length; i++) {
+                int noisy = (scene[i] & 0xff) + random.nextInt(9) - 4;
+                frame[i] = (byte) Math.max(0, Math.min(255, noisy));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        merger.release();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public byte[] merge() throws Exception {
+        return merger.merge(frameCount, 0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(FrameMergerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
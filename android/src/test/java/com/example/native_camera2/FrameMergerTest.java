@@ -0,0 +1,187 @@
+package com.example.native_camera2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameMergerTest {
+
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 96;
+    /** Margin of the scene around every frame, so shifted crops stay inside it. */
+    private static final int MARGIN = 8;
+
+    private ExecutorService executor;
+    private BufferPool pool;
+    private FrameMerger merger;
+    private byte[] scene;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        pool = new BufferPool(16L << 20);
+        merger = new FrameMerger(executor, 3, pool);
+        scene = scene(new Random(7));
+    }
+
+    @After
+    public void tearDown() {
+        merger.release();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void identicalFramesMergeUnchanged() throws Exception {
+        byte[] frame = crop(MARGIN, MARGIN);
+        merger.prepare(WIDTH, HEIGHT, 4);
+        for (int i = 0; i < 4; i++) {
+            System.arraycopy(frame, 0, merger.getFrame(i), 0, frame.length);
+        }
+
+        byte[] merged = merger.merge(4, 0);
+
+        assertArrayEquals(frame, Arrays.copyOf(merged, frame.length));
+        assertEquals(1, merger.getMergedTileRatio(), 0);
+    }
+
+    @Test
+    public void shiftedFramesAreAligned() throws Exception {
+        byte[] reference = crop(MARGIN, MARGIN);
+        merger.prepare(WIDTH, HEIGHT, 3);
+        System.arraycopy(reference, 0, merger.getFrame(0), 0, reference.length);
+        byte[] right = crop(MARGIN + 2, MARGIN + 2);
+        System.arraycopy(right, 0, merger.getFrame(1), 0, right.length);
+        byte[] left = crop(MARGIN - 4, MARGIN - 2);
+        System.arraycopy(left, 0, merger.getFrame(2), 0, left.length);
+
+        byte[] merged = merger.merge(3, 0);
+
+        // Tiles that fit the shift average identical content, the others keep the reference.
+        assertArrayEquals(reference, Arrays.copyOf(merged, reference.length));
+        // Each shifted frame can only be aligned away from the edge it moved across: the 3x2 tiles
+        // outside the first row and column, and those outside the last row and column.
+        assertEquals(0.5, merger.getMergedTileRatio(), 1e-9);
+    }
+
+    @Test
+    public void movedContentIsLeftOut() throws Exception {
+        byte[] reference = crop(MARGIN, MARGIN);
+        byte[] moved = reference.clone();
+        // Something else covers the top-left tile in the second frame.
+        Random random = new Random(11);
+        for (int y = 0; y < FrameMerger.TILE_SIZE; y++) {
+            for (int x = 0; x < FrameMerger.TILE_SIZE; x++) {
+                moved[y * WIDTH + x] = (byte) random.nextInt(256);
+            }
+        }
+        merger.prepare(WIDTH, HEIGHT, 2);
+        System.arraycopy(reference, 0, merger.getFrame(0), 0, reference.length);
+        System.arraycopy(moved, 0, merger.getFrame(1), 0, moved.length);
+
+        byte[] merged = merger.merge(2, 0);
+
+        for (int y = 0; y < FrameMerger.TILE_SIZE; y++) {
+            for (int x = 0; x < FrameMerger.TILE_SIZE; x++) {
+                assertEquals(reference[y * WIDTH + x], merged[y * WIDTH + x]);
+            }
+        }
+        int tiles = (WIDTH / FrameMerger.TILE_SIZE) * (HEIGHT / FrameMerger.TILE_SIZE);
+        assertEquals((tiles - 1) / (double) tiles, merger.getMergedTileRatio(), 1e-9);
+    }
+
+    @Test
+    public void mergingReducesNoise() throws Exception {
+        byte[] clean = crop(MARGIN, MARGIN);
+        Random random = new Random(3);
+        int frameCount = 8;
+        merger.prepare(WIDTH, HEIGHT, frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            byte[] frame = merger.getFrame(i);
+            for (int p = 0; p < clean.length; p++) {
+                int noisy = (clean[p] & 0xff) + (int) Math.round(random.nextGaussian() * 4);
+                frame[p] = (byte) Math.max(0, Math.min(255, noisy));
+            }
+        }
+        double referenceError = meanAbsoluteError(clean, merger.getFrame(0));
+
+        byte[] merged = merger.merge(frameCount, 0);
+
+        double mergedError = meanAbsoluteError(clean, merged);
+        assertTrue("error " + mergedError + " vs " + referenceError, mergedError < referenceError / 2);
+    }
+
+    @Test
+    public void buffersAreReusedAndReturnedToThePool() throws Exception {
+        merger.prepare(WIDTH, HEIGHT, 4);
+        merger.merge(4, 1);
+        merger.prepare(WIDTH, HEIGHT, 4);
+        long inUse = (long) 5 * WIDTH * HEIGHT * 3 / 2;
+        assertEquals(inUse, pool.getStats().get("inUseBytes"));
+        assertEquals(5L, pool.getStats().get("misses"));
+
+        merger.release();
+
+        assertEquals(0L, pool.getStats().get("inUseBytes"));
+        assertEquals(inUse, pool.getStats().get("pooledBytes"));
+        merger.prepare(WIDTH, HEIGHT, 4);
+        assertEquals(5L, pool.getStats().get("hits"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddSizes() {
+        merger.prepare(WIDTH + 1, HEIGHT, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReferenceOutsideTheBurst() throws Exception {
+        merger.prepare(WIDTH, HEIGHT, 2);
+        merger.merge(2, 2);
+    }
+
+    /** A textured random NV21 scene with a margin on every side. */
+    private static byte[] scene(Random random) {
+        int width = WIDTH + 2 * MARGIN;
+        int height = HEIGHT + 2 * MARGIN;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                nv21[y * width + x] = (byte) ((x * 7 + y * 13) % 64 + random.nextInt(192));
+            }
+        }
+        for (int i = width * height; i < nv21.length; i++) {
+            nv21[i] = (byte) (64 + random.nextInt(128));
+        }
+        return nv21;
+    }
+
+    /** The frame whose top-left corner is at ({@code x0}, {@code y0}) of the scene; both even. */
+    private byte[] crop(int x0, int y0) {
+        int sceneWidth = WIDTH + 2 * MARGIN;
+        int sceneHeight = HEIGHT + 2 * MARGIN;
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            System.arraycopy(scene, (y0 + y) * sceneWidth + x0, frame, y * WIDTH, WIDTH);
+        }
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            System.arraycopy(scene, sceneWidth * sceneHeight + (y0 / 2 + y) * sceneWidth + x0, frame, WIDTH * HEIGHT + y * WIDTH, WIDTH);
+        }
+        return frame;
+    }
+
+    private static double meanAbsoluteError(byte[] expected, byte[] actual) {
+        long sum = 0;
+        for (int i = 0; i < expected.length; i++) {
+            sum += Math.abs((expected[i] & 0xff) - (actual[i] & 0xff));
+        }
+        return (double) sum / expected.length;
+    }
+}
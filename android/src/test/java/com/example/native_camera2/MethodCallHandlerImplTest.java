@@ -0,0 +1,115 @@
+package com.example.native_camera2;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.Activity;
+import android.graphics.SurfaceTexture;
+
+import java.util.Collections;
+import java.util.List;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.view.TextureRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowCameraManager;
+
+/** The camera lifecycle on the method channel: what create and dispose leave behind. */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30)
+public class MethodCallHandlerImplTest {
+
+    private static final long JOIN_MILLIS = 2000;
+
+    private TextureRegistry textureRegistry;
+    private MethodCallHandlerImpl handler;
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        ShadowCameraManager cameraManager = Shadow.extract(CameraUtils.getCameraManager(activity));
+        cameraManager.addCamera("0", NativeCameraHarness.newCharacteristics());
+        textureRegistry = mock(TextureRegistry.class);
+        handler = new MethodCallHandlerImpl(activity, mock(BinaryMessenger.class), textureRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        handler.stopListening();
+    }
+
+    @Test
+    public void disposeStopsTheCameraAndForgetsIt() throws Exception {
+        TextureRegistry.SurfaceTextureEntry texture = newTexture(1);
+        call("create", Collections.singletonMap("cameraName", "0"));
+        assertTrue("no camera thread", !TestThreads.threadsNamed("CameraThread").isEmpty());
+
+        call("dispose", null);
+
+        verify(texture).release();
+        assertThreadsExited("CameraThread");
+        assertThreadsExited("ImageReaderThread");
+        MethodChannel.Result initialize = call("initialize", null);
+        verify(initialize).error(eq("cameraNotFound"), anyString(), isNull());
+    }
+
+    @Test
+    public void createAgainDisposesThePreviousCamera() throws Exception {
+        TextureRegistry.SurfaceTextureEntry first = newTexture(1);
+        call("create", Collections.singletonMap("cameraName", "0"));
+        TextureRegistry.SurfaceTextureEntry second = newTexture(2);
+        call("create", Collections.singletonMap("cameraName", "0"));
+
+        verify(first).release();
+        verify(second, never()).release();
+        for (Thread thread : TestThreads.threadsNamed("CameraThread")) {
+            thread.join(JOIN_MILLIS);
+        }
+        assertTrue("camera threads of both cameras are alive", TestThreads.threadsNamed("CameraThread").size() <= 1);
+
+        call("dispose", null);
+        verify(second, times(1)).release();
+        assertThreadsExited("CameraThread");
+    }
+
+    private TextureRegistry.SurfaceTextureEntry newTexture(long id) {
+        TextureRegistry.SurfaceTextureEntry texture = mock(TextureRegistry.SurfaceTextureEntry.class);
+        when(texture.id()).thenReturn(id);
+        when(texture.surfaceTexture()).thenReturn(new SurfaceTexture(0));
+        when(textureRegistry.createSurfaceTexture()).thenReturn(texture);
+        return texture;
+    }
+
+    private MethodChannel.Result call(String method, Object arguments) {
+        MethodChannel.Result result = mock(MethodChannel.Result.class);
+        handler.onMethodCall(new MethodCall(method, arguments), result);
+        verify(result, never()).error(eq("CameraAccess"), any(), any());
+        return result;
+    }
+
+    private static void assertThreadsExited(String name) throws InterruptedException {
+        List<Thread> threads = TestThreads.threadsNamed(name);
+        for (Thread thread : threads) {
+            thread.join(JOIN_MILLIS);
+        }
+        assertTrue(name + " still running", TestThreads.threadsNamed(name).isEmpty());
+    }
+}
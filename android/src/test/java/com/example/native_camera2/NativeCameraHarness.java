@@ -0,0 +1,263 @@
+package com.example.native_camera2;
+
+import static org.mockito.Mockito.mock;
+
+import android.app.Activity;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Range;
+import android.util.Size;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.view.TextureRegistry;
+
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowCameraCharacteristics;
+import org.robolectric.shadows.ShadowCameraManager;
+import org.robolectric.shadows.StreamConfigurationMapBuilder;
+
+/**
+ * Creates {@link NativeCamera}s on a {@link FakeCameraBackend} and drives them the way the method
+ * channel does, with futures in place of the Dart side: each camera gets a texture entry backed by
+ * a {@link SurfaceTexture}, a messenger whose first frame or error event completes {@code
+ * initialize}, and results that complete a future.
+ *
+ * <p>Runs under Robolectric, which provides the activity, the handler threads and the camera
+ * metadata. The cameras of the backend are registered with the shadow camera manager as back
+ * cameras with JPEG and RAW outputs. The stores the cameras share live in {@code directory} and are
+ * closed by {@link #close()}.
+ */
+final class NativeCameraHarness {
+
+    static final Size STILL_SIZE = new Size(320, 240);
+    // The format the stream configuration map stores JPEG outputs under.
+    private static final int HAL_PIXEL_FORMAT_BLOB = 0x21;
+
+    private final Activity activity;
+    private final FakeCameraBackend backend;
+    private final CaptureStore captureStore;
+    private final CaptureMetadataLog metadataLog;
+    private final CameraConfigCache configCache;
+    private final BufferPool bufferPool;
+    private final HandlerThread messengerThread;
+    private final Handler messengerHandler;
+    private final AtomicLong textureIds = new AtomicLong();
+    private final AtomicInteger openTextures = new AtomicInteger();
+    private final AtomicInteger duplicateReplies = new AtomicInteger();
+
+    NativeCameraHarness(Activity activity, FakeCameraBackend backend, File directory) throws CameraAccessException {
+        this.activity = activity;
+        this.backend = backend;
+        ShadowCameraManager cameraManager = Shadow.extract(CameraUtils.getCameraManager(activity));
+        for (String cameraId : backend.getCameraIds()) {
+            cameraManager.addCamera(cameraId, newCharacteristics());
+        }
+        captureStore = new CaptureStore(directory);
+        metadataLog = new CaptureMetadataLog(new File(directory, "capture_metadata"), captureStore.getRootDirectory());
+        configCache = new CameraConfigCache(directory);
+        bufferPool = new BufferPool(64L << 20);
+        // Stands in for the main thread, which Robolectric only runs when the test idles it.
+        messengerThread = new HandlerThread("DartMessenger");
+        messengerThread.start();
+        messengerHandler = new Handler(messengerThread.getLooper());
+    }
+
+    /** The create step, as {@code create} on the method channel does it. */
+    Client create(String cameraId) throws CameraAccessException {
+        return new Client(cameraId);
+    }
+
+    /** Returns the texture entries created but not released yet. */
+    int getOpenTextureCount() {
+        return openTextures.get();
+    }
+
+    /** Returns how often a result was answered after it had been answered already. */
+    int getDuplicateReplyCount() {
+        return duplicateReplies.get();
+    }
+
+    /** Returns the capture files in the store; they sit in day directories, next to its index. */
+    List<File> listCaptures() {
+        List<File> files = new ArrayList<>();
+        File[] days = captureStore.getRootDirectory().listFiles(File::isDirectory);
+        if (days != null) {
+            for (File day : days) {
+                collectFiles(day, files);
+            }
+        }
+        return files;
+    }
+
+    private static void collectFiles(File directory, List<File> files) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, files);
+            } else {
+                files.add(child);
+            }
+        }
+    }
+
+    void close() {
+        captureStore.close();
+        metadataLog.close();
+        configCache.close();
+        messengerThread.quitSafely();
+    }
+
+    /** A back camera with JPEG and RAW outputs at {@link #STILL_SIZE} and a full hardware level. */
+    static CameraCharacteristics newCharacteristics() {
+        CameraCharacteristics characteristics = ShadowCameraCharacteristics.newCameraCharacteristics();
+        ShadowCameraCharacteristics shadow = Shadow.extract(characteristics);
+        StreamConfigurationMap streams = StreamConfigurationMapBuilder.newBuilder()
+                .addOutputSize(HAL_PIXEL_FORMAT_BLOB, STILL_SIZE)
+                .addOutputSize(ImageFormat.RAW_SENSOR, STILL_SIZE)
+                .addOutputSize(ImageFormat.YUV_420_888, STILL_SIZE)
+                .addOutputSize(STILL_SIZE)
+                .build();
+        shadow.set(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP, streams);
+        shadow.set(CameraCharacteristics.LENS_FACING, CameraMetadata.LENS_FACING_BACK);
+        shadow.set(CameraCharacteristics.SENSOR_ORIENTATION, 90);
+        shadow.set(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL, CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL);
+        shadow.set(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES, new int[] {
+                CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_BACKWARD_COMPATIBLE,
+                CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_RAW});
+        shadow.set(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES, new int[] {
+                CameraMetadata.CONTROL_AF_MODE_AUTO, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE});
+        shadow.set(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES, new Range[] {new Range<>(15, 30), new Range<>(30, 30)});
+        shadow.set(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE, CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME);
+        shadow.set(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE, new Rect(0, 0, STILL_SIZE.getWidth(), STILL_SIZE.getHeight()));
+        shadow.set(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM, 4f);
+        return characteristics;
+    }
+
+    /** One camera, driven like the Dart side drives it. */
+    final class Client {
+        final NativeCamera camera;
+        private final CompletableFuture<Void> firstFrame = new CompletableFuture<>();
+
+        private Client(String cameraId) throws CameraAccessException {
+            long textureId = textureIds.incrementAndGet();
+            DartMessenger messenger = new DartMessenger(mock(BinaryMessenger.class), textureId, messengerHandler) {
+                @Override
+                void sendCameraFirstFrameEvent(long timeToFirstFrameMillis, boolean deferredSurface) {
+                    super.sendCameraFirstFrameEvent(timeToFirstFrameMillis, deferredSurface);
+                    firstFrame.complete(null);
+                }
+
+                @Override
+                void sendCameraErrorEvent(String description) {
+                    super.sendCameraErrorEvent(description);
+                    firstFrame.completeExceptionally(new IllegalStateException(description));
+                }
+            };
+            camera = new NativeCamera(activity, new Texture(textureId), messenger,
+                    new CameraPropertiesImpl(cameraId, CameraUtils.getCameraManager(activity)),
+                    captureStore, metadataLog, configCache, bufferPool, backend);
+        }
+
+        /** Opens the camera and completes once the first preview frame arrived, or with the error. */
+        CompletableFuture<Void> initialize() {
+            try {
+                camera.openCameraInitializer();
+            } catch (CameraAccessException e) {
+                firstFrame.completeExceptionally(e);
+            }
+            return firstFrame;
+        }
+
+        /** Completes with the reply of {@code takePicture}, or with its error. */
+        CompletableFuture<Map<String, Object>> takePicture(CaptureFormat format) {
+            FutureResult reply = new FutureResult();
+            try {
+                camera.takePicture(reply, format, 0);
+            } catch (CameraAccessException e) {
+                reply.future.completeExceptionally(e);
+            }
+            return reply.future;
+        }
+
+        /** The dispose step; the backend closes the device on its own thread afterwards. */
+        void dispose() {
+            camera.dispose();
+        }
+    }
+
+    private final class Texture implements TextureRegistry.SurfaceTextureEntry {
+        private final long id;
+        private final SurfaceTexture surfaceTexture = new SurfaceTexture(0);
+        private boolean released = false;
+
+        Texture(long id) {
+            this.id = id;
+            openTextures.incrementAndGet();
+        }
+
+        @Override
+        public SurfaceTexture surfaceTexture() {
+            return surfaceTexture;
+        }
+
+        @Override
+        public long id() {
+            return id;
+        }
+
+        @Override
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                surfaceTexture.release();
+                openTextures.decrementAndGet();
+            }
+        }
+    }
+
+    /** A method channel result that completes a future and counts answers beyond the first. */
+    private final class FutureResult implements MethodChannel.Result {
+        final CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void success(Object result) {
+            answered(future.complete((Map<String, Object>) result));
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            answered(future.completeExceptionally(new IllegalStateException(errorCode + ": " + errorMessage)));
+        }
+
+        @Override
+        public void notImplemented() {
+            answered(future.completeExceptionally(new UnsupportedOperationException()));
+        }
+
+        private void answered(boolean first) {
+            if (!first) {
+                duplicateReplies.incrementAndGet();
+            }
+        }
+    }
+}
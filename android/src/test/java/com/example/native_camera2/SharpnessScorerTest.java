@@ -0,0 +1,101 @@
+package com.example.native_camera2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class SharpnessScorerTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void checkerboardScoresAboveFlatPlane() {
+        ByteBuffer sharp = plane(WIDTH, HEIGHT, WIDTH, 1, (x, y) -> ((x / 2 + y / 2) % 2) * 255);
+        ByteBuffer flat = plane(WIDTH, HEIGHT, WIDTH, 1, (x, y) -> 128);
+
+        double sharpScore = SharpnessScorer.laplacianVariance(sharp, WIDTH, HEIGHT, WIDTH, 1, 1);
+        double flatScore = SharpnessScorer.laplacianVariance(flat, WIDTH, HEIGHT, WIDTH, 1, 1);
+
+        assertEquals(0, flatScore, 0);
+        assertTrue(sharpScore > flatScore);
+    }
+
+    @Test
+    public void hardEdgeScoresAboveBlurredEdge() {
+        ByteBuffer hard = plane(WIDTH, HEIGHT, WIDTH, 1, (x, y) -> x < WIDTH / 2 ? 0 : 255);
+        ByteBuffer soft = plane(WIDTH, HEIGHT, WIDTH, 1, (x, y) -> Math.max(0, Math.min(255, (x - WIDTH / 2 + 16) * 8)));
+
+        assertTrue(SharpnessScorer.laplacianVariance(hard, WIDTH, HEIGHT, WIDTH, 1, 1)
+                > SharpnessScorer.laplacianVariance(soft, WIDTH, HEIGHT, WIDTH, 1, 1));
+    }
+
+    @Test
+    public void linearGradientHasNoLaplacian() {
+        ByteBuffer gradient = plane(WIDTH, HEIGHT, WIDTH, 1, (x, y) -> x + 2 * y);
+
+        assertEquals(0, SharpnessScorer.laplacianVariance(gradient, WIDTH, HEIGHT, WIDTH, 1, 1), 1e-9);
+    }
+
+    @Test
+    public void paddedRowsAndInterleavedPixelsScoreLikeAPackedPlane() {
+        Pattern pattern = (x, y) -> (x * 37 + y * 91) % 251;
+        ByteBuffer packed = plane(WIDTH, HEIGHT, WIDTH, 1, pattern);
+        ByteBuffer strided = plane(WIDTH, HEIGHT, 2 * WIDTH + 16, 2, pattern);
+
+        assertEquals(SharpnessScorer.laplacianVariance(packed, WIDTH, HEIGHT, WIDTH, 1, 1),
+                SharpnessScorer.laplacianVariance(strided, WIDTH, HEIGHT, 2 * WIDTH + 16, 2, 1), 1e-9);
+    }
+
+    @Test
+    public void sampledScoreKeepsTheOrder() {
+        ByteBuffer sharp = plane(WIDTH, HEIGHT, WIDTH, 1, (x, y) -> ((x / 2 + y / 2) % 2) * 255);
+        ByteBuffer soft = plane(WIDTH, HEIGHT, WIDTH, 1, (x, y) -> ((x / 8 + y / 8) % 2) * 255);
+
+        assertTrue(SharpnessScorer.laplacianVariance(sharp, WIDTH, HEIGHT, WIDTH, 1, 3)
+                > SharpnessScorer.laplacianVariance(soft, WIDTH, HEIGHT, WIDTH, 1, 3));
+    }
+
+    @Test
+    public void tinyPlaneScoresZero() {
+        assertEquals(0, SharpnessScorer.laplacianVariance(ByteBuffer.allocate(4), 2, 2, 2, 1, 1), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsStepBelowOne() {
+        SharpnessScorer.laplacianVariance(ByteBuffer.allocate(WIDTH * HEIGHT), WIDTH, HEIGHT, WIDTH, 1, 0);
+    }
+
+    @Test
+    public void bestIsTheHighestScore() {
+        assertEquals(2, SharpnessScorer.indexOfBest(new double[] {1, 3, 7, 2}));
+    }
+
+    @Test
+    public void tieGoesToTheEarliestFrame() {
+        assertEquals(1, SharpnessScorer.indexOfBest(new double[] {1, 5, 5, 5}));
+        assertEquals(0, SharpnessScorer.indexOfBest(new double[] {4, 4}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoScores() {
+        SharpnessScorer.indexOfBest(new double[0]);
+    }
+
+    private interface Pattern {
+        int valueAt(int x, int y);
+    }
+
+    private static ByteBuffer plane(int width, int height, int rowStride, int pixelStride, Pattern pattern) {
+        ByteBuffer buffer = ByteBuffer.allocate(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                buffer.put(y * rowStride + x * pixelStride, (byte) pattern.valueAt(x, y));
+            }
+        }
+        return buffer;
+    }
+}
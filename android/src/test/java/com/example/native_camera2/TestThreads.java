@@ -0,0 +1,40 @@
+package com.example.native_camera2;
+
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Thread counts and lookups shared by the tests that check for leaked threads. */
+final class TestThreads {
+
+    private TestThreads() {
+    }
+
+    /**
+     * Waits until stopped threads have exited, or the count is at most {@code expected}. With {@code
+     * Integer.MAX_VALUE} it only gives threads a moment to settle, to take a baseline.
+     */
+    static int settledThreadCount(ThreadMXBean threads, int expected) throws InterruptedException {
+        int count = threads.getThreadCount();
+        for (int i = 0; i < 100 && count > expected; i++) {
+            Thread.sleep(10);
+            count = threads.getThreadCount();
+        }
+        if (expected == Integer.MAX_VALUE) {
+            Thread.sleep(50);
+            count = threads.getThreadCount();
+        }
+        return count;
+    }
+
+    /** Returns the live threads called {@code name}. */
+    static List<Thread> threadsNamed(String name) {
+        List<Thread> named = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name) && thread.isAlive()) {
+                named.add(thread);
+            }
+        }
+        return named;
+    }
+}
@@ -1,3 +1,19 @@
 export 'src/types/camera_description.dart' show NativeCameraDescription;
+export 'src/types/camera_event.dart'
+    show
+        CameraEvent,
+        CameraRecoveredEvent,
+        CameraRecoveringEvent,
+        CameraRecoveryFailedEvent,
+        DetectedFace,
+        FacesDetectedEvent,
+        IntervalCaptureDoneEvent,
+        IntervalCaptureProgressEvent,
+        IntervalShot;
 export 'src/types/camera_exception.dart' show CameraException;
+export 'src/types/camera_recovery_policy.dart' show CameraRecoveryPolicy;
+export 'src/types/captured_image.dart' show BestShotImage, CapturedImage, MergedImage;
+export 'src/types/memory_stats.dart' show MemoryStats;
+export 'src/types/preview_metrics.dart' show PreviewMetrics;
+export 'src/types/zoom_range.dart' show ZoomRange;
 export 'src/native_camera2_platform_interface.dart';
\ No newline at end of file
@@ -5,7 +5,13 @@ import 'package:flutter/widgets.dart';
 
 import 'native_camera2_platform_interface.dart';
 import 'types/camera_description.dart';
+import 'types/camera_event.dart';
 import 'types/camera_exception.dart';
+import 'types/camera_recovery_policy.dart';
+import 'types/captured_image.dart';
+import 'types/memory_stats.dart';
+import 'types/preview_metrics.dart';
+import 'types/zoom_range.dart';
 import 'utils/utils.dart';
 
 
@@ -14,6 +20,12 @@ class MethodChannelNativeCamera2 extends NativeCamera2Platform {
   @visibleForTesting
   final methodChannel = const MethodChannel('plugins.flutter.io/native_android2');
 
+  /// The events of every camera, [cameraEvents] filters them by camera.
+  @visibleForTesting
+  final StreamController<CameraEvent> cameraEventStreamController = StreamController<CameraEvent>.broadcast();
+
+  final Map<int, MethodChannel> _cameraChannels = <int, MethodChannel>{};
+
   @override
   Future<List<NativeCameraDescription>> availableCameras() async {
     try {
@@ -36,10 +48,25 @@ class MethodChannelNativeCamera2 extends NativeCamera2Platform {
   }
 
   @override
-  Future<int> createCamera(NativeCameraDescription cameraDescription) async {
+  Future<int> createCamera(NativeCameraDescription cameraDescription, {CameraRecoveryPolicy? recoveryPolicy, int? maxOutstandingCaptures, bool enableRaw = false, bool enableHeic = false, bool enableBestShot = false, bool enableMerge = false, bool enablePreviewSnapshot = false}) async {
     try {
-      final Map<String, dynamic>? reply = await methodChannel.invokeMapMethod<String, dynamic>('create', <String, dynamic>{'cameraName': cameraDescription.name,});
-      return reply!['cameraId']! as int;
+      final Map<String, dynamic>? reply = await methodChannel.invokeMapMethod<String, dynamic>('create', <String, dynamic>{
+        'cameraName': cameraDescription.name,
+        if (recoveryPolicy != null) 'recoveryPolicy': recoveryPolicy.toMap(),
+        if (maxOutstandingCaptures != null) 'maxOutstandingCaptures': maxOutstandingCaptures,
+        'enableRaw': enableRaw,
+        'enableHeic': enableHeic,
+        'enableBestShot': enableBestShot,
+        'enableMerge': enableMerge,
+        'enablePreviewSnapshot': enablePreviewSnapshot,
+      });
+      final int cameraId = reply!['cameraId']! as int;
+      _cameraChannels.putIfAbsent(cameraId, () {
+        final MethodChannel channel = MethodChannel('plugins.flutter.io/native_android2/camera$cameraId');
+        channel.setMethodCallHandler((MethodCall call) => handleCameraMethodCall(call, cameraId));
+        return channel;
+      });
+      return cameraId;
     } on PlatformException catch (e) {
       throw CameraException(e.code, e.message);
     }
@@ -71,10 +98,248 @@ class MethodChannelNativeCamera2 extends NativeCamera2Platform {
   @override
   Future<void> dispose() async {
     await methodChannel.invokeMethod<void>('dispose');
+    for (final MethodChannel channel in _cameraChannels.values) {
+      channel.setMethodCallHandler(null);
+    }
+    _cameraChannels.clear();
+  }
+
+  @override
+  Stream<CameraEvent> cameraEvents(int cameraId) {
+    return cameraEventStreamController.stream.where((CameraEvent event) => event.cameraId == cameraId);
+  }
+
+  /// Decodes an event sent on the channel of the camera with [cameraId].
+  @visibleForTesting
+  Future<dynamic> handleCameraMethodCall(MethodCall call, int cameraId) async {
+    final Map<dynamic, dynamic> arguments = call.arguments as Map<dynamic, dynamic>? ?? <dynamic, dynamic>{};
+    switch (call.method) {
+      case 'faces':
+        cameraEventStreamController.add(FacesDetectedEvent.fromMap(cameraId, arguments));
+        break;
+      case 'interval_capture_progress':
+        cameraEventStreamController.add(IntervalCaptureProgressEvent.fromMap(cameraId, arguments));
+        break;
+      case 'interval_capture_done':
+        cameraEventStreamController.add(IntervalCaptureDoneEvent.fromMap(cameraId, arguments));
+        break;
+      case 'camera_recovering':
+        cameraEventStreamController.add(CameraRecoveringEvent.fromMap(cameraId, arguments));
+        break;
+      case 'camera_recovered':
+        cameraEventStreamController.add(CameraRecoveredEvent.fromMap(cameraId, arguments));
+        break;
+      case 'camera_recovery_failed':
+        cameraEventStreamController.add(CameraRecoveryFailedEvent.fromMap(cameraId, arguments));
+        break;
+      default:
+        // The lifecycle events are not surfaced yet.
+        break;
+    }
+  }
+
+  @override
+  Future<String?> takePicture({String format = 'jpeg', int? quality}) async {
+    return (await capture(format: format, quality: quality)).path;
+  }
+
+  @override
+  Future<CapturedImage> capture({String format = 'jpeg', int? quality}) async {
+    try {
+      final Map<dynamic, dynamic>? reply = await methodChannel.invokeMapMethod<dynamic, dynamic>('takePicture', <String, dynamic>{
+        'format': format,
+        if (quality != null) 'quality': quality,
+      });
+      return CapturedImage.fromMap(reply!);
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<CapturedImage> takePreviewSnapshot({int? quality}) async {
+    try {
+      final Map<dynamic, dynamic>? reply = await methodChannel.invokeMapMethod<dynamic, dynamic>('takePreviewSnapshot', <String, dynamic>{
+        if (quality != null) 'quality': quality,
+      });
+      return CapturedImage.fromMap(reply!);
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<List<CapturedImage>> takeBurst({List<double> exposureValues = const <double>[-2, 0, 2], int? quality}) async {
+    try {
+      final List<Map<dynamic, dynamic>>? frames = await methodChannel.invokeListMethod<Map<dynamic, dynamic>>('takeBurst', <String, dynamic>{
+        'exposureValues': exposureValues,
+        if (quality != null) 'quality': quality,
+      });
+      return (frames ?? <Map<dynamic, dynamic>>[]).map((Map<dynamic, dynamic> frame) => CapturedImage.fromMap(frame)).toList();
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<BestShotImage> takeBestShot({int frameCount = 5, int? quality}) async {
+    try {
+      final Map<dynamic, dynamic>? reply = await methodChannel.invokeMapMethod<dynamic, dynamic>('takeBestShot', <String, dynamic>{
+        'frameCount': frameCount,
+        if (quality != null) 'quality': quality,
+      });
+      return BestShotImage.fromMap(reply!);
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<MergedImage> takeMergedShot({int frameCount = 5, int? quality}) async {
+    try {
+      final Map<dynamic, dynamic>? reply = await methodChannel.invokeMapMethod<dynamic, dynamic>('takeMergedShot', <String, dynamic>{
+        'frameCount': frameCount,
+        if (quality != null) 'quality': quality,
+      });
+      return MergedImage.fromMap(reply!);
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<void> startIntervalCapture({required Duration interval, required int count, String format = 'jpeg', int? quality}) async {
+    try {
+      await methodChannel.invokeMethod<void>('startIntervalCapture', <String, dynamic>{
+        'intervalMs': interval.inMilliseconds,
+        'count': count,
+        'format': format,
+        if (quality != null) 'quality': quality,
+      });
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<void> stopIntervalCapture() async {
+    await methodChannel.invokeMethod<void>('stopIntervalCapture');
+  }
+
+  @override
+  Future<void> configureCaptureStorage({int? maxBytes, int? maxCount, Duration? maxAge}) async {
+    await methodChannel.invokeMethod<void>('configureCaptureStorage', <String, dynamic>{
+      if (maxBytes != null) 'maxBytes': maxBytes,
+      if (maxCount != null) 'maxCount': maxCount,
+      if (maxAge != null) 'maxAgeMs': maxAge.inMilliseconds,
+    });
   }
 
   @override
-  Future<String?> takePicture() async {
-    return await methodChannel.invokeMethod<String>('takePicture');
+  Future<List<Map<String, dynamic>>> recentCaptures({int? limit}) async {
+    final List<Map<dynamic, dynamic>>? captures = await methodChannel.invokeListMethod<Map<dynamic, dynamic>>('recentCaptures', <String, dynamic>{
+      if (limit != null) 'limit': limit,
+    });
+    return (captures ?? <Map<dynamic, dynamic>>[]).map((Map<dynamic, dynamic> capture) => Map<String, dynamic>.from(capture)).toList();
+  }
+
+  @override
+  Future<void> setCaptureMetadataEnabled(bool enabled) async {
+    await methodChannel.invokeMethod<void>('setCaptureMetadataEnabled', <String, dynamic>{'enabled': enabled});
+  }
+
+  @override
+  Future<List<Map<String, dynamic>>> getCaptureMetadata({DateTime? since}) async {
+    final List<Map<dynamic, dynamic>>? records = await methodChannel.invokeListMethod<Map<dynamic, dynamic>>('getCaptureMetadata', <String, dynamic>{
+      if (since != null) 'sinceMillis': since.millisecondsSinceEpoch,
+    });
+    return (records ?? <Map<dynamic, dynamic>>[]).map((Map<dynamic, dynamic> record) => Map<String, dynamic>.from(record)).toList();
+  }
+
+  @override
+  Future<double> setZoom(double zoom) async {
+    try {
+      final double? applied = await methodChannel.invokeMethod<double>('setZoom', <String, dynamic>{'zoom': zoom});
+      return applied ?? zoom;
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<ZoomRange> getZoomRange() async {
+    try {
+      final Map<dynamic, dynamic>? range = await methodChannel.invokeMapMethod<dynamic, dynamic>('getZoomRange');
+      return ZoomRange.fromMap(range!);
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<Map<String, dynamic>?> setFocusPoint(Offset? point) async {
+    try {
+      return await methodChannel.invokeMapMethod<String, dynamic>('setFocusPoint', <String, dynamic>{
+        if (point != null) 'x': point.dx,
+        if (point != null) 'y': point.dy,
+      });
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<void> setExposurePoint(Offset? point) async {
+    try {
+      await methodChannel.invokeMethod<void>('setExposurePoint', <String, dynamic>{
+        if (point != null) 'x': point.dx,
+        if (point != null) 'y': point.dy,
+      });
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<void> setFaceDetectionEnabled(bool enabled, {Duration minInterval = const Duration(milliseconds: 100)}) async {
+    try {
+      await methodChannel.invokeMethod<void>('setFaceDetectionEnabled', <String, dynamic>{
+        'enabled': enabled,
+        'minIntervalMs': minInterval.inMilliseconds,
+      });
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<PreviewMetrics> getPreviewMetrics({bool reset = false}) async {
+    try {
+      final Map<dynamic, dynamic>? metrics = await methodChannel.invokeMapMethod<dynamic, dynamic>('getPreviewMetrics', <String, dynamic>{'reset': reset});
+      return PreviewMetrics.fromMap(metrics!);
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
+  }
+
+  @override
+  Future<MemoryStats> getMemoryStats() async {
+    final Map<dynamic, dynamic>? stats = await methodChannel.invokeMapMethod<dynamic, dynamic>('getMemoryStats');
+    return MemoryStats.fromMap(stats!);
+  }
+
+  @override
+  Future<void> setTracingEnabled(bool enabled) async {
+    await methodChannel.invokeMethod<void>('setTracingEnabled', <String, dynamic>{'enabled': enabled});
+  }
+
+  @override
+  Future<List<Map<String, dynamic>>> allCameras() async {
+    try {
+      final List<Map<dynamic, dynamic>>? cameras = await methodChannel.invokeListMethod<Map<dynamic, dynamic>>('allCameras');
+      return (cameras ?? <Map<dynamic, dynamic>>[]).map((Map<dynamic, dynamic> camera) => Map<String, dynamic>.from(camera)).toList();
+    } on PlatformException catch (e) {
+      throw CameraException(e.code, e.message);
+    }
   }
 }
@@ -3,6 +3,12 @@ import 'package:plugin_platform_interface/plugin_platform_interface.dart';
 
 import 'native_camera2_method_channel.dart';
 import 'types/camera_description.dart';
+import 'types/camera_event.dart';
+import 'types/camera_recovery_policy.dart';
+import 'types/captured_image.dart';
+import 'types/memory_stats.dart';
+import 'types/preview_metrics.dart';
+import 'types/zoom_range.dart';
 
 abstract class NativeCamera2Platform extends PlatformInterface {
   
@@ -23,7 +29,7 @@ abstract class NativeCamera2Platform extends PlatformInterface {
     throw UnimplementedError('availableCameras() has not been implemented.');
   }
 
-  Future<int> createCamera(NativeCameraDescription cameraDescription) {
+  Future<int> createCamera(NativeCameraDescription cameraDescription, {CameraRecoveryPolicy? recoveryPolicy, int? maxOutstandingCaptures, bool enableRaw = false, bool enableHeic = false, bool enableBestShot = false, bool enableMerge = false, bool enablePreviewSnapshot = false}) {
     throw UnimplementedError('createCamera() has not been implemented.');
   }
 
@@ -39,8 +45,157 @@ abstract class NativeCamera2Platform extends PlatformInterface {
     throw UnimplementedError('dispose() has not been implemented.');
   }
 
-  Future<String?> takePicture() {
+  /// The events of the camera with [cameraId]: [FacesDetectedEvent]s, the progress of a time-lapse
+  /// as [IntervalCaptureProgressEvent]s and an [IntervalCaptureDoneEvent], and
+  /// [CameraRecoveringEvent], [CameraRecoveredEvent] and [CameraRecoveryFailedEvent] while a
+  /// recovery policy reopens it.
+  Stream<CameraEvent> cameraEvents(int cameraId) {
+    throw UnimplementedError('cameraEvents() has not been implemented.');
+  }
+
+  Future<String?> takePicture({String format = 'jpeg', int? quality}) {
     throw UnimplementedError('takePicture() has not been implemented.');
   }
+
+  Future<CapturedImage> capture({String format = 'jpeg', int? quality}) {
+    throw UnimplementedError('capture() has not been implemented.');
+  }
+
+  /// Writes the most recent preview frame as a JPEG without interrupting the preview.
+  ///
+  /// Requires `enablePreviewSnapshot` on [createCamera]. The frame comes from a small stream of at
+  /// most 640 pixels wide, so this is much faster than [capture] but low resolution.
+  Future<CapturedImage> takePreviewSnapshot({int? quality}) {
+    throw UnimplementedError('takePreviewSnapshot() has not been implemented.');
+  }
+
+  /// Zooms the preview and later captures without restarting the session.
+  ///
+  /// [zoom] is clamped to the range reported by [getZoomRange]; the applied zoom is returned. Calls
+  /// faster than the preview frame rate, e.g. from a pinch gesture, update the camera at most once
+  /// per frame with the latest value.
+  Future<double> setZoom(double zoom) {
+    throw UnimplementedError('setZoom() has not been implemented.');
+  }
+
+  /// Reports the supported zoom factors and the current one.
+  Future<ZoomRange> getZoomRange() {
+    throw UnimplementedError('getZoomRange() has not been implemented.');
+  }
+
+  /// Focuses on [point] of the preview, or returns to continuous auto-focus when it is null.
+  ///
+  /// [point] is relative to the preview as shown, from (0, 0) at the top left to (1, 1) at the bottom
+  /// right. The reply comes once the lens locked, with whether it is `focused` and `timeToLockMs`.
+  /// A newer call fails a pending one with `focusCanceled`.
+  Future<Map<String, dynamic>?> setFocusPoint(Offset? point) {
+    throw UnimplementedError('setFocusPoint() has not been implemented.');
+  }
+
+  /// Meters exposure on [point] of the preview, or over the whole frame when it is null.
+  Future<void> setExposurePoint(Offset? point) {
+    throw UnimplementedError('setExposurePoint() has not been implemented.');
+  }
+
+  /// Turns the camera's own face detector on the preview on or off.
+  ///
+  /// Faces arrive on [cameraEvents] as [FacesDetectedEvent]s, at most one per [minInterval], with
+  /// their bounds on the preview and the detector's confidence. An event without faces follows when
+  /// the last face is gone. Fails with `faceDetectionNotSupported` on cameras without a detector.
+  Future<void> setFaceDetectionEnabled(bool enabled, {Duration minInterval = const Duration(milliseconds: 100)}) {
+    throw UnimplementedError('setFaceDetectionEnabled() has not been implemented.');
+  }
+
+  /// Reports how smoothly the preview runs.
+  ///
+  /// Frame totals count since the camera was created or the last [reset]; the frame rate and the
+  /// interval percentiles cover the last 256 frames.
+  Future<PreviewMetrics> getPreviewMetrics({bool reset = false}) {
+    throw UnimplementedError('getPreviewMetrics() has not been implemented.');
+  }
+
+  Future<void> configureCaptureStorage({int? maxBytes, int? maxCount, Duration? maxAge}) {
+    throw UnimplementedError('configureCaptureStorage() has not been implemented.');
+  }
+
+  Future<List<Map<String, dynamic>>> recentCaptures({int? limit}) {
+    throw UnimplementedError('recentCaptures() has not been implemented.');
+  }
+
+  /// Starts or stops logging the metadata of every still capture to a compact binary log.
+  ///
+  /// Logging happens in batches on a background thread and does not delay captures. Off by default.
+  Future<void> setCaptureMetadataEnabled(bool enabled) {
+    throw UnimplementedError('setCaptureMetadataEnabled() has not been implemented.');
+  }
+
+  /// Reads every logged record, oldest first, optionally only those logged [since] a time.
+  ///
+  /// A record has the image `path`, `createdMillis`, `sensorTimestampNs`, `exposureTimeNs`, `iso`,
+  /// `focusDistance` in diopters, `aperture`, `focalLength`, `afState`, `aeState`, `lensFacing` and
+  /// `exifOrientation`. Values the camera did not report are left out.
+  Future<List<Map<String, dynamic>>> getCaptureMetadata({DateTime? since}) {
+    throw UnimplementedError('getCaptureMetadata() has not been implemented.');
+  }
+
+  /// Reports the usage and reuse of the frame buffer pool.
+  ///
+  /// With a camera created it also reports the capture queue depth and whether the system reported
+  /// low memory and the queue was shortened.
+  Future<MemoryStats> getMemoryStats() {
+    throw UnimplementedError('getMemoryStats() has not been implemented.');
+  }
+
+  /// Turns system trace sections for the native camera pipeline on or off. Off by default.
+  ///
+  /// Sections cover opening the camera, configuring the session, starting the preview, submitting
+  /// captures, image delivery, file and EXIF writes and channel posts. Async sections spanning threads
+  /// are only recorded from Android 10.
+  Future<void> setTracingEnabled(bool enabled) {
+    throw UnimplementedError('setTracingEnabled() has not been implemented.');
+  }
+
+  /// Captures one JPEG per entry of [exposureValues] (EV offsets) in a single burst.
+  ///
+  /// Cameras with manual sensor control expose every frame with its own exposure time and ISO
+  /// relative to the metered preview. Other cameras use exposure compensation, which may only take
+  /// effect a few frames into the burst.
+  Future<List<CapturedImage>> takeBurst({List<double> exposureValues = const <double>[-2, 0, 2], int? quality}) {
+    throw UnimplementedError('takeBurst() has not been implemented.');
+  }
+
+  /// Captures [frameCount] frames and keeps only the sharpest one.
+  ///
+  /// Requires `enableBestShot` on [createCamera]. The reply has the written JPEG, the index of the
+  /// chosen frame and the sharpness scores of every frame.
+  Future<BestShotImage> takeBestShot({int frameCount = 5, int? quality}) {
+    throw UnimplementedError('takeBestShot() has not been implemented.');
+  }
+
+  /// Captures [frameCount] frames and merges them into one with less noise, e.g. in low light.
+  ///
+  /// Requires `enableMerge` on [createCamera]. The frames are aligned to the sharpest one
+  /// ([MergedImage.referenceIndex]) and averaged; [MergedImage.mergedTileRatio] is the share of
+  /// tiles that could be merged rather than kept from the reference because the scene moved.
+  Future<MergedImage> takeMergedShot({int frameCount = 5, int? quality}) {
+    throw UnimplementedError('takeMergedShot() has not been implemented.');
+  }
+
+  /// Starts a time-lapse of [count] shots, [interval] apart, timed natively.
+  ///
+  /// Progress is reported on [cameraEvents] as batches of [IntervalCaptureProgressEvent]s and an
+  /// [IntervalCaptureDoneEvent] with jitter statistics.
+  Future<void> startIntervalCapture({required Duration interval, required int count, String format = 'jpeg', int? quality}) {
+    throw UnimplementedError('startIntervalCapture() has not been implemented.');
+  }
+
+  Future<void> stopIntervalCapture() {
+    throw UnimplementedError('stopIntervalCapture() has not been implemented.');
+  }
+
+  /// Describes every camera, including the physical cameras behind logical multi-cameras.
+  Future<List<Map<String, dynamic>>> allCameras() {
+    throw UnimplementedError('allCameras() has not been implemented.');
+  }
   
 }
@@ -0,0 +1,297 @@
+import 'dart:ui' show Rect;
+
+import 'package:flutter/foundation.dart';
+
+/// An event the platform side sends for one camera while it is open.
+@immutable
+abstract class CameraEvent {
+  /// Creates an event of the camera with [cameraId].
+  const CameraEvent(this.cameraId);
+
+  /// The id returned by `createCamera` for the camera that sent the event.
+  final int cameraId;
+}
+
+/// A face found by the camera's own face detector.
+@immutable
+class DetectedFace {
+  /// Creates a new detected face.
+  const DetectedFace({required this.bounds, required this.confidence});
+
+  /// Bounds of the face on the preview as shown, from (0, 0) at the top left to (1, 1) at the
+  /// bottom right.
+  final Rect bounds;
+
+  /// Confidence of the detector, from 1 to 100.
+  final int confidence;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'DetectedFace')}($bounds, $confidence)';
+  }
+}
+
+/// The faces on a preview frame, sent while face detection is enabled.
+///
+/// An event without faces follows when the last face is gone.
+class FacesDetectedEvent extends CameraEvent {
+  /// Creates a new faces event.
+  const FacesDetectedEvent(super.cameraId, {required this.timestampNs, required this.faces});
+
+  /// Creates a faces event from the arguments of the platform side.
+  factory FacesDetectedEvent.fromMap(int cameraId, Map<dynamic, dynamic> map) {
+    final List<dynamic> boxes = map['boxes'] as List<dynamic>? ?? <dynamic>[];
+    final List<DetectedFace> faces = <DetectedFace>[];
+    // Five values per face: left, top, right, bottom and the confidence.
+    for (int i = 0; i + 4 < boxes.length; i += 5) {
+      faces.add(DetectedFace(
+        bounds: Rect.fromLTRB(
+          (boxes[i] as num).toDouble(),
+          (boxes[i + 1] as num).toDouble(),
+          (boxes[i + 2] as num).toDouble(),
+          (boxes[i + 3] as num).toDouble(),
+        ),
+        confidence: (boxes[i + 4] as num).round(),
+      ));
+    }
+    return FacesDetectedEvent(
+      cameraId,
+      timestampNs: (map['timestampNs']! as num).toInt(),
+      faces: List<DetectedFace>.unmodifiable(faces),
+    );
+  }
+
+  /// Sensor timestamp of the frame in nanoseconds.
+  final int timestampNs;
+
+  /// The faces on the frame, empty once the last face is gone.
+  final List<DetectedFace> faces;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'FacesDetectedEvent')}($cameraId, $timestampNs, $faces)';
+  }
+}
+
+/// The outcome of one shot of a time-lapse.
+@immutable
+class IntervalShot {
+  /// Creates a new shot outcome.
+  const IntervalShot({required this.index, this.path, this.jitter, this.error});
+
+  /// Creates a shot outcome from the arguments of the platform side.
+  factory IntervalShot.fromMap(Map<dynamic, dynamic> map) {
+    return IntervalShot(
+      index: map['index']! as int,
+      path: map['path'] as String?,
+      jitter: _millisOrNull(map['jitterMs']),
+      error: map['error'] as String?,
+    );
+  }
+
+  /// Position of the shot in the time-lapse, from 0.
+  final int index;
+
+  /// Path of the written file, or null if the shot failed.
+  final String? path;
+
+  /// How far the shot was off its schedule, or null if the shot failed.
+  final Duration? jitter;
+
+  /// Why the shot failed, or null if it was written.
+  final String? error;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'IntervalShot')}($index, ${error ?? path}, $jitter)';
+  }
+}
+
+/// A batch of time-lapse shots that were written or failed since the previous batch.
+class IntervalCaptureProgressEvent extends CameraEvent {
+  /// Creates a new progress event.
+  const IntervalCaptureProgressEvent(
+    super.cameraId, {
+    required this.shots,
+    required this.written,
+    required this.failed,
+    required this.total,
+  });
+
+  /// Creates a progress event from the arguments of the platform side.
+  factory IntervalCaptureProgressEvent.fromMap(int cameraId, Map<dynamic, dynamic> map) {
+    final List<dynamic> shots = map['shots'] as List<dynamic>? ?? <dynamic>[];
+    return IntervalCaptureProgressEvent(
+      cameraId,
+      shots: List<IntervalShot>.unmodifiable(
+          shots.map((dynamic shot) => IntervalShot.fromMap(shot as Map<dynamic, dynamic>))),
+      written: map['written']! as int,
+      failed: map['failed']! as int,
+      total: map['total']! as int,
+    );
+  }
+
+  /// The shots of this batch.
+  final List<IntervalShot> shots;
+
+  /// Shots written so far.
+  final int written;
+
+  /// Shots failed so far.
+  final int failed;
+
+  /// Shots the time-lapse was started with.
+  final int total;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'IntervalCaptureProgressEvent')}('
+        '$cameraId, ${shots.length} shots, $written written, $failed failed of $total)';
+  }
+}
+
+/// Sent once every shot of a time-lapse was written or failed, or after it was stopped.
+class IntervalCaptureDoneEvent extends CameraEvent {
+  /// Creates a new done event.
+  const IntervalCaptureDoneEvent(
+    super.cameraId, {
+    required this.written,
+    required this.failed,
+    required this.jitterSamples,
+    this.meanJitter,
+    this.jitterStdDev,
+    this.maxAbsJitter,
+    this.submitLatency,
+  });
+
+  /// Creates a done event from the arguments of the platform side.
+  factory IntervalCaptureDoneEvent.fromMap(int cameraId, Map<dynamic, dynamic> map) {
+    final Map<dynamic, dynamic> jitter = map['jitter'] as Map<dynamic, dynamic>? ?? <dynamic, dynamic>{};
+    return IntervalCaptureDoneEvent(
+      cameraId,
+      written: map['written']! as int,
+      failed: map['failed']! as int,
+      jitterSamples: jitter['samples'] as int? ?? 0,
+      meanJitter: _millisOrNull(jitter['meanMs']),
+      jitterStdDev: _millisOrNull(jitter['stdDevMs']),
+      maxAbsJitter: _millisOrNull(jitter['maxAbsMs']),
+      submitLatency: _millisOrNull(jitter['submitLatencyMs']),
+    );
+  }
+
+  /// Shots written.
+  final int written;
+
+  /// Shots failed.
+  final int failed;
+
+  /// Shots the jitter statistics are based on.
+  final int jitterSamples;
+
+  /// Mean offset of the shots from their schedule, or null without samples.
+  final Duration? meanJitter;
+
+  /// Standard deviation of the offsets, or null without samples.
+  final Duration? jitterStdDev;
+
+  /// Largest offset in either direction, or null without samples.
+  final Duration? maxAbsJitter;
+
+  /// Average time from submitting a shot until the sensor exposed it, or null if unknown.
+  final Duration? submitLatency;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'IntervalCaptureDoneEvent')}('
+        '$cameraId, $written written, $failed failed, jitter $meanJitter ± $jitterStdDev)';
+  }
+}
+
+/// Sent before every attempt to reopen the camera after it was disconnected or failed.
+class CameraRecoveringEvent extends CameraEvent {
+  /// Creates a new recovering event.
+  const CameraRecoveringEvent(super.cameraId, {required this.attempt, required this.delay, this.reason});
+
+  /// Creates a recovering event from the arguments of the platform side.
+  factory CameraRecoveringEvent.fromMap(int cameraId, Map<dynamic, dynamic> map) {
+    return CameraRecoveringEvent(
+      cameraId,
+      attempt: map['attempt']! as int,
+      delay: Duration(milliseconds: (map['delayMs']! as num).toInt()),
+      reason: map['reason'] as String?,
+    );
+  }
+
+  /// The attempt about to be made, from 1.
+  final int attempt;
+
+  /// Time until the attempt is made.
+  final Duration delay;
+
+  /// What made the camera fail, if known.
+  final String? reason;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'CameraRecoveringEvent')}($cameraId, $attempt, $delay, $reason)';
+  }
+}
+
+/// Sent once the reopened camera delivered its first preview frame.
+class CameraRecoveredEvent extends CameraEvent {
+  /// Creates a new recovered event.
+  const CameraRecoveredEvent(super.cameraId, {required this.attempts, required this.recoveryTime});
+
+  /// Creates a recovered event from the arguments of the platform side.
+  factory CameraRecoveredEvent.fromMap(int cameraId, Map<dynamic, dynamic> map) {
+    return CameraRecoveredEvent(
+      cameraId,
+      attempts: map['attempts']! as int,
+      recoveryTime: Duration(milliseconds: (map['recoveryMs']! as num).toInt()),
+    );
+  }
+
+  /// Attempts it took to reopen the camera.
+  final int attempts;
+
+  /// Time from the failure until the first preview frame.
+  final Duration recoveryTime;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'CameraRecoveredEvent')}($cameraId, $attempts, $recoveryTime)';
+  }
+}
+
+/// Sent when the camera could not be reopened within the recovery policy.
+class CameraRecoveryFailedEvent extends CameraEvent {
+  /// Creates a new recovery failed event.
+  const CameraRecoveryFailedEvent(super.cameraId, {required this.attempts, required this.recoveryTime, this.reason});
+
+  /// Creates a recovery failed event from the arguments of the platform side.
+  factory CameraRecoveryFailedEvent.fromMap(int cameraId, Map<dynamic, dynamic> map) {
+    return CameraRecoveryFailedEvent(
+      cameraId,
+      attempts: map['attempts']! as int,
+      recoveryTime: Duration(milliseconds: (map['recoveryMs']! as num).toInt()),
+      reason: map['reason'] as String?,
+    );
+  }
+
+  /// Attempts that were made.
+  final int attempts;
+
+  /// Time from the failure until recovery was given up.
+  final Duration recoveryTime;
+
+  /// Why the last attempt failed, if known.
+  final String? reason;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'CameraRecoveryFailedEvent')}($cameraId, $attempts, $recoveryTime, $reason)';
+  }
+}
+
+Duration? _millisOrNull(Object? value) =>
+    value == null ? null : Duration(microseconds: ((value as num) * 1000).round());
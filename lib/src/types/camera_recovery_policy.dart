@@ -0,0 +1,42 @@
+import 'package:flutter/foundation.dart';
+
+/// Controls how the plugin reopens the camera after it was disconnected or
+/// the camera service reported an error.
+///
+/// Attempts are spaced with an exponential backoff between [initialDelay] and
+/// [maxDelay], spread by a random [jitter] fraction.
+@immutable
+class CameraRecoveryPolicy {
+  /// Creates a new recovery policy.
+  const CameraRecoveryPolicy({
+    this.maxAttempts = 5,
+    this.initialDelay = const Duration(milliseconds: 250),
+    this.maxDelay = const Duration(seconds: 10),
+    this.multiplier = 2.0,
+    this.jitter = 0.2,
+  });
+
+  /// Maximum number of reopen attempts before the error is reported.
+  final int maxAttempts;
+
+  /// Delay before the first attempt.
+  final Duration initialDelay;
+
+  /// Upper bound for the delay between two attempts.
+  final Duration maxDelay;
+
+  /// Factor by which the delay grows after every failed attempt.
+  final double multiplier;
+
+  /// Fraction (0 to 1) by which every delay is randomly spread.
+  final double jitter;
+
+  /// Converts the policy into the arguments understood by the platform side.
+  Map<String, dynamic> toMap() => <String, dynamic>{
+        'maxAttempts': maxAttempts,
+        'initialDelayMs': initialDelay.inMilliseconds,
+        'maxDelayMs': maxDelay.inMilliseconds,
+        'multiplier': multiplier,
+        'jitter': jitter,
+      };
+}
@@ -0,0 +1,150 @@
+import 'package:flutter/foundation.dart';
+
+/// A still image written by the plugin.
+@immutable
+class CapturedImage {
+  /// Creates a new captured image description.
+  const CapturedImage({
+    required this.path,
+    required this.format,
+    required this.fileSize,
+    required this.encodeTime,
+    required this.writeTime,
+  });
+
+  /// Creates a captured image from the reply of the platform side.
+  factory CapturedImage.fromMap(Map<dynamic, dynamic> map) {
+    return CapturedImage(
+      path: map['path']! as String,
+      format: map['format']! as String,
+      fileSize: (map['fileSize']! as num).toInt(),
+      encodeTime: _millis(map['encodeTimeMs']),
+      writeTime: _millis(map['writeTimeMs']),
+    );
+  }
+
+  /// Absolute path of the written file.
+  final String path;
+
+  /// Format the file was written as (`jpeg`, `heic` or `dng`).
+  ///
+  /// May differ from the requested format when HEIC is not supported.
+  final String format;
+
+  /// Size of the written file in bytes.
+  final int fileSize;
+
+  /// Time from submitting the capture until the encoded image was available.
+  final Duration encodeTime;
+
+  /// Time from the encoded image being available until the file was complete.
+  final Duration writeTime;
+
+  static Duration _millis(Object? value) =>
+      Duration(microseconds: ((value as num? ?? 0) * 1000).round());
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'CapturedImage')}('
+        '$path, $format, $fileSize bytes, $encodeTime, $writeTime)';
+  }
+}
+
+/// The sharpest frame of a short burst, written by `takeBestShot`.
+class BestShotImage extends CapturedImage {
+  /// Creates a new best shot description.
+  const BestShotImage({
+    required super.path,
+    required super.format,
+    required super.fileSize,
+    required this.bestIndex,
+    required this.scores,
+    required this.totalTime,
+  }) : super(encodeTime: Duration.zero, writeTime: Duration.zero);
+
+  /// Creates a best shot from the reply of the platform side.
+  factory BestShotImage.fromMap(Map<dynamic, dynamic> map) {
+    return BestShotImage(
+      path: map['path']! as String,
+      format: map['format']! as String,
+      fileSize: (map['fileSize']! as num).toInt(),
+      bestIndex: map['bestIndex']! as int,
+      scores: _scores(map['scores']),
+      totalTime: CapturedImage._millis(map['totalTimeMs']),
+    );
+  }
+
+  /// Index of the written frame within the burst.
+  final int bestIndex;
+
+  /// Sharpness score of every frame of the burst, higher is sharper.
+  final List<double> scores;
+
+  /// Time from submitting the burst until the file was complete.
+  final Duration totalTime;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'BestShotImage')}('
+        '$path, frame $bestIndex of ${scores.length}, $totalTime)';
+  }
+}
+
+/// The frames of a short burst aligned and averaged into one, written by `takeMergedShot`.
+class MergedImage extends CapturedImage {
+  /// Creates a new merged image description.
+  const MergedImage({
+    required super.path,
+    required super.format,
+    required super.fileSize,
+    required this.referenceIndex,
+    required this.mergedFrames,
+    required this.mergedTileRatio,
+    required this.scores,
+    required this.mergeTime,
+    required this.totalTime,
+  }) : super(encodeTime: Duration.zero, writeTime: Duration.zero);
+
+  /// Creates a merged image from the reply of the platform side.
+  factory MergedImage.fromMap(Map<dynamic, dynamic> map) {
+    return MergedImage(
+      path: map['path']! as String,
+      format: map['format']! as String,
+      fileSize: (map['fileSize']! as num).toInt(),
+      referenceIndex: map['referenceIndex']! as int,
+      mergedFrames: map['mergedFrames']! as int,
+      mergedTileRatio: (map['mergedTileRatio']! as num).toDouble(),
+      scores: _scores(map['scores']),
+      mergeTime: CapturedImage._millis(map['mergeTimeMs']),
+      totalTime: CapturedImage._millis(map['totalTimeMs']),
+    );
+  }
+
+  /// Index of the sharpest frame, which the others were aligned to.
+  final int referenceIndex;
+
+  /// Number of frames that were merged.
+  final int mergedFrames;
+
+  /// Share of tiles (0 to 1) that could be merged rather than kept from the reference because the
+  /// scene moved.
+  final double mergedTileRatio;
+
+  /// Sharpness score of every frame of the burst, higher is sharper.
+  final List<double> scores;
+
+  /// Time the alignment and averaging took.
+  final Duration mergeTime;
+
+  /// Time from submitting the burst until the file was complete.
+  final Duration totalTime;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'MergedImage')}('
+        '$path, $mergedFrames frames onto $referenceIndex, $mergedTileRatio merged, $totalTime)';
+  }
+}
+
+List<double> _scores(Object? value) => List<double>.unmodifiable(
+    (value as List<dynamic>? ?? <dynamic>[]).map((dynamic score) => (score as num).toDouble()));
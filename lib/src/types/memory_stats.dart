@@ -0,0 +1,62 @@
+import 'package:flutter/foundation.dart';
+
+/// The frame buffer pool and the capture queue, as reported by `getMemoryStats`.
+@immutable
+class MemoryStats {
+  /// Creates new memory stats.
+  const MemoryStats({
+    required this.budgetBytes,
+    required this.inUseBytes,
+    required this.pooledBytes,
+    required this.peakBytes,
+    required this.hits,
+    required this.misses,
+    this.maxOutstandingCaptures,
+    this.memoryConstrained,
+  });
+
+  /// Creates memory stats from the reply of the platform side.
+  factory MemoryStats.fromMap(Map<dynamic, dynamic> map) {
+    return MemoryStats(
+      budgetBytes: (map['budgetBytes']! as num).toInt(),
+      inUseBytes: (map['inUseBytes']! as num).toInt(),
+      pooledBytes: (map['pooledBytes']! as num).toInt(),
+      peakBytes: (map['peakBytes']! as num).toInt(),
+      hits: (map['hits']! as num).toInt(),
+      misses: (map['misses']! as num).toInt(),
+      maxOutstandingCaptures: (map['maxOutstandingCaptures'] as num?)?.toInt(),
+      memoryConstrained: map['memoryConstrained'] as bool?,
+    );
+  }
+
+  /// Bytes the pool keeps in use and idle together before it drops idle buffers.
+  final int budgetBytes;
+
+  /// Bytes of buffers currently handed out.
+  final int inUseBytes;
+
+  /// Bytes of idle buffers kept for reuse.
+  final int pooledBytes;
+
+  /// Largest sum of [inUseBytes] and [pooledBytes] so far.
+  final int peakBytes;
+
+  /// Buffers that were served from the pool.
+  final int hits;
+
+  /// Buffers that had to be allocated.
+  final int misses;
+
+  /// Still captures that may be in flight at the same time, or null without a camera.
+  final int? maxOutstandingCaptures;
+
+  /// Whether the system reported low memory and the capture queue was shortened, or null without a
+  /// camera.
+  final bool? memoryConstrained;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'MemoryStats')}('
+        '$inUseBytes in use, $pooledBytes pooled of $budgetBytes, $hits hits, $misses misses)';
+  }
+}
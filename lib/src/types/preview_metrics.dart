@@ -0,0 +1,92 @@
+import 'package:flutter/foundation.dart';
+
+/// How smoothly the preview runs, as reported by `getPreviewMetrics`.
+///
+/// The totals count since the camera was created or the last reset. The rates and intervals cover
+/// the last [windowFrames] frames and are null while the window is empty.
+@immutable
+class PreviewMetrics {
+  /// Creates new preview metrics.
+  const PreviewMetrics({
+    required this.frames,
+    required this.droppedFrames,
+    required this.lateFrames,
+    required this.failedFrames,
+    required this.windowFrames,
+    this.fps,
+    this.expectedInterval,
+    this.intervalP50,
+    this.intervalP90,
+    this.intervalP99,
+    this.intervalMax,
+    this.lastFrameNumber,
+    this.lastTimestampNs,
+  });
+
+  /// Creates preview metrics from the reply of the platform side.
+  factory PreviewMetrics.fromMap(Map<dynamic, dynamic> map) {
+    return PreviewMetrics(
+      frames: (map['frames']! as num).toInt(),
+      droppedFrames: (map['droppedFrames']! as num).toInt(),
+      lateFrames: (map['lateFrames']! as num).toInt(),
+      failedFrames: (map['failedFrames']! as num).toInt(),
+      windowFrames: (map['windowFrames']! as num).toInt(),
+      fps: (map['fps'] as num?)?.toDouble(),
+      expectedInterval: _millisOrNull(map['expectedIntervalMs']),
+      intervalP50: _millisOrNull(map['intervalP50Ms']),
+      intervalP90: _millisOrNull(map['intervalP90Ms']),
+      intervalP99: _millisOrNull(map['intervalP99Ms']),
+      intervalMax: _millisOrNull(map['intervalMaxMs']),
+      lastFrameNumber: (map['lastFrameNumber'] as num?)?.toInt(),
+      lastTimestampNs: (map['lastTimestampNs'] as num?)?.toInt(),
+    );
+  }
+
+  /// Preview frames delivered.
+  final int frames;
+
+  /// Frames estimated to be missing from the gaps between late frames.
+  final int droppedFrames;
+
+  /// Frames that arrived more than 1.5 times the expected interval after the previous one.
+  final int lateFrames;
+
+  /// Frames the camera reported as failed.
+  final int failedFrames;
+
+  /// Frames in the window the rates and intervals are computed over, at most 256.
+  final int windowFrames;
+
+  /// Frames per second over the window.
+  final double? fps;
+
+  /// Typical interval between two frames, learned from the intervals that were not late.
+  final Duration? expectedInterval;
+
+  /// Median interval between two frames.
+  final Duration? intervalP50;
+
+  /// 90th percentile of the intervals.
+  final Duration? intervalP90;
+
+  /// 99th percentile of the intervals.
+  final Duration? intervalP99;
+
+  /// Longest interval.
+  final Duration? intervalMax;
+
+  /// Frame number of the latest frame.
+  final int? lastFrameNumber;
+
+  /// Sensor timestamp of the latest frame in nanoseconds.
+  final int? lastTimestampNs;
+
+  static Duration? _millisOrNull(Object? value) =>
+      value == null ? null : Duration(microseconds: ((value as num) * 1000).round());
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'PreviewMetrics')}('
+        '$frames frames, $droppedFrames dropped, $lateFrames late, $failedFrames failed, $fps fps, p99 $intervalP99)';
+  }
+}
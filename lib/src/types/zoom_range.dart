@@ -0,0 +1,31 @@
+import 'package:flutter/foundation.dart';
+
+/// The zoom factors a camera supports and the one currently applied.
+@immutable
+class ZoomRange {
+  /// Creates a new zoom range.
+  const ZoomRange({required this.minZoom, required this.maxZoom, required this.zoom});
+
+  /// Creates a zoom range from the reply of the platform side.
+  factory ZoomRange.fromMap(Map<dynamic, dynamic> map) {
+    return ZoomRange(
+      minZoom: (map['minZoom']! as num).toDouble(),
+      maxZoom: (map['maxZoom']! as num).toDouble(),
+      zoom: (map['zoom']! as num).toDouble(),
+    );
+  }
+
+  /// Smallest supported zoom factor, below 1 on cameras with an ultra wide lens.
+  final double minZoom;
+
+  /// Largest supported zoom factor.
+  final double maxZoom;
+
+  /// Zoom factor currently applied to the preview and captures.
+  final double zoom;
+
+  @override
+  String toString() {
+    return '${objectRuntimeType(this, 'ZoomRange')}($minZoom - $maxZoom, $zoom)';
+  }
+}